@@ -0,0 +1,131 @@
+package com.briansteen;
+
+import org.sunflow.image.Color;
+
+/**
+ * Converts the colors of a rendered bucket into packed ARGB ints without creating objects.
+ * Without gamma Color.toRGBA() does the clamping to 0..255. With gamma the channels are read
+ * through Color.toRGBE(), which keeps 8 bits of precision relative to the brightest channel,
+ * and quantized to 4096 steps before a lookup table applies the curve, so dark values do not
+ * band like they would after rounding to 8 bits first. Negative channels, which filters with
+ * negative lobes like mitchell leave at dark edges, are clamped to 0 first.
+ *
+ * The table is only written by setGamma(), so one converter can be shared by all render
+ * threads as long as the gamma is not changed during a render.
+ */
+public class BucketConverter {
+	private static final int STEPS = 4096;
+	// rgbe exponent to the factor turning a mantissa into a table index
+	private static final float[] EXPONENT = new float[256];
+
+	static {
+		// a channel is mantissa / 255 * 2 ^ (exponent - 128)
+		for(int i=1;i<256;i++) EXPONENT[i] = (float)(Math.pow(2, i - 128) / 255 * (STEPS - 1));
+	}
+
+	private final int[] table = new int[STEPS];
+	private boolean isLinear;
+
+	/**
+	 * converter which keeps the channels as they are
+	 */
+	public BucketConverter() {
+		setGamma(1);
+	}
+
+	/**
+	 * @param gamma gamma curve applied to every channel, 1 keeps them as they are
+	 */
+	public BucketConverter(float gamma) {
+		setGamma(gamma);
+	}
+
+	/**
+	 * sets the gamma curve, output = input ^ (1 / gamma)
+	 * @param gamma 2.2 brightens linear colors for a screen, 1 keeps them as they are
+	 */
+	public void setGamma(float gamma) {
+		isLinear = gamma == 1;
+		for(int i=0;i<STEPS;i++) {
+			table[i] = (int)Math.round(255 * Math.pow(i / (double)(STEPS - 1), 1.0 / gamma));
+		}
+	}
+
+	/**
+	 * converts one color
+	 * @param c color
+	 * @param alpha alpha between 0 and 1
+	 * @return ARGB int
+	 */
+	public int convert(Color c, float alpha) {
+		if(isLinear) return c.toRGBA(alpha);
+		return curve(c, alpha, table);
+	}
+
+	/**
+	 * converts one row of a bucket
+	 * @param data bucket colors
+	 * @param alpha bucket alpha values
+	 * @param offset index of the first color of the row
+	 * @param dest ARGB pixels
+	 * @param destOffset index of the first pixel written
+	 * @param length number of pixels in the row
+	 */
+	public void convertRow(Color[] data, float[] alpha, int offset, int[] dest, int destOffset, int length) {
+		if(isLinear) {
+			for(int i=0;i<length;i++) dest[destOffset + i] = data[offset + i].toRGBA(alpha[offset + i]);
+			return;
+		}
+		int[] table = this.table;
+		for(int i=0;i<length;i++) dest[destOffset + i] = curve(data[offset + i], alpha[offset + i], table);
+	}
+
+	/**
+	 * quantizes a color into table indices and packs the curved channels with alpha
+	 */
+	private static int curve(Color c, float alpha, int[] table) {
+		int a = Math.max(0, Math.min(255, (int)(alpha * 255 + 0.5f)));
+		int r, g, b;
+		if(c.getMin() < 0) {
+			// toRGBE() would wrap a negative channel into the others, these rare pixels are read as floats
+			float[] rgb = c.getRGB();
+			r = index(rgb[0]);
+			g = index(rgb[1]);
+			b = index(rgb[2]);
+		} else {
+			int rgbe = c.toRGBE();
+			float scale = EXPONENT[rgbe & 0xff];
+			r = Math.min(STEPS - 1, (int)(((rgbe >>> 24) & 0xff) * scale + 0.5f));
+			g = Math.min(STEPS - 1, (int)(((rgbe >>> 16) & 0xff) * scale + 0.5f));
+			b = Math.min(STEPS - 1, (int)(((rgbe >>> 8) & 0xff) * scale + 0.5f));
+		}
+		return (a << 24) | (table[r] << 16) | (table[g] << 8) | table[b];
+	}
+
+	/**
+	 * table index of a channel, clamped to 0..1
+	 */
+	private static int index(float value) {
+		return Math.max(0, Math.min(STEPS - 1, (int)(value * (STEPS - 1) + 0.5f)));
+	}
+
+	/**
+	 * converts a whole bucket into an image stored row by row
+	 * @param data bucket colors, w * h
+	 * @param alpha bucket alpha values, w * h
+	 * @param x bucket position in the image
+	 * @param y bucket position in the image, counted from the top
+	 * @param w bucket width
+	 * @param h bucket height
+	 * @param dest ARGB pixels of the image
+	 * @param width image width
+	 * @param height image height
+	 * @param flipY true if row 0 of dest is the bottom of the image
+	 */
+	public void convertBucket(Color[] data, float[] alpha, int x, int y, int w, int h, int[] dest, int width, int height, boolean flipY) {
+		for(int j=0;j<h;j++) {
+			int row = flipY ? (height - 1) - (y + j) : y + j;
+			convertRow(data, alpha, j * w, dest, row * width + x, w);
+		}
+	}
+}
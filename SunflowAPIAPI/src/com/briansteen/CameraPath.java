@@ -0,0 +1,158 @@
+package com.briansteen;
+
+import java.util.ArrayList;
+
+import org.sunflow.math.Point3;
+import org.sunflow.math.Vector3;
+
+/**
+ * Keyframes for eye, target, up and field of view of a camera.
+ * Between keyframes the values follow a Catmull-Rom spline, so the camera passes
+ * through every keyframe without stopping. Keyframes may be spaced unevenly in time.
+ *
+ * evaluate(time) writes into the Point3/Vector3 returned by getEye(), getTarget()
+ * and getUp(), so they change with every call. It is not thread safe.
+ */
+public class CameraPath {
+	// eye xyz, target xyz, up xyz, fov
+	private static final int VALUES = 10;
+
+	private ArrayList<float[]> keys = new ArrayList<float[]>();
+	private ArrayList<Float> times = new ArrayList<Float>();
+
+	private float[] current = new float[VALUES];
+	private Point3 eye = new Point3();
+	private Point3 target = new Point3();
+	private Vector3 up = new Vector3();
+	private float fov;
+
+	/**
+	 * adds a keyframe, keyframes can be added in any order
+	 * @param time time of the keyframe, like a frame number or seconds
+	 * @param eye camera position
+	 * @param target look at
+	 * @param up up direction
+	 * @param fov field of view in degrees
+	 * @return this path
+	 */
+	public CameraPath addKeyframe(float time, Point3 eye, Point3 target, Vector3 up, float fov) {
+		float[] key = new float[] {
+				eye.x, eye.y, eye.z,
+				target.x, target.y, target.z,
+				up.x, up.y, up.z,
+				fov };
+		int index = 0;
+		while(index < times.size() && times.get(index) <= time) index++;
+		times.add(index, time);
+		keys.add(index, key);
+		return this;
+	}
+
+	public int getKeyframeCount() {
+		return keys.size();
+	}
+
+	public float getStartTime() {
+		return times.get(0);
+	}
+
+	public float getEndTime() {
+		return times.get(times.size() - 1);
+	}
+
+	/**
+	 * moves the camera to a point in time, times before the first or after the last
+	 * keyframe stay at that keyframe
+	 * @param time time between getStartTime() and getEndTime()
+	 * @return this path
+	 */
+	public CameraPath evaluate(float time) {
+		int count = keys.size();
+		if(count == 0) throw new IllegalStateException("camera path has no keyframes");
+
+		if(count == 1 || time <= times.get(0)) {
+			set(keys.get(0));
+		} else if(time >= times.get(count - 1)) {
+			set(keys.get(count - 1));
+		} else {
+			// segment i to i+1 holds time
+			int i = 0;
+			while(times.get(i + 1) < time) i++;
+			float t0 = times.get(i), t1 = times.get(i + 1);
+			float duration = t1 - t0;
+			float u = duration > 0 ? (time - t0) / duration : 0;
+			float[] p0 = keys.get(i), p1 = keys.get(i + 1);
+			// neighbours for the tangents, the ends use their own segment
+			int previous = Math.max(i - 1, 0), next = Math.min(i + 2, count - 1);
+			float[] pp = keys.get(previous), pn = keys.get(next);
+			float tp = times.get(previous), tn = times.get(next);
+
+			// cubic hermite basis
+			float u2 = u * u, u3 = u2 * u;
+			float h00 = 2*u3 - 3*u2 + 1;
+			float h10 = u3 - 2*u2 + u;
+			float h01 = -2*u3 + 3*u2;
+			float h11 = u3 - u2;
+			for(int v=0;v<VALUES;v++) {
+				// catmull-rom tangents scaled to the length of this segment
+				float m0 = t1 > tp ? (p1[v] - pp[v]) / (t1 - tp) * duration : 0;
+				float m1 = tn > t0 ? (pn[v] - p0[v]) / (tn - t0) * duration : 0;
+				current[v] = h00 * p0[v] + h10 * m0 + h01 * p1[v] + h11 * m1;
+			}
+			set(current);
+		}
+		return this;
+	}
+
+	private void set(float[] values) {
+		eye.x = values[0];
+		eye.y = values[1];
+		eye.z = values[2];
+		target.x = values[3];
+		target.y = values[4];
+		target.z = values[5];
+		up.x = values[6];
+		up.y = values[7];
+		up.z = values[8];
+		fov = values[9];
+		// interpolated up vectors get shorter between keyframes
+		float length = (float)Math.sqrt(up.x*up.x + up.y*up.y + up.z*up.z);
+		if(length > 0) {
+			up.x /= length;
+			up.y /= length;
+			up.z /= length;
+		}
+	}
+
+	/**
+	 * camera position of the last evaluate()
+	 * @return Point3, changes with every evaluate()
+	 */
+	public Point3 getEye() {
+		return eye;
+	}
+
+	/**
+	 * look at of the last evaluate()
+	 * @return Point3, changes with every evaluate()
+	 */
+	public Point3 getTarget() {
+		return target;
+	}
+
+	/**
+	 * up direction of the last evaluate()
+	 * @return Vector3, changes with every evaluate()
+	 */
+	public Vector3 getUp() {
+		return up;
+	}
+
+	/**
+	 * field of view of the last evaluate()
+	 * @return fov in degrees
+	 */
+	public float getFov() {
+		return fov;
+	}
+}
@@ -0,0 +1,75 @@
+package com.briansteen;
+
+import org.sunflow.PluginRegistry;
+import org.sunflow.core.BucketOrder;
+
+/**
+ * Bucket order which leaves out the buckets a RenderCheckpoint already holds, so a resumed
+ * render only renders the missing ones. The other buckets keep the order of another bucket order.
+ *
+ * Sunflow creates bucket orders by name, so the order and the completed buckets are set up
+ * with begin() on the thread which then calls render, and cleared with end().
+ */
+public class CheckpointBucketOrder implements BucketOrder {
+	public static final String NAME = "checkpoint";
+
+	private static boolean isRegistered = false;
+	private static ThreadLocal<CheckpointBucketOrder> current = new ThreadLocal<CheckpointBucketOrder>();
+
+	private String order;
+	private boolean[] completed;
+
+	/**
+	 * used by sunflow, takes the order set with begin()
+	 */
+	public CheckpointBucketOrder() {
+		CheckpointBucketOrder setup = current.get();
+		if(setup != null) {
+			order = setup.order;
+			completed = setup.completed;
+		}
+	}
+
+	private CheckpointBucketOrder(String order, boolean[] completed) {
+		this.order = order;
+		this.completed = completed;
+	}
+
+	/**
+	 * makes the order known to sunflow as NAME
+	 */
+	public static synchronized void register() {
+		if(!isRegistered) isRegistered = PluginRegistry.bucketOrderPlugins.registerPlugin(NAME, CheckpointBucketOrder.class);
+	}
+
+	/**
+	 * sets up the order for the next render on this thread
+	 * @param order name of the bucket order for the missing buckets, like "hilbert"
+	 * @param completed one value per bucket, row by row, true for buckets to leave out
+	 */
+	public static void begin(String order, boolean[] completed) {
+		register();
+		current.set(new CheckpointBucketOrder(order, completed));
+	}
+
+	public static void end() {
+		current.remove();
+	}
+
+	public int[] getBucketSequence(int nbw, int nbh) {
+		BucketOrder base = PluginRegistry.bucketOrderPlugins.createObject(order == null ? "hilbert" : order);
+		int[] sequence = base.getBucketSequence(nbw, nbh);
+		if(completed == null) return sequence;
+		int count = 0;
+		for(int i=0;i<sequence.length;i+=2) {
+			if(!completed[sequence[i + 1] * nbw + sequence[i]]) count++;
+		}
+		int[] missing = new int[count * 2];
+		for(int i=0,j=0;i<sequence.length;i+=2) {
+			if(completed[sequence[i + 1] * nbw + sequence[i]]) continue;
+			missing[j++] = sequence[i];
+			missing[j++] = sequence[i + 1];
+		}
+		return missing;
+	}
+}
@@ -0,0 +1,140 @@
+package com.briansteen;
+
+import org.sunflow.math.Point3;
+import org.sunflow.math.Vector3;
+
+/**
+ * 64 bit hash over the values an object is made from, used to recognise objects
+ * which did not change since they were sent to sunflow.
+ * Values are mixed in word by word (FNV-1a with 32 bit words) and get() finishes
+ * with a 64 bit avalanche, so similar inputs end up far apart.
+ *
+ * One instance is meant to be reused, reset() starts a new hash. It is not thread safe.
+ */
+public class ContentHash {
+	private static final long OFFSET = 0xcbf29ce484222325L;
+	private static final long PRIME = 0x100000001b3L;
+
+	private long hash = OFFSET;
+
+	/**
+	 * starts a new hash
+	 * @return this hash
+	 */
+	public ContentHash reset() {
+		hash = OFFSET;
+		return this;
+	}
+
+	public ContentHash add(int value) {
+		hash = (hash ^ (value & 0xffffffffL)) * PRIME;
+		return this;
+	}
+
+	public ContentHash add(long value) {
+		return add((int)value).add((int)(value >>> 32));
+	}
+
+	public ContentHash add(float value) {
+		return add(Float.floatToIntBits(value));
+	}
+
+	public ContentHash add(boolean value) {
+		return add(value ? 1 : 0);
+	}
+
+	/**
+	 * @param value string, null is different from ""
+	 * @return this hash
+	 */
+	public ContentHash add(String value) {
+		if(value == null) return add(-1);
+		add(value.length());
+		for(int i=0;i<value.length();i++) hash = (hash ^ value.charAt(i)) * PRIME;
+		return this;
+	}
+
+	public ContentHash add(Point3 value) {
+		if(value == null) return add(-1);
+		return add(value.x).add(value.y).add(value.z);
+	}
+
+	public ContentHash add(Vector3 value) {
+		if(value == null) return add(-1);
+		return add(value.x).add(value.y).add(value.z);
+	}
+
+	/**
+	 * @param values array, null is different from an empty array
+	 * @return this hash
+	 */
+	public ContentHash add(float[] values) {
+		if(values == null) return add(-1);
+		return add(values, 0, values.length);
+	}
+
+	/**
+	 * adds a part of an array
+	 * @param values array
+	 * @param offset first index
+	 * @param length number of values
+	 * @return this hash
+	 */
+	public ContentHash add(float[] values, int offset, int length) {
+		add(length);
+		long h = hash;
+		for(int i=offset;i<offset+length;i++) h = (h ^ (Float.floatToIntBits(values[i]) & 0xffffffffL)) * PRIME;
+		hash = h;
+		return this;
+	}
+
+	public ContentHash add(int[] values) {
+		if(values == null) return add(-1);
+		add(values.length);
+		long h = hash;
+		for(int i=0;i<values.length;i++) h = (h ^ (values[i] & 0xffffffffL)) * PRIME;
+		hash = h;
+		return this;
+	}
+
+	/**
+	 * adds a part of a byte array, like a block of a file
+	 * @param values array
+	 * @param offset first index
+	 * @param length number of bytes
+	 * @return this hash
+	 */
+	public ContentHash add(byte[] values, int offset, int length) {
+		add(length);
+		long h = hash;
+		int i = offset, last = offset + length;
+		// 4 bytes per word
+		for(;i+4<=last;i+=4) {
+			int word = (values[i] & 0xff) | (values[i + 1] & 0xff) << 8 | (values[i + 2] & 0xff) << 16 | values[i + 3] << 24;
+			h = (h ^ (word & 0xffffffffL)) * PRIME;
+		}
+		for(;i<last;i++) h = (h ^ (values[i] & 0xff)) * PRIME;
+		hash = h;
+		return this;
+	}
+
+	public ContentHash add(Point3[] values) {
+		if(values == null) return add(-1);
+		add(values.length);
+		for(int i=0;i<values.length;i++) add(values[i]);
+		return this;
+	}
+
+	/**
+	 * @return the hash of everything added since the last reset()
+	 */
+	public long get() {
+		long h = hash;
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+}
@@ -0,0 +1,218 @@
+package com.briansteen;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Collects hair strands and draws them in chunks, so a groom of any size never needs more
+ * than one chunk per shader in memory besides what sunflow keeps.
+ *
+ * All strands have the same number of segments. Every strand has its own width, or a width
+ * per point, and a shader index. Sunflow gives a hair object one shader, so strands are
+ * collected per shader and every full chunk is drawn as a hair object named name.0, name.1, ...
+ *
+ * Strands can be made on several threads at once: every thread uses its own fork() of the
+ * builder, drawing a chunk waits for the other threads' chunks.
+ *
+ * <pre>
+ * HairBuilder hair = new HairBuilder(sunflow, "hair", 18);
+ * hair.beginStrand(.025f, 0);
+ * for(int i=0;i&lt;19;i++) hair.addPoint(x, y, z);
+ * hair.flush();
+ * </pre>
+ */
+public class HairBuilder {
+	public static final int DEFAULT_CHUNK_STRANDS = 10000;
+
+	// shared by all forks
+	private SunflowAPIAPI sunflow;
+	private String name;
+	private int segments;
+	private int chunkStrands;
+	private String[] shaders;
+	private AtomicInteger chunks;
+
+	// points and widths per shader
+	private float[][] points;
+	private float[][] widths;
+	private int[] strands;
+	private int strandCount = 0;
+
+	// strand made by addPoint
+	private int pointCount = -1;
+	private int shader;
+	private float width;
+
+	/**
+	 * builder drawing with the current shader
+	 * @param sunflow scene to draw into
+	 * @param name name of the hair objects, the chunk number is added
+	 * @param segments segments per strand, a strand has segments + 1 points
+	 */
+	public HairBuilder(SunflowAPIAPI sunflow, String name, int segments) {
+		this(sunflow, name, segments, new String[] { sunflow.getShader() }, DEFAULT_CHUNK_STRANDS);
+	}
+
+	/**
+	 * @param sunflow scene to draw into
+	 * @param name name of the hair objects, the chunk number is added
+	 * @param segments segments per strand, a strand has segments + 1 points
+	 * @param shaders names of shaders set before, strands choose one by index
+	 * @param chunkStrands strands per hair object
+	 */
+	public HairBuilder(SunflowAPIAPI sunflow, String name, int segments, String[] shaders, int chunkStrands) {
+		this.sunflow = sunflow;
+		this.name = name;
+		this.segments = segments;
+		this.shaders = shaders.clone();
+		this.chunkStrands = chunkStrands;
+		this.chunks = new AtomicInteger();
+		init();
+	}
+
+	private HairBuilder(HairBuilder builder) {
+		sunflow = builder.sunflow;
+		name = builder.name;
+		segments = builder.segments;
+		shaders = builder.shaders;
+		chunkStrands = builder.chunkStrands;
+		chunks = builder.chunks;
+		init();
+	}
+
+	private void init() {
+		points = new float[shaders.length][];
+		widths = new float[shaders.length][];
+		strands = new int[shaders.length];
+	}
+
+	/**
+	 * a builder for another thread, which draws into the same objects. flush() it when the thread is done
+	 * @return new builder
+	 */
+	public HairBuilder fork() {
+		return new HairBuilder(this);
+	}
+
+	/**
+	 * adds a strand with one width
+	 * @param strandPoints x, y, z of segments + 1 points
+	 * @param offset first value in strandPoints
+	 * @param width width of the strand
+	 * @param shader index of the shader
+	 */
+	public void addStrand(float[] strandPoints, int offset, float width, int shader) {
+		int index = reserve(shader);
+		System.arraycopy(strandPoints, offset, points[shader], index * 3, (segments + 1) * 3);
+		for(int i=0;i<=segments;i++) widths[shader][index + i] = width;
+		added(shader);
+	}
+
+	/**
+	 * adds a strand which changes its width
+	 * @param strandPoints x, y, z of segments + 1 points
+	 * @param offset first value in strandPoints
+	 * @param strandWidths width at each of the segments + 1 points
+	 * @param shader index of the shader
+	 */
+	public void addStrand(float[] strandPoints, int offset, float[] strandWidths, int shader) {
+		int index = reserve(shader);
+		System.arraycopy(strandPoints, offset, points[shader], index * 3, (segments + 1) * 3);
+		System.arraycopy(strandWidths, 0, widths[shader], index, segments + 1);
+		added(shader);
+	}
+
+	/**
+	 * starts a strand made point by point with addPoint, it ends after segments + 1 points
+	 * @param width width of the strand
+	 * @param shader index of the shader
+	 */
+	public void beginStrand(float width, int shader) {
+		if(pointCount >= 0) throw new IllegalStateException("strand has " + pointCount + " of " + (segments + 1) + " points");
+		reserve(shader);
+		this.width = width;
+		this.shader = shader;
+		pointCount = 0;
+	}
+
+	/**
+	 * adds a point to the strand started with beginStrand
+	 * @param x x
+	 * @param y y
+	 * @param z z
+	 */
+	public void addPoint(float x, float y, float z) {
+		if(pointCount < 0) throw new IllegalStateException("no strand begun");
+		int index = reserve(shader) + pointCount;
+		points[shader][index * 3] = x;
+		points[shader][index * 3 + 1] = y;
+		points[shader][index * 3 + 2] = z;
+		widths[shader][index] = width;
+		if(++pointCount > segments) {
+			pointCount = -1;
+			added(shader);
+		}
+	}
+
+	/**
+	 * draws the strands not drawn yet
+	 */
+	public void flush() {
+		if(pointCount >= 0) throw new IllegalStateException("strand has " + pointCount + " of " + (segments + 1) + " points");
+		for(int i=0;i<shaders.length;i++) draw(i);
+	}
+
+	/**
+	 * @return number of strands added to this builder
+	 */
+	public int getStrandCount() {
+		return strandCount;
+	}
+
+	/**
+	 * first point of the next strand of shader, the buffers grow up to the size of a chunk
+	 */
+	private int reserve(int shader) {
+		if(shader < 0 || shader >= shaders.length) throw new IllegalArgumentException("no shader " + shader);
+		int needed = (strands[shader] + 1) * (segments + 1);
+		if(points[shader] == null || widths[shader].length < needed) {
+			int length = Math.min(chunkStrands, Math.max(16, strands[shader] * 2)) * (segments + 1);
+			float[] largerPoints = new float[length * 3];
+			float[] largerWidths = new float[length];
+			if(points[shader] != null) {
+				System.arraycopy(points[shader], 0, largerPoints, 0, strands[shader] * (segments + 1) * 3);
+				System.arraycopy(widths[shader], 0, largerWidths, 0, strands[shader] * (segments + 1));
+			}
+			points[shader] = largerPoints;
+			widths[shader] = largerWidths;
+		}
+		return strands[shader] * (segments + 1);
+	}
+
+	private void added(int shader) {
+		strandCount++;
+		if(++strands[shader] == chunkStrands) draw(shader);
+	}
+
+	private void draw(int shader) {
+		int count = strands[shader];
+		if(count == 0) return;
+		float[] chunkPoints = points[shader];
+		float[] chunkWidths = widths[shader];
+		// sunflow keeps the arrays, so they are given away and new ones made for the next chunk
+		if(chunkWidths.length != count * (segments + 1)) {
+			chunkPoints = new float[count * (segments + 1) * 3];
+			chunkWidths = new float[count * (segments + 1)];
+			System.arraycopy(points[shader], 0, chunkPoints, 0, chunkPoints.length);
+			System.arraycopy(widths[shader], 0, chunkWidths, 0, chunkWidths.length);
+		}
+		points[shader] = null;
+		widths[shader] = null;
+		strands[shader] = 0;
+		synchronized(sunflow) {
+			String shaderName = sunflow.getShader();
+			sunflow.setShader(shaders[shader]);
+			sunflow.drawHair(name + "." + chunks.getAndIncrement(), segments, chunkPoints, chunkWidths);
+			sunflow.setShader(shaderName);
+		}
+	}
+}
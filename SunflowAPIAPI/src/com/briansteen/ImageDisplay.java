@@ -0,0 +1,137 @@
+package com.briansteen;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.lang.reflect.Field;
+
+import org.sunflow.core.Display;
+import org.sunflow.image.Color;
+
+/**
+ * Keeps the rendered image in memory instead of showing or writing it.
+ * The image is kept as an ARGB BufferedImage with sRGB colors, like a png written by sunflow,
+ * and if asked for also as linear float RGBA values.
+ *
+ * Every render gets new arrays, so a finished image can be handed to another thread while
+ * the next one renders. Render threads write their buckets at the same time, which is safe
+ * because buckets never overlap and nothing else is shared between them.
+ */
+public class ImageDisplay implements Display {
+	// fields r, g and b of Color, getRGB() would make an array for every pixel. null if they can not be read
+	private static final Field[] CHANNELS = channels();
+
+	private boolean keepFloats;
+
+	private BufferedImage image;
+	private int[] pixels;
+	private float[] floats;
+	private int width;
+
+	/**
+	 * display keeping an ARGB image
+	 */
+	public ImageDisplay() {
+		this(false);
+	}
+
+	/**
+	 * @param keepFloats true to keep linear float RGBA values as well
+	 */
+	public ImageDisplay(boolean keepFloats) {
+		this.keepFloats = keepFloats;
+	}
+
+	public void imageBegin(int w, int h, int bucketSize) {
+		image = new BufferedImage(w, h, BufferedImage.TYPE_INT_ARGB);
+		pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+		floats = keepFloats ? new float[w * h * 4] : null;
+		width = w;
+	}
+
+	public void imagePrepare(int x, int y, int w, int h, int id) {
+	}
+
+	public void imageUpdate(int x, int y, int w, int h, Color[] data, float[] alpha) {
+		// toNonLinear() changes the color, so every pixel is converted in this one
+		Color pixel = new Color();
+		for(int j=0;j<h;j++) {
+			int index = (y + j) * width + x;
+			for(int i=0;i<w;i++) {
+				Color c = data[j * w + i];
+				float a = alpha[j * w + i];
+				if(floats != null) setFloats(index + i, c, a);
+				pixels[index + i] = pixel.set(c).toNonLinear().toRGBA(a);
+			}
+		}
+	}
+
+	public void imageFill(int x, int y, int w, int h, Color c, float alpha) {
+		int argb = c.copy().toNonLinear().toRGBA(alpha);
+		for(int j=0;j<h;j++) {
+			int index = (y + j) * width + x;
+			for(int i=0;i<w;i++) {
+				if(floats != null) setFloats(index + i, c, alpha);
+				pixels[index + i] = argb;
+			}
+		}
+	}
+
+	private void setFloats(int pixel, Color c, float alpha) {
+		if(CHANNELS != null) {
+			try {
+				floats[pixel * 4] = CHANNELS[0].getFloat(c);
+				floats[pixel * 4 + 1] = CHANNELS[1].getFloat(c);
+				floats[pixel * 4 + 2] = CHANNELS[2].getFloat(c);
+				floats[pixel * 4 + 3] = alpha;
+				return;
+			} catch (IllegalAccessException e) {
+				// read below
+			}
+		}
+		float[] rgb = c.getRGB();
+		floats[pixel * 4] = rgb[0];
+		floats[pixel * 4 + 1] = rgb[1];
+		floats[pixel * 4 + 2] = rgb[2];
+		floats[pixel * 4 + 3] = alpha;
+	}
+
+	public void imageEnd() {
+	}
+
+	private static Field[] channels() {
+		try {
+			Field[] fields = { Color.class.getDeclaredField("r"), Color.class.getDeclaredField("g"), Color.class.getDeclaredField("b") };
+			for(int i=0;i<fields.length;i++) {
+				if(fields[i].getType() != float.class) return null;
+				fields[i].setAccessible(true);
+			}
+			return fields;
+		} catch (Exception e) {
+			return null;
+		}
+	}
+
+	/**
+	 * the image of the last render
+	 * @return ARGB BufferedImage, null before the first render
+	 */
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	/**
+	 * the pixels of the last render, row by row from the top. it is the data of getImage(), not a copy
+	 * @return ARGB ints with sRGB colors, null before the first render
+	 */
+	public int[] getPixels() {
+		return pixels;
+	}
+
+	/**
+	 * the linear colors of the last render, row by row from the top
+	 * @return 4 floats (r, g, b, alpha) per pixel, null if floats are not kept
+	 */
+	public float[] getFloats() {
+		return floats;
+	}
+}
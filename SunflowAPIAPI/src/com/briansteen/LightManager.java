@@ -0,0 +1,300 @@
+package com.briansteen;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Holds point lights for SunflowAPIAPI.setLightManager(LightManager) and gives sunflow fewer
+ * of them at render time. Sunflow samples every light at every shading point, so a scene with
+ * thousands of point lights renders thousands of times slower than with one.
+ *
+ * The lights are put into an octree. Seen from the region the camera looks at, a node whose
+ * size is small against its distance (below maxError) is drawn as one light at the centre of
+ * its power with the summed power. Nodes which light the region less than minIrradiance
+ * (power / distance^2) are left out, and nodes whose clustering error would be below
+ * minIrradiance are clustered even when they are larger. Lights inside the region stay as they are.
+ */
+public class LightManager {
+	// an octree node is not split further than this, for lights at the same place
+	private static final int MAX_DEPTH = 20;
+	private static final String SRGB_LINEAR = "sRGB linear";
+	private static final String XYZ = "XYZ";
+
+	private float maxError;
+	private float minIrradiance;
+
+	private List<Light> lights = new ArrayList<Light>();
+	private HashMap<String, Integer> indices = new HashMap<String, Integer>();
+
+	// region set by setRegion, radius < 0 for the camera
+	private float regionX, regionY, regionZ;
+	private float regionRadius = -1;
+	// region of the current cluster()
+	private float centerX, centerY, centerZ;
+	private float radius;
+
+	private int culledCount;
+	private int clusterCount;
+
+	/**
+	 * a point light, with its power as given and as linear sRGB
+	 */
+	public static class Light {
+		public String name;
+		public float x, y, z;
+		public String colorSpace;
+		public float r, g, b;
+		double linearR, linearG, linearB;
+
+		Light(String name, float x, float y, float z, String colorSpace, float r, float g, float b) {
+			this.name = name;
+			this.x = x;
+			this.y = y;
+			this.z = z;
+			this.colorSpace = colorSpace;
+			this.r = r;
+			this.g = g;
+			this.b = b;
+			float[] linear = linear(colorSpace, r, g, b);
+			linearR = linear[0];
+			linearG = linear[1];
+			linearB = linear[2];
+		}
+
+		public boolean equals(Object object) {
+			if(!(object instanceof Light)) return false;
+			Light light = (Light)object;
+			return name.equals(light.name) && x == light.x && y == light.y && z == light.z
+				&& colorSpace.equals(light.colorSpace) && r == light.r && g == light.g && b == light.b;
+		}
+
+		public int hashCode() {
+			return name.hashCode();
+		}
+	}
+
+	private static class Node {
+		float minX, minY, minZ, maxX, maxY, maxZ;
+		double x, y, z;
+		double r, g, b;
+		int first, count;
+		Node[] children;
+	}
+
+	/**
+	 * @param maxError size of a cluster divided by its distance to the region, 0 for no clustering
+	 * @param minIrradiance lights giving the region less are left out, 0 to keep all lights
+	 */
+	public LightManager(float maxError, float minIrradiance) {
+		this.maxError = maxError;
+		this.minIrradiance = minIrradiance;
+	}
+
+	/**
+	 * adds a point light, or changes the light with the same name
+	 * @param name Individual name
+	 * @param x x
+	 * @param y y
+	 * @param z z
+	 * @param colorSpace sunflow color space of r, g, b
+	 * @param r red power
+	 * @param g green power
+	 * @param b blue power
+	 */
+	public void add(String name, float x, float y, float z, String colorSpace, float r, float g, float b) {
+		Light light = new Light(name, x, y, z, colorSpace, r, g, b);
+		Integer index = indices.get(name);
+		if(index != null) {
+			lights.set(index, light);
+		} else {
+			indices.put(name, lights.size());
+			lights.add(light);
+		}
+	}
+
+	/**
+	 * the region the lights are measured from, instead of the camera
+	 * @param x centre x
+	 * @param y centre y
+	 * @param z centre z
+	 * @param radius radius, lights inside are never clustered or left out
+	 */
+	public void setRegion(float x, float y, float z, float radius) {
+		regionX = x;
+		regionY = y;
+		regionZ = z;
+		regionRadius = radius;
+	}
+
+	/**
+	 * lights to give sunflow. single lights keep their name, clusters are named by their first light
+	 * @param x centre of the region if none is set
+	 * @param y centre of the region if none is set
+	 * @param z centre of the region if none is set
+	 * @param radius radius of the region if none is set
+	 * @return clusters and lights
+	 */
+	public List<Light> cluster(float x, float y, float z, float radius) {
+		boolean isRegion = regionRadius >= 0;
+		centerX = isRegion ? regionX : x;
+		centerY = isRegion ? regionY : y;
+		centerZ = isRegion ? regionZ : z;
+		this.radius = isRegion ? regionRadius : radius;
+		List<Light> result = new ArrayList<Light>();
+		culledCount = 0;
+		clusterCount = 0;
+		if(!lights.isEmpty()) {
+			int[] order = new int[lights.size()];
+			for(int i=0;i<order.length;i++) order[i] = i;
+			Node root = build(order, 0, order.length, 0, new int[order.length]);
+			collect(root, order, result);
+		}
+		return result;
+	}
+
+	/**
+	 * @return number of lights added
+	 */
+	public int getLightCount() {
+		return lights.size();
+	}
+
+	/**
+	 * @return number of lights left out by the last cluster()
+	 */
+	public int getCulledCount() {
+		return culledCount;
+	}
+
+	/**
+	 * @return number of clusters made by the last cluster()
+	 */
+	public int getClusterCount() {
+		return clusterCount;
+	}
+
+	/* ---------------------------------------------------------------------------------------------
+	 * OCTREE
+	 */
+	private Node build(int[] order, int first, int end, int depth, int[] scratch) {
+		Node node = new Node();
+		node.first = first;
+		node.count = end - first;
+		node.minX = node.minY = node.minZ = Float.MAX_VALUE;
+		node.maxX = node.maxY = node.maxZ = -Float.MAX_VALUE;
+		double weight = 0;
+		for(int i=first;i<end;i++) {
+			Light light = lights.get(order[i]);
+			node.minX = Math.min(node.minX, light.x); node.maxX = Math.max(node.maxX, light.x);
+			node.minY = Math.min(node.minY, light.y); node.maxY = Math.max(node.maxY, light.y);
+			node.minZ = Math.min(node.minZ, light.z); node.maxZ = Math.max(node.maxZ, light.z);
+			node.r += light.linearR;
+			node.g += light.linearG;
+			node.b += light.linearB;
+			double power = power(light.linearR, light.linearG, light.linearB);
+			node.x += light.x * power;
+			node.y += light.y * power;
+			node.z += light.z * power;
+			weight += power;
+		}
+		if(weight > 0) {
+			node.x /= weight;
+			node.y /= weight;
+			node.z /= weight;
+		} else {
+			node.x = (node.minX + node.maxX) * 0.5;
+			node.y = (node.minY + node.maxY) * 0.5;
+			node.z = (node.minZ + node.maxZ) * 0.5;
+		}
+		if(node.count <= 1 || depth >= MAX_DEPTH || extent(node) == 0) return node;
+
+		// sort the lights into the octants around the middle
+		float midX = (node.minX + node.maxX) * 0.5f, midY = (node.minY + node.maxY) * 0.5f, midZ = (node.minZ + node.maxZ) * 0.5f;
+		int[] starts = new int[9];
+		int[] octants = new int[node.count];
+		for(int i=first;i<end;i++) {
+			Light light = lights.get(order[i]);
+			int octant = (light.x > midX ? 1 : 0) | (light.y > midY ? 2 : 0) | (light.z > midZ ? 4 : 0);
+			octants[i - first] = octant;
+			starts[octant + 1]++;
+		}
+		for(int i=0;i<8;i++) starts[i + 1] += starts[i];
+		int[] positions = starts.clone();
+		for(int i=first;i<end;i++) scratch[first + positions[octants[i - first]]++] = order[i];
+		System.arraycopy(scratch, first, order, first, node.count);
+
+		List<Node> children = new ArrayList<Node>();
+		for(int i=0;i<8;i++) {
+			if(starts[i + 1] > starts[i]) children.add(build(order, first + starts[i], first + starts[i + 1], depth + 1, scratch));
+		}
+		node.children = children.toArray(new Node[children.size()]);
+		return node;
+	}
+
+	private void collect(Node node, int[] order, List<Light> result) {
+		double distance = distance(node);
+		double power = power(node.r, node.g, node.b);
+		// too weak to be seen in the region
+		if(minIrradiance > 0 && distance > 0 && power / (distance * distance) < minIrradiance) {
+			culledCount += node.count;
+			return;
+		}
+		if(node.count == 1) {
+			result.add(lights.get(order[node.first]));
+			return;
+		}
+		double extent = extent(node);
+		boolean isSmall = distance > 0 && extent / distance <= maxError;
+		boolean isWeak = distance > 0 && minIrradiance > 0 && power / (distance * distance) * 2 * extent / distance <= minIrradiance;
+		if(extent == 0 || node.children == null || isSmall || isWeak) {
+			Light first = lights.get(order[node.first]);
+			result.add(new Light(first.name + ".cluster", (float)node.x, (float)node.y, (float)node.z, SRGB_LINEAR,
+					(float)node.r, (float)node.g, (float)node.b));
+			clusterCount++;
+			return;
+		}
+		for(Node child : node.children) collect(child, order, result);
+	}
+
+	/**
+	 * half the diagonal of a node
+	 */
+	private static double extent(Node node) {
+		double x = node.maxX - node.minX, y = node.maxY - node.minY, z = node.maxZ - node.minZ;
+		return 0.5 * Math.sqrt(x * x + y * y + z * z);
+	}
+
+	/**
+	 * distance from the box of a node to the region, 0 if they touch
+	 */
+	private double distance(Node node) {
+		double x = Math.max(0, Math.max(node.minX - centerX, centerX - node.maxX));
+		double y = Math.max(0, Math.max(node.minY - centerY, centerY - node.maxY));
+		double z = Math.max(0, Math.max(node.minZ - centerZ, centerZ - node.maxZ));
+		return Math.max(0, Math.sqrt(x * x + y * y + z * z) - radius);
+	}
+
+	private static double power(double r, double g, double b) {
+		return Math.max(r, Math.max(g, b));
+	}
+
+	/**
+	 * linear sRGB of a sunflow color
+	 */
+	private static float[] linear(String colorSpace, float r, float g, float b) {
+		if(XYZ.equals(colorSpace)) {
+			return new float[] {
+				3.2406f * r - 1.5372f * g - 0.4986f * b,
+				-0.9689f * r + 1.8758f * g + 0.0415f * b,
+				0.0557f * r - 0.2040f * g + 1.0570f * b };
+		}
+		if(SRGB_LINEAR.equals(colorSpace)) return new float[] { r, g, b };
+		return new float[] { linear(r), linear(g), linear(b) };
+	}
+
+	private static float linear(float value) {
+		if(value <= 0.04045f) return value / 12.92f;
+		return (float)Math.pow((value + 0.055) / 1.055, 2.4);
+	}
+}
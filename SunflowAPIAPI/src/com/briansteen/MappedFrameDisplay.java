@@ -0,0 +1,187 @@
+package com.briansteen;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import org.sunflow.core.Display;
+import org.sunflow.image.Color;
+
+/**
+ * Keeps the rendered image in a memory mapped file instead of the java heap, as linear
+ * float RGBA values, so the image size is limited by the disk and not by -Xmx.
+ * Render threads write their buckets straight into the mapping.
+ *
+ * The file is a 16 byte header (the bytes "SFFB", width, height and the number of channels
+ * as little endian ints) followed by 4 little endian floats (r, g, b, alpha) per pixel, row by
+ * row from the top. The file is created sparse, pixels not rendered yet read as 0.
+ * A mapping can not be larger than 2GB, so the file is mapped in bands of whole rows.
+ *
+ * After the render, or with open() for a file written before, the pixels can be read
+ * with getPixel() and getRow(), for example by a post processing step.
+ */
+public class MappedFrameDisplay implements Display {
+	private static final int MAGIC = 'S' | 'F' << 8 | 'F' << 16 | 'B' << 24;
+	private static final int HEADER = 16;
+	private static final int CHANNELS = 4;
+	private static final int PIXEL_BYTES = CHANNELS * 4;
+	// largest band mapped at once
+	private static final long BAND_BYTES = 1L << 30;
+
+	private String fileName;
+	private MappedByteBuffer[] bands;
+	private int width;
+	private int height;
+	private int bandRows;
+
+	/**
+	 * @param fileName frame file, it is replaced if it exists
+	 */
+	public MappedFrameDisplay(String fileName) {
+		this.fileName = fileName;
+	}
+
+	/**
+	 * maps a frame file written before, read only
+	 * @param fileName frame file
+	 * @return display to read the pixels from
+	 * @throws IOException if the file can not be read or is no frame file
+	 */
+	public static MappedFrameDisplay open(String fileName) throws IOException {
+		MappedFrameDisplay frame = new MappedFrameDisplay(fileName);
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			FileChannel channel = file.getChannel();
+			MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER);
+			header.order(ByteOrder.LITTLE_ENDIAN);
+			if(header.getInt(0) != MAGIC || header.getInt(12) != CHANNELS) throw new IOException(fileName + " is no frame file");
+			frame.map(channel, FileChannel.MapMode.READ_ONLY, header.getInt(4), header.getInt(8));
+		} finally {
+			file.close();
+		}
+		return frame;
+	}
+
+	public void imageBegin(int w, int h, int bucketSize) {
+		try {
+			RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+			try {
+				file.setLength(0);
+				// sets the size without writing anything, the file stays sparse
+				file.setLength(HEADER + (long)w * h * PIXEL_BYTES);
+				FileChannel channel = file.getChannel();
+				MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER);
+				header.order(ByteOrder.LITTLE_ENDIAN);
+				header.putInt(0, MAGIC).putInt(4, w).putInt(8, h).putInt(12, CHANNELS);
+				header.force();
+				// the mappings stay valid after the file is closed
+				map(channel, FileChannel.MapMode.READ_WRITE, w, h);
+			} finally {
+				file.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("mapping " + fileName + " failed", e);
+		}
+	}
+
+	private void map(FileChannel channel, FileChannel.MapMode mode, int w, int h) throws IOException {
+		width = w;
+		height = h;
+		long rowBytes = (long)w * PIXEL_BYTES;
+		bandRows = (int)Math.max(1, Math.min(h, BAND_BYTES / rowBytes));
+		bands = new MappedByteBuffer[(h + bandRows - 1) / bandRows];
+		for(int i=0;i<bands.length;i++) {
+			int rows = Math.min(bandRows, h - i * bandRows);
+			bands[i] = channel.map(mode, HEADER + i * bandRows * rowBytes, rows * rowBytes);
+			bands[i].order(ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	public void imagePrepare(int x, int y, int w, int h, int id) {
+	}
+
+	public void imageUpdate(int x, int y, int w, int h, Color[] data, float[] alpha) {
+		// absolute puts only, buckets never overlap, so threads don't get in each others way
+		for(int j=0;j<h;j++) {
+			MappedByteBuffer band = bands[(y + j) / bandRows];
+			int index = pixelIndex(x, y + j);
+			for(int i=0;i<w;i++) {
+				float[] rgb = data[j * w + i].getRGB();
+				band.putFloat(index, rgb[0]);
+				band.putFloat(index + 4, rgb[1]);
+				band.putFloat(index + 8, rgb[2]);
+				band.putFloat(index + 12, alpha[j * w + i]);
+				index += PIXEL_BYTES;
+			}
+		}
+	}
+
+	public void imageFill(int x, int y, int w, int h, Color c, float alpha) {
+		float[] rgb = c.getRGB();
+		for(int j=0;j<h;j++) {
+			MappedByteBuffer band = bands[(y + j) / bandRows];
+			int index = pixelIndex(x, y + j);
+			for(int i=0;i<w;i++) {
+				band.putFloat(index, rgb[0]);
+				band.putFloat(index + 4, rgb[1]);
+				band.putFloat(index + 8, rgb[2]);
+				band.putFloat(index + 12, alpha);
+				index += PIXEL_BYTES;
+			}
+		}
+	}
+
+	public void imageEnd() {
+		for(int i=0;i<bands.length;i++) bands[i].force();
+	}
+
+	/**
+	 * byte index of a pixel inside its band
+	 */
+	private int pixelIndex(int x, int y) {
+		return ((y % bandRows) * width + x) * PIXEL_BYTES;
+	}
+
+	public String getFileName() {
+		return fileName;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	/**
+	 * reads one pixel
+	 * @param x column
+	 * @param y row from the top
+	 * @param rgba receives r, g, b and alpha, null for a new array
+	 * @return rgba
+	 */
+	public float[] getPixel(int x, int y, float[] rgba) {
+		if(rgba == null) rgba = new float[CHANNELS];
+		MappedByteBuffer band = bands[y / bandRows];
+		int index = pixelIndex(x, y);
+		for(int c=0;c<CHANNELS;c++) rgba[c] = band.getFloat(index + c * 4);
+		return rgba;
+	}
+
+	/**
+	 * reads one row, so large images can be processed a row at a time
+	 * @param y row from the top
+	 * @param rgba receives 4 floats (r, g, b, alpha) per pixel, null for a new array
+	 * @return rgba
+	 */
+	public float[] getRow(int y, float[] rgba) {
+		if(rgba == null) rgba = new float[width * CHANNELS];
+		MappedByteBuffer band = bands[y / bandRows];
+		int index = pixelIndex(0, y);
+		for(int i=0;i<width*CHANNELS;i++) rgba[i] = band.getFloat(index + i * 4);
+		return rgba;
+	}
+}
@@ -0,0 +1,79 @@
+package com.briansteen;
+
+/**
+ * Vertices and triangles of a mesh, with normals and uvs if there are any, as plain arrays
+ * which can be handed to sunflow as they are (see SunflowAPIAPI.drawMesh(String, MeshData)).
+ *
+ * Normals and uvs are either given per vertex ("vertex") or per triangle corner
+ * ("facevarying", 3 normals or uvs per triangle), like the interpolations of sunflow.
+ */
+public class MeshData {
+	public static final String VERTEX = "vertex";
+	public static final String FACEVARYING = "facevarying";
+
+	private float[] vertices;
+	private int[] triangles;
+	private float[] normals;
+	private String normalsInterpolation;
+	private float[] uvs;
+	private String uvsInterpolation;
+
+	/**
+	 * @param vertices 3 floats per vertex
+	 * @param triangles 3 vertex indices per triangle
+	 */
+	public MeshData(float[] vertices, int[] triangles) {
+		this.vertices = vertices;
+		this.triangles = triangles;
+	}
+
+	/**
+	 * @param normals 3 floats per vertex or triangle corner, null for none
+	 * @param interpolation VERTEX or FACEVARYING
+	 */
+	public void setNormals(float[] normals, String interpolation) {
+		this.normals = normals;
+		this.normalsInterpolation = interpolation;
+	}
+
+	/**
+	 * @param uvs 2 floats per vertex or triangle corner, null for none
+	 * @param interpolation VERTEX or FACEVARYING
+	 */
+	public void setUVs(float[] uvs, String interpolation) {
+		this.uvs = uvs;
+		this.uvsInterpolation = interpolation;
+	}
+
+	public float[] getVertices() {
+		return vertices;
+	}
+
+	public int[] getTriangles() {
+		return triangles;
+	}
+
+	public float[] getNormals() {
+		return normals;
+	}
+
+	public String getNormalsInterpolation() {
+		return normalsInterpolation;
+	}
+
+	public float[] getUVs() {
+		return uvs;
+	}
+
+	public String getUVsInterpolation() {
+		return uvsInterpolation;
+	}
+
+	public int getVertexCount() {
+		return vertices.length / 3;
+	}
+
+	public int getTriangleCount() {
+		return triangles.length / 3;
+	}
+}
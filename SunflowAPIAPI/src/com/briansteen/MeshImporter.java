@@ -0,0 +1,731 @@
+package com.briansteen;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Reads OBJ and binary PLY meshes into MeshData, for SunflowAPIAPI.drawMesh(String, MeshData).
+ *
+ * The file is memory mapped in chunks which are parsed on all cores at the same time,
+ * straight into primitive arrays. OBJ chunks end at line ends and are put together after
+ * parsing, PLY vertices have a fixed size and are read into their place directly, PLY faces
+ * are found with one quick pass over their vertex counts first.
+ *
+ * Polygons are split into triangle fans. OBJ normals and uvs are kept per triangle corner
+ * (facevarying), because OBJ indexes them separately from the vertices, PLY normals
+ * (nx, ny, nz) and uvs (u, v or s, t) are kept per vertex.
+ */
+public class MeshImporter {
+	// size of the parts of a file parsed by one task
+	private static final long CHUNK_BYTES = 16 << 20;
+	private static final int FACES_PER_CHUNK = 1 << 20;
+	// marks an OBJ corner without uv or normal
+	private static final int MISSING = Integer.MIN_VALUE;
+
+	private static final double[] POWERS_OF_TEN = new double[23];
+	static {
+		POWERS_OF_TEN[0] = 1;
+		for(int i=1;i<POWERS_OF_TEN.length;i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i - 1] * 10;
+	}
+
+	/**
+	 * reads an OBJ or PLY file, chosen by the file extension
+	 * @param fileName mesh file
+	 * @return the mesh
+	 * @throws IOException if the file can not be read or has errors
+	 */
+	public static MeshData load(String fileName) throws IOException {
+		if(fileName.toLowerCase().endsWith(".ply")) return loadPly(fileName);
+		return loadObj(fileName);
+	}
+
+	private static <T> List<T> run(List<Callable<T>> tasks) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(Math.min(tasks.size(), Runtime.getRuntime().availableProcessors()));
+		try {
+			List<Future<T>> futures = pool.invokeAll(tasks);
+			List<T> results = new ArrayList<T>(futures.size());
+			for(Future<T> future : futures) results.add(future.get());
+			return results;
+		} catch (InterruptedException e) {
+			throw new IOException("loading interrupted");
+		} catch (ExecutionException e) {
+			if(e.getCause() instanceof IOException) throw (IOException)e.getCause();
+			throw new RuntimeException(e.getCause());
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/* ---------------------------------------------------------------------------------------------
+	 * OBJ
+	 */
+	/**
+	 * reads a wavefront OBJ file. only v, vt, vn and f lines are used
+	 * @param fileName OBJ file
+	 * @return the mesh, with facevarying normals and uvs if the faces have them
+	 * @throws IOException if the file can not be read or has errors
+	 */
+	public static MeshData loadObj(String fileName) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		List<ObjChunk> chunks;
+		try {
+			FileChannel channel = file.getChannel();
+			long size = channel.size();
+			List<Callable<ObjChunk>> tasks = new ArrayList<Callable<ObjChunk>>();
+			long start = 0;
+			while(start < size) {
+				long end = Math.min(size, start + CHUNK_BYTES);
+				// chunks end after a line
+				if(end < size) end = lineEnd(channel, end, size);
+				tasks.add(new ObjChunk(channel, start, end));
+				start = end;
+			}
+			chunks = tasks.isEmpty() ? new ArrayList<ObjChunk>() : run(tasks);
+		} finally {
+			file.close();
+		}
+
+		// indices are counted over the whole file
+		int vertexCount = 0, uvCount = 0, normalCount = 0, cornerCount = 0;
+		boolean hasUVs = false, hasNormals = false;
+		for(ObjChunk chunk : chunks) {
+			chunk.resolve(vertexCount, uvCount, normalCount);
+			vertexCount += chunk.vertices.size / 3;
+			uvCount += chunk.uvs.size / 2;
+			normalCount += chunk.normals.size / 3;
+			cornerCount += chunk.corners.size;
+			hasUVs |= chunk.hasUVs;
+			hasNormals |= chunk.hasNormals;
+		}
+		float[] vertices = new float[vertexCount * 3];
+		float[] uvs = new float[uvCount * 2];
+		float[] normals = new float[normalCount * 3];
+		int[] triangles = new int[cornerCount];
+		int[] cornerUVs = hasUVs ? new int[cornerCount] : null;
+		int[] cornerNormals = hasNormals ? new int[cornerCount] : null;
+		int v = 0, t = 0, n = 0, c = 0;
+		for(ObjChunk chunk : chunks) {
+			v = chunk.vertices.copyTo(vertices, v);
+			t = chunk.uvs.copyTo(uvs, t);
+			n = chunk.normals.copyTo(normals, n);
+			chunk.corners.copyTo(triangles, c);
+			if(hasUVs) chunk.cornerUVs.copyTo(cornerUVs, c);
+			if(hasNormals) chunk.cornerNormals.copyTo(cornerNormals, c);
+			c += chunk.corners.size;
+		}
+		for(int i=0;i<triangles.length;i++) {
+			if(triangles[i] < 0 || triangles[i] >= vertexCount) throw new IOException(fileName + ": vertex " + (triangles[i] + 1) + " does not exist");
+		}
+
+		MeshData mesh = new MeshData(vertices, triangles);
+		if(hasUVs) mesh.setUVs(facevarying(cornerUVs, uvs, 2, fileName), MeshData.FACEVARYING);
+		if(hasNormals) mesh.setNormals(facevarying(cornerNormals, normals, 3, fileName), MeshData.FACEVARYING);
+		return mesh;
+	}
+
+	/**
+	 * values per triangle corner from indexed values
+	 */
+	private static float[] facevarying(int[] corners, float[] values, int size, String fileName) throws IOException {
+		float[] result = new float[corners.length * size];
+		int count = values.length / size;
+		for(int i=0;i<corners.length;i++) {
+			int index = corners[i];
+			if(index == MISSING) continue;
+			if(index < 0 || index >= count) throw new IOException(fileName + ": index " + (index + 1) + " does not exist");
+			System.arraycopy(values, index * size, result, i * size, size);
+		}
+		return result;
+	}
+
+	/**
+	 * position after the next line end
+	 */
+	private static long lineEnd(FileChannel channel, long position, long size) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		while(position < size) {
+			buffer.clear();
+			int count = channel.read(buffer, position);
+			if(count <= 0) break;
+			for(int i=0;i<count;i++) {
+				if(buffer.get(i) == '\n') return position + i + 1;
+			}
+			position += count;
+		}
+		return size;
+	}
+
+	/**
+	 * parses one part of an OBJ file. face indices are made 0 based, relative (negative)
+	 * indices are counted from this chunk and fixed by resolve() once the chunks before are known
+	 */
+	private static class ObjChunk implements Callable<ObjChunk> {
+		private FileChannel channel;
+		private long start;
+		private long end;
+
+		private MappedByteBuffer buffer;
+		private int position;
+		private int limit;
+
+		FloatList vertices = new FloatList();
+		FloatList uvs = new FloatList();
+		FloatList normals = new FloatList();
+		IntList corners = new IntList();
+		IntList cornerUVs = new IntList();
+		IntList cornerNormals = new IntList();
+		boolean hasUVs = false;
+		boolean hasNormals = false;
+		// corners with relative indices
+		private IntList relativeVertices = new IntList();
+		private IntList relativeUVs = new IntList();
+		private IntList relativeNormals = new IntList();
+
+		// corners of the current polygon
+		private int[] polygon = new int[48];
+
+		ObjChunk(FileChannel channel, long start, long end) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+		}
+
+		public ObjChunk call() throws IOException {
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+			position = 0;
+			limit = buffer.limit();
+			while(position < limit) {
+				skipBlanks();
+				if(position >= limit) break;
+				byte c = buffer.get(position);
+				byte next = position + 1 < limit ? buffer.get(position + 1) : 0;
+				if(c == 'v' && isBlank(next)) {
+					position++;
+					vertices.add(parseFloat());
+					vertices.add(parseFloat());
+					vertices.add(parseFloat());
+				} else if(c == 'v' && next == 't') {
+					position += 2;
+					uvs.add(parseFloat());
+					uvs.add(parseFloat());
+				} else if(c == 'v' && next == 'n') {
+					position += 2;
+					normals.add(parseFloat());
+					normals.add(parseFloat());
+					normals.add(parseFloat());
+				} else if(c == 'f' && isBlank(next)) {
+					position++;
+					parseFace();
+				}
+				skipLine();
+			}
+			buffer = null;
+			return this;
+		}
+
+		private void parseFace() throws IOException {
+			int count = 0;
+			while(true) {
+				skipBlanks();
+				if(position >= limit || !isNumber(buffer.get(position))) break;
+				if(count * 3 + 3 > polygon.length) {
+					int[] larger = new int[polygon.length * 2];
+					System.arraycopy(polygon, 0, larger, 0, polygon.length);
+					polygon = larger;
+				}
+				polygon[count * 3] = parseInt();
+				polygon[count * 3 + 1] = 0;
+				polygon[count * 3 + 2] = 0;
+				if(position < limit && buffer.get(position) == '/') {
+					position++;
+					if(position < limit && buffer.get(position) != '/') polygon[count * 3 + 1] = parseInt();
+					if(position < limit && buffer.get(position) == '/') {
+						position++;
+						polygon[count * 3 + 2] = parseInt();
+					}
+				}
+				count++;
+			}
+			// triangle fan
+			for(int i=1;i+1<count;i++) {
+				addCorner(0);
+				addCorner(i);
+				addCorner(i + 1);
+			}
+		}
+
+		private void addCorner(int corner) {
+			int vertex = polygon[corner * 3], uv = polygon[corner * 3 + 1], normal = polygon[corner * 3 + 2];
+			corners.add(index(vertex, vertices.size / 3, relativeVertices, corners.size));
+			if(uv != 0) hasUVs = true;
+			if(normal != 0) hasNormals = true;
+			cornerUVs.add(uv == 0 ? MISSING : index(uv, uvs.size / 2, relativeUVs, cornerUVs.size));
+			cornerNormals.add(normal == 0 ? MISSING : index(normal, normals.size / 3, relativeNormals, cornerNormals.size));
+		}
+
+		private static int index(int index, int count, IntList relative, int corner) {
+			if(index > 0) return index - 1;
+			relative.add(corner);
+			return count + index;
+		}
+
+		/**
+		 * makes relative indices count from the start of the file
+		 */
+		void resolve(int vertexOffset, int uvOffset, int normalOffset) {
+			for(int i=0;i<relativeVertices.size;i++) corners.data[relativeVertices.data[i]] += vertexOffset;
+			for(int i=0;i<relativeUVs.size;i++) cornerUVs.data[relativeUVs.data[i]] += uvOffset;
+			for(int i=0;i<relativeNormals.size;i++) cornerNormals.data[relativeNormals.data[i]] += normalOffset;
+		}
+
+		private static boolean isBlank(byte c) {
+			return c == ' ' || c == '\t';
+		}
+
+		private static boolean isNumber(byte c) {
+			return (c >= '0' && c <= '9') || c == '-' || c == '+' || c == '.';
+		}
+
+		private void skipBlanks() {
+			while(position < limit && isBlank(buffer.get(position))) position++;
+		}
+
+		private void skipLine() {
+			while(position < limit && buffer.get(position) != '\n') position++;
+			position++;
+		}
+
+		private int parseInt() throws IOException {
+			boolean negative = false;
+			byte c = buffer.get(position);
+			if(c == '-' || c == '+') {
+				negative = c == '-';
+				position++;
+			}
+			int value = 0;
+			int first = position;
+			while(position < limit && (c = buffer.get(position)) >= '0' && c <= '9') {
+				value = value * 10 + (c - '0');
+				position++;
+			}
+			if(position == first) throw new IOException("number expected at byte " + (start + position));
+			return negative ? -value : value;
+		}
+
+		private float parseFloat() throws IOException {
+			skipBlanks();
+			if(position >= limit) throw new IOException("number expected at byte " + (start + position));
+			boolean negative = false;
+			byte c = buffer.get(position);
+			if(c == '-' || c == '+') {
+				negative = c == '-';
+				position++;
+			}
+			long mantissa = 0;
+			int exponent = 0;
+			int digits = 0;
+			int first = position;
+			boolean isFraction = false;
+			while(position < limit) {
+				c = buffer.get(position);
+				if(c >= '0' && c <= '9') {
+					// digits past the precision of a long only move the decimal point
+					if(digits < 18) {
+						mantissa = mantissa * 10 + (c - '0');
+						if(mantissa > 0) digits++;
+						if(isFraction) exponent--;
+					} else if(!isFraction) {
+						exponent++;
+					}
+				} else if(c == '.' && !isFraction) {
+					isFraction = true;
+				} else {
+					break;
+				}
+				position++;
+			}
+			if(position == first) throw new IOException("number expected at byte " + (start + position));
+			if(position < limit && (c == 'e' || c == 'E')) {
+				position++;
+				exponent += parseInt();
+			}
+			double value = mantissa;
+			if(exponent < 0) value = -exponent < POWERS_OF_TEN.length ? value / POWERS_OF_TEN[-exponent] : value * Math.pow(10, exponent);
+			else if(exponent > 0) value = exponent < POWERS_OF_TEN.length ? value * POWERS_OF_TEN[exponent] : value * Math.pow(10, exponent);
+			return (float)(negative ? -value : value);
+		}
+	}
+
+	private static class FloatList {
+		float[] data = new float[1024];
+		int size = 0;
+
+		void add(float value) {
+			if(size == data.length) {
+				float[] larger = new float[data.length * 2];
+				System.arraycopy(data, 0, larger, 0, size);
+				data = larger;
+			}
+			data[size++] = value;
+		}
+
+		int copyTo(float[] target, int offset) {
+			System.arraycopy(data, 0, target, offset, size);
+			return offset + size;
+		}
+	}
+
+	private static class IntList {
+		int[] data = new int[1024];
+		int size = 0;
+
+		void add(int value) {
+			if(size == data.length) {
+				int[] larger = new int[data.length * 2];
+				System.arraycopy(data, 0, larger, 0, size);
+				data = larger;
+			}
+			data[size++] = value;
+		}
+
+		int copyTo(int[] target, int offset) {
+			System.arraycopy(data, 0, target, offset, size);
+			return offset + size;
+		}
+	}
+
+	/* ---------------------------------------------------------------------------------------------
+	 * PLY
+	 */
+	private static final String[][] PLY_TYPES = {
+		{ "char", "int8" }, { "uchar", "uint8" }, { "short", "int16" }, { "ushort", "uint16" },
+		{ "int", "int32" }, { "uint", "uint32" }, { "float", "float32" }, { "double", "float64" } };
+	private static final int[] PLY_SIZES = { 1, 1, 2, 2, 4, 4, 4, 8 };
+
+	private static class PlyProperty {
+		String name;
+		int type;
+		// list properties have a count type and type is the type of the items
+		boolean isList;
+		int countType;
+	}
+
+	private static class PlyElement {
+		String name;
+		long count;
+		List<PlyProperty> properties = new ArrayList<PlyProperty>();
+		// bytes per element if there are no lists, else -1
+		int size() {
+			int size = 0;
+			for(PlyProperty property : properties) {
+				if(property.isList) return -1;
+				size += PLY_SIZES[property.type];
+			}
+			return size;
+		}
+		int offset(String name) {
+			int offset = 0;
+			for(PlyProperty property : properties) {
+				if(property.name.equals(name)) return offset;
+				offset += property.isList ? 0 : PLY_SIZES[property.type];
+			}
+			return -1;
+		}
+		PlyProperty property(String name) {
+			for(PlyProperty property : properties) {
+				if(property.name.equals(name)) return property;
+			}
+			return null;
+		}
+	}
+
+	private static int plyType(String name) throws IOException {
+		for(int i=0;i<PLY_TYPES.length;i++) {
+			if(PLY_TYPES[i][0].equals(name) || PLY_TYPES[i][1].equals(name)) return i;
+		}
+		throw new IOException("unknown PLY type " + name);
+	}
+
+	private static double readScalar(ByteBuffer buffer, int index, int type) {
+		switch(type) {
+		case 0: return buffer.get(index);
+		case 1: return buffer.get(index) & 0xff;
+		case 2: return buffer.getShort(index);
+		case 3: return buffer.getShort(index) & 0xffff;
+		case 4: return buffer.getInt(index);
+		case 5: return buffer.getInt(index) & 0xffffffffL;
+		case 6: return buffer.getFloat(index);
+		default: return buffer.getDouble(index);
+		}
+	}
+
+	/**
+	 * reads a binary PLY file, with vertex and face elements
+	 * @param fileName PLY file
+	 * @return the mesh, with vertex normals and uvs if the vertices have them
+	 * @throws IOException if the file can not be read, is an ascii PLY or has errors
+	 */
+	public static MeshData loadPly(String fileName) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			final FileChannel channel = file.getChannel();
+			long size = channel.size();
+
+			// header
+			ByteBuffer head = ByteBuffer.allocate((int)Math.min(size, 1 << 16));
+			channel.read(head, 0);
+			String header = new String(head.array(), 0, head.position(), "ISO-8859-1");
+			int headerEnd = header.indexOf("end_header");
+			if(!header.startsWith("ply") || headerEnd < 0) throw new IOException(fileName + " is no PLY file");
+			long dataStart = header.indexOf('\n', headerEnd) + 1;
+			ByteOrder order = null;
+			List<PlyElement> elements = new ArrayList<PlyElement>();
+			for(String line : header.substring(0, headerEnd).split("\r?\n")) {
+				String[] words = line.trim().split("\\s+");
+				if(words[0].equals("format")) {
+					if(words[1].equals("binary_little_endian")) order = ByteOrder.LITTLE_ENDIAN;
+					else if(words[1].equals("binary_big_endian")) order = ByteOrder.BIG_ENDIAN;
+					else throw new IOException(fileName + ": only binary PLY files are supported");
+				} else if(words[0].equals("element")) {
+					PlyElement element = new PlyElement();
+					element.name = words[1];
+					element.count = Long.parseLong(words[2]);
+					elements.add(element);
+				} else if(words[0].equals("property") && !elements.isEmpty()) {
+					PlyProperty property = new PlyProperty();
+					if(words[1].equals("list")) {
+						property.isList = true;
+						property.countType = plyType(words[2]);
+						property.type = plyType(words[3]);
+						property.name = words[4];
+					} else {
+						property.type = plyType(words[1]);
+						property.name = words[2];
+					}
+					elements.get(elements.size() - 1).properties.add(property);
+				}
+			}
+			if(order == null) throw new IOException(fileName + " has no format");
+
+			// find vertices and faces, other elements are skipped
+			long position = dataStart;
+			float[] vertices = null, normals = null, uvs = null;
+			int[] triangles = null;
+			for(PlyElement element : elements) {
+				if(element.name.equals("vertex")) {
+					if(element.size() < 0) throw new IOException(fileName + ": vertex lists are not supported");
+					int count = (int)element.count;
+					vertices = new float[count * 3];
+					if(element.property("nx") != null) normals = new float[count * 3];
+					if(element.property("u") != null || element.property("s") != null) uvs = new float[count * 2];
+					readVertices(channel, order, element, position, vertices, normals, uvs);
+					position += element.count * element.size();
+				} else if(element.name.equals("face")) {
+					PlyFaces faces = new PlyFaces(channel, order, element, position, size);
+					triangles = faces.read();
+					position = faces.end;
+				} else if(element.size() >= 0) {
+					position += element.count * element.size();
+				} else {
+					position = new PlyFaces(channel, order, element, position, size).skip();
+				}
+			}
+			if(vertices == null || triangles == null) throw new IOException(fileName + " has no vertices or faces");
+			for(int i=0;i<triangles.length;i++) {
+				if(triangles[i] < 0 || triangles[i] >= vertices.length / 3) throw new IOException(fileName + ": vertex " + triangles[i] + " does not exist");
+			}
+			MeshData mesh = new MeshData(vertices, triangles);
+			if(normals != null) mesh.setNormals(normals, MeshData.VERTEX);
+			if(uvs != null) mesh.setUVs(uvs, MeshData.VERTEX);
+			return mesh;
+		} finally {
+			file.close();
+		}
+	}
+
+	private static void readVertices(final FileChannel channel, final ByteOrder order, final PlyElement element, final long start,
+			final float[] vertices, final float[] normals, final float[] uvs) throws IOException {
+		final int stride = element.size();
+		final int count = (int)element.count;
+		final String u = element.property("u") != null ? "u" : "s";
+		final String v = element.property("v") != null ? "v" : "t";
+		final String[] names = { "x", "y", "z", "nx", "ny", "nz", u, v };
+		final int[] offsets = new int[names.length];
+		final int[] types = new int[names.length];
+		for(int i=0;i<names.length;i++) {
+			offsets[i] = element.offset(names[i]);
+			types[i] = offsets[i] < 0 ? -1 : element.property(names[i]).type;
+		}
+		if(offsets[0] < 0 || offsets[1] < 0 || offsets[2] < 0) throw new IOException("PLY vertices have no x, y and z");
+		final boolean hasNormals = normals != null && offsets[4] >= 0 && offsets[5] >= 0;
+		final boolean hasUVs = uvs != null && offsets[6] >= 0 && offsets[7] >= 0;
+
+		int perChunk = (int)Math.max(1, CHUNK_BYTES / stride);
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+		for(int first=0;first<count;first+=perChunk) {
+			final int from = first, to = Math.min(count, first + perChunk);
+			tasks.add(new Callable<Object>() {
+				public Object call() throws IOException {
+					MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, start + (long)from * stride, (long)(to - from) * stride);
+					buffer.order(order);
+					for(int i=from;i<to;i++) {
+						int base = (i - from) * stride;
+						for(int j=0;j<3;j++) vertices[i * 3 + j] = (float)readScalar(buffer, base + offsets[j], types[j]);
+						if(hasNormals) {
+							for(int j=0;j<3;j++) normals[i * 3 + j] = (float)readScalar(buffer, base + offsets[3 + j], types[3 + j]);
+						}
+						if(hasUVs) {
+							uvs[i * 2] = (float)readScalar(buffer, base + offsets[6], types[6]);
+							uvs[i * 2 + 1] = (float)readScalar(buffer, base + offsets[7], types[7]);
+						}
+					}
+					return null;
+				}
+			});
+		}
+		if(!tasks.isEmpty()) run(tasks);
+	}
+
+	/**
+	 * faces have a vertex count each, so one pass over the counts finds where the chunks
+	 * start and how many triangles they make, then the chunks are read at the same time
+	 */
+	private static class PlyFaces {
+		private FileChannel channel;
+		private ByteOrder order;
+		private PlyElement element;
+		private long start;
+		private long fileSize;
+		long end;
+
+		// window for the first pass
+		private ByteBuffer window = ByteBuffer.allocate(1 << 20);
+		private long windowStart = 0;
+		private int windowLength = 0;
+
+		PlyFaces(FileChannel channel, ByteOrder order, PlyElement element, long start, long fileSize) {
+			this.channel = channel;
+			this.order = order;
+			this.element = element;
+			this.start = start;
+			this.fileSize = fileSize;
+			window.order(order);
+		}
+
+		private int count(long position, int type) throws IOException {
+			if(position < windowStart || position + 8 > windowStart + windowLength) {
+				window.clear();
+				windowStart = position;
+				windowLength = 0;
+				while(window.hasRemaining()) {
+					int read = channel.read(window, windowStart + windowLength);
+					if(read <= 0) break;
+					windowLength += read;
+				}
+				if(windowLength < PLY_SIZES[type]) throw new IOException("PLY file ends too early");
+			}
+			return (int)readScalar(window, (int)(position - windowStart), type);
+		}
+
+		/**
+		 * size of the face at position
+		 */
+		private int faceSize(long position, int[] vertexCount) throws IOException {
+			int size = 0;
+			vertexCount[0] = 0;
+			for(PlyProperty property : element.properties) {
+				if(property.isList) {
+					int count = count(position + size, property.countType);
+					if(property.name.equals("vertex_indices") || property.name.equals("vertex_index")) vertexCount[0] = count;
+					size += PLY_SIZES[property.countType] + count * PLY_SIZES[property.type];
+				} else {
+					size += PLY_SIZES[property.type];
+				}
+			}
+			return size;
+		}
+
+		long skip() throws IOException {
+			int[] vertexCount = new int[1];
+			long position = start;
+			for(long i=0;i<element.count;i++) position += faceSize(position, vertexCount);
+			return position;
+		}
+
+		int[] read() throws IOException {
+			final PlyProperty indices = element.property("vertex_indices") != null ? element.property("vertex_indices") : element.property("vertex_index");
+			if(indices == null) throw new IOException("PLY faces have no vertex_indices");
+			int count = (int)element.count;
+			// first pass: start, end and first triangle of every chunk
+			List<long[]> chunks = new ArrayList<long[]>();
+			int[] vertexCount = new int[1];
+			long position = start;
+			int triangles = 0;
+			for(int first=0;first<count;first+=FACES_PER_CHUNK) {
+				int last = Math.min(count, first + FACES_PER_CHUNK);
+				long chunkStart = position;
+				int chunkTriangles = triangles;
+				for(int i=first;i<last;i++) {
+					position += faceSize(position, vertexCount);
+					triangles += Math.max(0, vertexCount[0] - 2);
+				}
+				if(position > fileSize) throw new IOException("PLY file ends too early");
+				chunks.add(new long[] { chunkStart, position, first, last, chunkTriangles });
+			}
+			end = position;
+
+			final int[] result = new int[triangles * 3];
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+			for(final long[] chunk : chunks) {
+				tasks.add(new Callable<Object>() {
+					public Object call() throws IOException {
+						MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, chunk[0], chunk[1] - chunk[0]);
+						buffer.order(order);
+						int index = 0;
+						int triangle = (int)chunk[4] * 3;
+						int[] polygon = new int[16];
+						for(long face=chunk[2];face<chunk[3];face++) {
+							for(PlyProperty property : element.properties) {
+								if(!property.isList) {
+									index += PLY_SIZES[property.type];
+									continue;
+								}
+								int vertices = (int)readScalar(buffer, index, property.countType);
+								index += PLY_SIZES[property.countType];
+								if(property != indices) {
+									index += vertices * PLY_SIZES[property.type];
+									continue;
+								}
+								if(vertices > polygon.length) polygon = new int[vertices];
+								for(int i=0;i<vertices;i++) {
+									polygon[i] = (int)readScalar(buffer, index, property.type);
+									index += PLY_SIZES[property.type];
+								}
+								// triangle fan
+								for(int i=1;i+1<vertices;i++) {
+									result[triangle++] = polygon[0];
+									result[triangle++] = polygon[i];
+									result[triangle++] = polygon[i + 1];
+								}
+							}
+						}
+						return null;
+					}
+				});
+			}
+			if(!tasks.isEmpty()) run(tasks);
+			return result;
+		}
+	}
+}
@@ -0,0 +1,599 @@
+package com.briansteen;
+
+/**
+ * Reduces the triangles of a MeshData by collapsing edges, cheapest first, with the quadric
+ * error metric of Garland and Heckbert. The quadric of a vertex sums the squared distances
+ * to the planes of the triangles it was made from and only orders the collapses.
+ *
+ * The error limit is a distance: every vertex keeps how far the surface has moved there, the
+ * error of its ends plus the distance of the new position to the planes of the triangles
+ * around the edge and to the planes upright on their open borders. This adds up over
+ * collapses, so it is an upper estimate rather than the exact distance to the original mesh.
+ *
+ * Edges collapse to one of their ends or their middle, whichever has the lower quadric error,
+ * so vertex normals and uvs can be kept or averaged and facevarying ones stay with their
+ * triangle corners. Open borders get extra planes through the border so they keep their
+ * shape. Collapses which would turn a triangle over, or which break the link condition and
+ * so would make the mesh non-manifold, are left out.
+ */
+public class MeshSimplifier {
+	// weight of the planes along open borders
+	private static final double BORDER_WEIGHT = 10;
+	// share of the squared edge length in the cost, so flat parts, where every collapse
+	// is free, shrink evenly instead of into a few vertices with huge fans
+	private static final double EDGE_WEIGHT = 1e-4;
+
+	private float[] vertices;
+	private int[] triangles;
+	private int vertexCount;
+	private int triangleCount;
+	private int liveTriangles;
+
+	// 10 values per vertex: a2 ab ac ad b2 bc bd c2 cd d2
+	private double[] quadrics;
+	private boolean[] removed;
+	private boolean[] deadTriangles;
+	private int[] stamps;
+	// neighbours already pushed in a collapse
+	private int[] marks;
+	private int collapses = 0;
+	// distance the surface has moved at each vertex
+	private float[] errors;
+	// neighbours of a collapse for the link condition, two stamps per test
+	private int[] linkMarks;
+	private int linkStamp = 0;
+
+	// triangles around a vertex, in a shared pool
+	private int[] adjacency;
+	private int adjacencySize;
+	private int[] adjacencyStart;
+	private int[] adjacencyCount;
+	private int[] adjacencyCapacity;
+
+	// vertex normals and uvs
+	private float[] normals;
+	private float[] uvs;
+
+	// heap of collapses, stamps tell if the vertices changed since an entry was made
+	private float[] heapCost = new float[1024];
+	private int[] heapA = new int[1024];
+	private int[] heapB = new int[1024];
+	private int[] heapStampA = new int[1024];
+	private int[] heapStampB = new int[1024];
+	private int heapSize = 0;
+
+	// result of cost()
+	private double bestCost;
+	private int bestPlacement;
+
+	private MeshSimplifier(MeshData mesh) {
+		vertices = mesh.getVertices().clone();
+		triangles = mesh.getTriangles().clone();
+		vertexCount = mesh.getVertexCount();
+		triangleCount = mesh.getTriangleCount();
+		liveTriangles = triangleCount;
+		if(mesh.getNormals() != null && MeshData.VERTEX.equals(mesh.getNormalsInterpolation())) normals = mesh.getNormals().clone();
+		if(mesh.getUVs() != null && MeshData.VERTEX.equals(mesh.getUVsInterpolation())) uvs = mesh.getUVs().clone();
+		removed = new boolean[vertexCount];
+		deadTriangles = new boolean[triangleCount];
+		stamps = new int[vertexCount];
+		marks = new int[vertexCount];
+		errors = new float[vertexCount];
+		linkMarks = new int[vertexCount];
+	}
+
+	/**
+	 * simplifies a mesh until it has targetTriangles triangles or every collapse left would move
+	 * the surface further than maxError
+	 * @param mesh mesh to simplify, it is not changed
+	 * @param targetTriangles number of triangles to stop at
+	 * @param maxError largest distance the surface may move from the planes of the mesh, in scene units. Float.MAX_VALUE for no limit
+	 * @return the simplified mesh, or mesh itself if nothing could be collapsed
+	 */
+	public static MeshData simplify(MeshData mesh, int targetTriangles, float maxError) {
+		if(mesh.getTriangleCount() <= targetTriangles) return mesh;
+		MeshSimplifier simplifier = new MeshSimplifier(mesh);
+		if(!simplifier.collapse(targetTriangles, maxError)) return mesh;
+		return simplifier.result(mesh);
+	}
+
+	/* ---------------------------------------------------------------------------------------------
+	 * COLLAPSING
+	 */
+	private boolean collapse(int targetTriangles, float maxError) {
+		buildAdjacency();
+		buildQuadrics();
+		for(int t=0;t<triangleCount;t++) {
+			for(int i=0;i<3;i++) {
+				int a = triangles[t * 3 + i], b = triangles[t * 3 + (i + 1) % 3];
+				// inner edges are found from both triangles, take them once
+				if(a < b || isBorder(a, b)) push(a, b);
+			}
+		}
+		boolean changed = false;
+		while(heapSize > 0 && liveTriangles > targetTriangles) {
+			int a = heapA[0], b = heapB[0];
+			boolean isCurrent = !removed[a] && !removed[b] && heapStampA[0] == stamps[a] && heapStampB[0] == stamps[b];
+			pop();
+			if(!isCurrent) continue;
+			cost(a, b);
+			float x, y, z;
+			if(bestPlacement == 0) {
+				x = vertices[a * 3]; y = vertices[a * 3 + 1]; z = vertices[a * 3 + 2];
+			} else if(bestPlacement == 1) {
+				x = vertices[b * 3]; y = vertices[b * 3 + 1]; z = vertices[b * 3 + 2];
+			} else {
+				x = (vertices[a * 3] + vertices[b * 3]) * 0.5f;
+				y = (vertices[a * 3 + 1] + vertices[b * 3 + 1]) * 0.5f;
+				z = (vertices[a * 3 + 2] + vertices[b * 3 + 2]) * 0.5f;
+			}
+			if(!isLinkCondition(a, b) || flips(a, b, x, y, z) || flips(b, a, x, y, z)) continue;
+			// an edge which moves the surface too far now can come back once its neighbours changed
+			float error = Math.max(errors[a], errors[b]) + (float)Math.max(planeDistance(a, x, y, z), planeDistance(b, x, y, z));
+			if(error > maxError) continue;
+			errors[a] = error;
+			merge(a, b, x, y, z, bestPlacement);
+			changed = true;
+		}
+		return changed;
+	}
+
+	/**
+	 * moves a to x, y, z and b into a
+	 */
+	private void merge(int a, int b, float x, float y, float z, int placement) {
+		vertices[a * 3] = x;
+		vertices[a * 3 + 1] = y;
+		vertices[a * 3 + 2] = z;
+		if(normals != null) place(normals, 3, a, b, placement);
+		if(uvs != null) place(uvs, 2, a, b, placement);
+		for(int i=0;i<10;i++) quadrics[a * 10 + i] += quadrics[b * 10 + i];
+		removed[b] = true;
+		stamps[a]++;
+
+		// triangles on the edge go, the others of b are now triangles of a
+		int start = adjacencyStart[b];
+		for(int i=0;i<adjacencyCount[b];i++) {
+			int t = adjacency[start + i];
+			if(deadTriangles[t]) continue;
+			int corner = -1;
+			boolean hasA = false;
+			for(int j=0;j<3;j++) {
+				if(triangles[t * 3 + j] == b) corner = j;
+				else if(triangles[t * 3 + j] == a) hasA = true;
+			}
+			if(hasA) {
+				deadTriangles[t] = true;
+				liveTriangles--;
+			} else {
+				triangles[t * 3 + corner] = a;
+				addAdjacent(a, t);
+			}
+		}
+		adjacencyCount[b] = 0;
+		compactAdjacency(a);
+
+		// new costs for the edges around a, each neighbour once
+		collapses++;
+		start = adjacencyStart[a];
+		for(int i=0;i<adjacencyCount[a];i++) {
+			int t = adjacency[start + i];
+			for(int j=0;j<3;j++) {
+				int v = triangles[t * 3 + j];
+				if(v == a || marks[v] == collapses) continue;
+				marks[v] = collapses;
+				push(a, v);
+			}
+		}
+	}
+
+	private static void place(float[] values, int size, int a, int b, int placement) {
+		for(int i=0;i<size;i++) {
+			if(placement == 1) values[a * size + i] = values[b * size + i];
+			else if(placement == 2) values[a * size + i] = (values[a * size + i] + values[b * size + i]) * 0.5f;
+		}
+	}
+
+	/**
+	 * true if a triangle of a without b would turn over when a moves to x, y, z
+	 */
+	private boolean flips(int a, int b, float x, float y, float z) {
+		int start = adjacencyStart[a];
+		for(int i=0;i<adjacencyCount[a];i++) {
+			int t = adjacency[start + i];
+			if(deadTriangles[t]) continue;
+			int t0 = triangles[t * 3], t1 = triangles[t * 3 + 1], t2 = triangles[t * 3 + 2];
+			if(t0 == b || t1 == b || t2 == b) continue;
+			// a moves, so the normal is taken at a
+			int b0, b1;
+			if(t0 == a) { b0 = t1; b1 = t2; }
+			else if(t1 == a) { b0 = t2; b1 = t0; }
+			else { b0 = t0; b1 = t1; }
+			float ax = vertices[a * 3], ay = vertices[a * 3 + 1], az = vertices[a * 3 + 2];
+			float ux = vertices[b0 * 3] - ax, uy = vertices[b0 * 3 + 1] - ay, uz = vertices[b0 * 3 + 2] - az;
+			float vx = vertices[b1 * 3] - ax, vy = vertices[b1 * 3 + 1] - ay, vz = vertices[b1 * 3 + 2] - az;
+			float nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+			ux = vertices[b0 * 3] - x; uy = vertices[b0 * 3 + 1] - y; uz = vertices[b0 * 3 + 2] - z;
+			vx = vertices[b1 * 3] - x; vy = vertices[b1 * 3 + 1] - y; vz = vertices[b1 * 3 + 2] - z;
+			float mx = uy * vz - uz * vy, my = uz * vx - ux * vz, mz = ux * vy - uy * vx;
+			if(nx * mx + ny * my + nz * mz <= 0) return true;
+		}
+		return false;
+	}
+
+	/**
+	 * true if the vertices next to both a and b are only the third corners of the triangles on
+	 * the edge, and the edge is on the border if both ends are, so the collapse keeps the mesh manifold
+	 */
+	private boolean isLinkCondition(int a, int b) {
+		linkStamp += 2;
+		int start = adjacencyStart[a];
+		int edgeTriangles = 0;
+		for(int i=0;i<adjacencyCount[a];i++) {
+			int t = adjacency[start + i];
+			if(deadTriangles[t]) continue;
+			for(int j=0;j<3;j++) {
+				int v = triangles[t * 3 + j];
+				if(v == b) edgeTriangles++;
+				else if(v != a) linkMarks[v] = linkStamp;
+			}
+		}
+		if(edgeTriangles > 2) return false;
+		int shared = 0;
+		start = adjacencyStart[b];
+		for(int i=0;i<adjacencyCount[b];i++) {
+			int t = adjacency[start + i];
+			if(deadTriangles[t]) continue;
+			for(int j=0;j<3;j++) {
+				int v = triangles[t * 3 + j];
+				if(linkMarks[v] != linkStamp) continue;
+				// counted once
+				linkMarks[v] = linkStamp + 1;
+				shared++;
+			}
+		}
+		if(shared != edgeTriangles) return false;
+		return edgeTriangles == 1 || !isBorderVertex(a) || !isBorderVertex(b);
+	}
+
+	private boolean isBorderVertex(int v) {
+		int start = adjacencyStart[v];
+		for(int i=0;i<adjacencyCount[v];i++) {
+			int t = adjacency[start + i];
+			if(deadTriangles[t]) continue;
+			for(int j=0;j<3;j++) {
+				int w = triangles[t * 3 + j];
+				if(w != v && isBorder(v, w)) return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * largest distance of x, y, z to the planes of the triangles of v and the planes upright
+	 * on their open borders through v
+	 */
+	private double planeDistance(int v, double x, double y, double z) {
+		double distance = 0;
+		int start = adjacencyStart[v];
+		for(int i=0;i<adjacencyCount[v];i++) {
+			int t = adjacency[start + i];
+			if(deadTriangles[t]) continue;
+			int t0 = triangles[t * 3], t1 = triangles[t * 3 + 1], t2 = triangles[t * 3 + 2];
+			double ux = vertices[t1 * 3] - vertices[t0 * 3], uy = vertices[t1 * 3 + 1] - vertices[t0 * 3 + 1], uz = vertices[t1 * 3 + 2] - vertices[t0 * 3 + 2];
+			double vx = vertices[t2 * 3] - vertices[t0 * 3], vy = vertices[t2 * 3 + 1] - vertices[t0 * 3 + 1], vz = vertices[t2 * 3 + 2] - vertices[t0 * 3 + 2];
+			double nx = uy * vz - uz * vy, ny = uz * vx - ux * vz, nz = ux * vy - uy * vx;
+			double length = Math.sqrt(nx * nx + ny * ny + nz * nz);
+			if(length == 0) continue;
+			nx /= length; ny /= length; nz /= length;
+			distance = Math.max(distance, Math.abs(nx * (x - vertices[t0 * 3]) + ny * (y - vertices[t0 * 3 + 1]) + nz * (z - vertices[t0 * 3 + 2])));
+			for(int j=0;j<3;j++) {
+				int e0 = triangles[t * 3 + j], e1 = triangles[t * 3 + (j + 1) % 3];
+				if((e0 != v && e1 != v) || !isBorder(e0, e1)) continue;
+				double ex = vertices[e1 * 3] - vertices[e0 * 3], ey = vertices[e1 * 3 + 1] - vertices[e0 * 3 + 1], ez = vertices[e1 * 3 + 2] - vertices[e0 * 3 + 2];
+				double bx = ey * nz - ez * ny, by = ez * nx - ex * nz, bz = ex * ny - ey * nx;
+				double bLength = Math.sqrt(bx * bx + by * by + bz * bz);
+				if(bLength == 0) continue;
+				distance = Math.max(distance, Math.abs(bx * (x - vertices[e0 * 3]) + by * (y - vertices[e0 * 3 + 1]) + bz * (z - vertices[e0 * 3 + 2])) / bLength);
+			}
+		}
+		return distance;
+	}
+
+	/**
+	 * normal of a triangle, not normalized
+	 */
+	private double[] normal(int t0, int t1, int t2) {
+		double ux = vertices[t1 * 3] - vertices[t0 * 3], uy = vertices[t1 * 3 + 1] - vertices[t0 * 3 + 1], uz = vertices[t1 * 3 + 2] - vertices[t0 * 3 + 2];
+		double vx = vertices[t2 * 3] - vertices[t0 * 3], vy = vertices[t2 * 3 + 1] - vertices[t0 * 3 + 1], vz = vertices[t2 * 3 + 2] - vertices[t0 * 3 + 2];
+		return new double[] { uy * vz - uz * vy, uz * vx - ux * vz, ux * vy - uy * vx };
+	}
+
+	/* ---------------------------------------------------------------------------------------------
+	 * QUADRICS
+	 */
+	private void buildQuadrics() {
+		quadrics = new double[vertexCount * 10];
+		for(int t=0;t<triangleCount;t++) {
+			int t0 = triangles[t * 3], t1 = triangles[t * 3 + 1], t2 = triangles[t * 3 + 2];
+			double[] n = normal(t0, t1, t2);
+			double length = Math.sqrt(n[0] * n[0] + n[1] * n[1] + n[2] * n[2]);
+			if(length == 0) continue;
+			double nx = n[0] / length, ny = n[1] / length, nz = n[2] / length;
+			double d = -(nx * vertices[t0 * 3] + ny * vertices[t0 * 3 + 1] + nz * vertices[t0 * 3 + 2]);
+			addPlane(t0, nx, ny, nz, d, 1);
+			addPlane(t1, nx, ny, nz, d, 1);
+			addPlane(t2, nx, ny, nz, d, 1);
+
+			// plane through a border edge, upright on the triangle
+			for(int i=0;i<3;i++) {
+				int a = triangles[t * 3 + i], b = triangles[t * 3 + (i + 1) % 3];
+				if(!isBorder(a, b)) continue;
+				double ex = vertices[b * 3] - vertices[a * 3], ey = vertices[b * 3 + 1] - vertices[a * 3 + 1], ez = vertices[b * 3 + 2] - vertices[a * 3 + 2];
+				double bx = ey * nz - ez * ny, by = ez * nx - ex * nz, bz = ex * ny - ey * nx;
+				double bLength = Math.sqrt(bx * bx + by * by + bz * bz);
+				if(bLength == 0) continue;
+				bx /= bLength; by /= bLength; bz /= bLength;
+				double bd = -(bx * vertices[a * 3] + by * vertices[a * 3 + 1] + bz * vertices[a * 3 + 2]);
+				addPlane(a, bx, by, bz, bd, BORDER_WEIGHT);
+				addPlane(b, bx, by, bz, bd, BORDER_WEIGHT);
+			}
+		}
+	}
+
+	private void addPlane(int v, double a, double b, double c, double d, double weight) {
+		int q = v * 10;
+		quadrics[q] += weight * a * a;
+		quadrics[q + 1] += weight * a * b;
+		quadrics[q + 2] += weight * a * c;
+		quadrics[q + 3] += weight * a * d;
+		quadrics[q + 4] += weight * b * b;
+		quadrics[q + 5] += weight * b * c;
+		quadrics[q + 6] += weight * b * d;
+		quadrics[q + 7] += weight * c * c;
+		quadrics[q + 8] += weight * c * d;
+		quadrics[q + 9] += weight * d * d;
+	}
+
+	private double error(int a, int b, double x, double y, double z) {
+		int qa = a * 10, qb = b * 10;
+		double[] q = quadrics;
+		return (q[qa] + q[qb]) * x * x + 2 * (q[qa + 1] + q[qb + 1]) * x * y + 2 * (q[qa + 2] + q[qb + 2]) * x * z + 2 * (q[qa + 3] + q[qb + 3]) * x
+			+ (q[qa + 4] + q[qb + 4]) * y * y + 2 * (q[qa + 5] + q[qb + 5]) * y * z + 2 * (q[qa + 6] + q[qb + 6]) * y
+			+ (q[qa + 7] + q[qb + 7]) * z * z + 2 * (q[qa + 8] + q[qb + 8]) * z + (q[qa + 9] + q[qb + 9]);
+	}
+
+	/**
+	 * sets bestCost and bestPlacement (0 at a, 1 at b, 2 in the middle)
+	 */
+	private void cost(int a, int b) {
+		double ax = vertices[a * 3], ay = vertices[a * 3 + 1], az = vertices[a * 3 + 2];
+		double bx = vertices[b * 3], by = vertices[b * 3 + 1], bz = vertices[b * 3 + 2];
+		bestCost = error(a, b, ax, ay, az);
+		bestPlacement = 0;
+		double cost = error(a, b, bx, by, bz);
+		if(cost < bestCost) {
+			bestCost = cost;
+			bestPlacement = 1;
+		}
+		cost = error(a, b, (ax + bx) * 0.5, (ay + by) * 0.5, (az + bz) * 0.5);
+		if(cost < bestCost) {
+			bestCost = cost;
+			bestPlacement = 2;
+		}
+		// rounding can make the error a little negative
+		if(bestCost < 0) bestCost = 0;
+		bestCost += EDGE_WEIGHT * ((ax - bx) * (ax - bx) + (ay - by) * (ay - by) + (az - bz) * (az - bz));
+	}
+
+	/* ---------------------------------------------------------------------------------------------
+	 * ADJACENCY
+	 */
+	private void buildAdjacency() {
+		adjacencyStart = new int[vertexCount];
+		adjacencyCount = new int[vertexCount];
+		adjacencyCapacity = new int[vertexCount];
+		for(int i=0;i<triangles.length;i++) adjacencyCapacity[triangles[i]]++;
+		int start = 0;
+		for(int v=0;v<vertexCount;v++) {
+			adjacencyStart[v] = start;
+			start += adjacencyCapacity[v];
+		}
+		adjacency = new int[Math.max(16, start + start / 2)];
+		adjacencySize = start;
+		for(int i=0;i<triangles.length;i++) {
+			int v = triangles[i];
+			adjacency[adjacencyStart[v] + adjacencyCount[v]++] = i / 3;
+		}
+	}
+
+	private void addAdjacent(int v, int t) {
+		if(adjacencyCount[v] == adjacencyCapacity[v]) {
+			// move the list to the end of the pool, with room to grow
+			int capacity = Math.max(8, adjacencyCapacity[v] * 2);
+			if(adjacencySize + capacity > adjacency.length) {
+				int[] larger = new int[Math.max(adjacency.length * 2, adjacencySize + capacity)];
+				System.arraycopy(adjacency, 0, larger, 0, adjacencySize);
+				adjacency = larger;
+			}
+			System.arraycopy(adjacency, adjacencyStart[v], adjacency, adjacencySize, adjacencyCount[v]);
+			adjacencyStart[v] = adjacencySize;
+			adjacencyCapacity[v] = capacity;
+			adjacencySize += capacity;
+		}
+		adjacency[adjacencyStart[v] + adjacencyCount[v]++] = t;
+	}
+
+	/**
+	 * drops dead triangles from the list of v
+	 */
+	private void compactAdjacency(int v) {
+		int start = adjacencyStart[v], count = 0;
+		for(int i=0;i<adjacencyCount[v];i++) {
+			int t = adjacency[start + i];
+			if(!deadTriangles[t]) adjacency[start + count++] = t;
+		}
+		adjacencyCount[v] = count;
+	}
+
+	/**
+	 * true if only one triangle has the edge a b
+	 */
+	private boolean isBorder(int a, int b) {
+		int count = 0;
+		int start = adjacencyStart[a];
+		for(int i=0;i<adjacencyCount[a];i++) {
+			int t = adjacency[start + i];
+			if(deadTriangles[t]) continue;
+			if(triangles[t * 3] == b || triangles[t * 3 + 1] == b || triangles[t * 3 + 2] == b) count++;
+		}
+		return count < 2;
+	}
+
+	/* ---------------------------------------------------------------------------------------------
+	 * HEAP
+	 */
+	private void push(int a, int b) {
+		cost(a, b);
+		if(heapSize == heapCost.length) dropStale();
+		if(heapSize * 2 > heapCost.length) {
+			int length = heapCost.length * 2;
+			float[] cost = new float[length];
+			System.arraycopy(heapCost, 0, cost, 0, heapSize);
+			heapCost = cost;
+			heapA = grow(heapA, length);
+			heapB = grow(heapB, length);
+			heapStampA = grow(heapStampA, length);
+			heapStampB = grow(heapStampB, length);
+		}
+		int i = heapSize++;
+		float cost = (float)Math.min(bestCost, Float.MAX_VALUE);
+		while(i > 0) {
+			int parent = (i - 1) / 2;
+			if(heapCost[parent] <= cost) break;
+			move(parent, i);
+			i = parent;
+		}
+		heapCost[i] = cost;
+		heapA[i] = a;
+		heapB[i] = b;
+		heapStampA[i] = stamps[a];
+		heapStampB[i] = stamps[b];
+	}
+
+	private void pop() {
+		heapSize--;
+		if(heapSize == 0) return;
+		float cost = heapCost[heapSize];
+		int a = heapA[heapSize], b = heapB[heapSize], stampA = heapStampA[heapSize], stampB = heapStampB[heapSize];
+		int i = 0;
+		while(true) {
+			int child = i * 2 + 1;
+			if(child >= heapSize) break;
+			if(child + 1 < heapSize && heapCost[child + 1] < heapCost[child]) child++;
+			if(heapCost[child] >= cost) break;
+			move(child, i);
+			i = child;
+		}
+		heapCost[i] = cost;
+		heapA[i] = a;
+		heapB[i] = b;
+		heapStampA[i] = stampA;
+		heapStampB[i] = stampB;
+	}
+
+	/**
+	 * removes the entries of removed or changed vertices and sorts the rest into a heap again
+	 */
+	private void dropStale() {
+		int count = 0;
+		for(int i=0;i<heapSize;i++) {
+			int a = heapA[i], b = heapB[i];
+			if(removed[a] || removed[b] || heapStampA[i] != stamps[a] || heapStampB[i] != stamps[b]) continue;
+			move(i, count++);
+		}
+		heapSize = count;
+		for(int i=heapSize/2-1;i>=0;i--) {
+			float cost = heapCost[i];
+			int a = heapA[i], b = heapB[i], stampA = heapStampA[i], stampB = heapStampB[i];
+			int j = i;
+			while(true) {
+				int child = j * 2 + 1;
+				if(child >= heapSize) break;
+				if(child + 1 < heapSize && heapCost[child + 1] < heapCost[child]) child++;
+				if(heapCost[child] >= cost) break;
+				move(child, j);
+				j = child;
+			}
+			heapCost[j] = cost;
+			heapA[j] = a;
+			heapB[j] = b;
+			heapStampA[j] = stampA;
+			heapStampB[j] = stampB;
+		}
+	}
+
+	private void move(int from, int to) {
+		heapCost[to] = heapCost[from];
+		heapA[to] = heapA[from];
+		heapB[to] = heapB[from];
+		heapStampA[to] = heapStampA[from];
+		heapStampB[to] = heapStampB[from];
+	}
+
+	private static int[] grow(int[] array, int length) {
+		int[] larger = new int[length];
+		System.arraycopy(array, 0, larger, 0, array.length);
+		return larger;
+	}
+
+	/* ---------------------------------------------------------------------------------------------
+	 * RESULT
+	 */
+	private MeshData result(MeshData mesh) {
+		// number the vertices which are still used
+		int[] remap = new int[vertexCount];
+		java.util.Arrays.fill(remap, -1);
+		int count = 0;
+		int[] resultTriangles = new int[liveTriangles * 3];
+		int corner = 0;
+		for(int t=0;t<triangleCount;t++) {
+			if(deadTriangles[t]) continue;
+			for(int i=0;i<3;i++) {
+				int v = triangles[t * 3 + i];
+				if(remap[v] < 0) remap[v] = count++;
+				resultTriangles[corner++] = remap[v];
+			}
+		}
+		float[] resultVertices = new float[count * 3];
+		float[] resultNormals = normals != null ? new float[count * 3] : null;
+		float[] resultUVs = uvs != null ? new float[count * 2] : null;
+		for(int v=0;v<vertexCount;v++) {
+			int r = remap[v];
+			if(r < 0) continue;
+			System.arraycopy(vertices, v * 3, resultVertices, r * 3, 3);
+			if(normals != null) System.arraycopy(normals, v * 3, resultNormals, r * 3, 3);
+			if(uvs != null) System.arraycopy(uvs, v * 2, resultUVs, r * 2, 2);
+		}
+		MeshData result = new MeshData(resultVertices, resultTriangles);
+		if(resultNormals != null) result.setNormals(resultNormals, MeshData.VERTEX);
+		else if(mesh.getNormals() != null) result.setNormals(corners(mesh.getNormals(), 3), MeshData.FACEVARYING);
+		if(resultUVs != null) result.setUVs(resultUVs, MeshData.VERTEX);
+		else if(mesh.getUVs() != null) result.setUVs(corners(mesh.getUVs(), 2), MeshData.FACEVARYING);
+		return result;
+	}
+
+	/**
+	 * facevarying values of the triangles which are left
+	 */
+	private float[] corners(float[] values, int size) {
+		float[] result = new float[liveTriangles * 3 * size];
+		int offset = 0;
+		for(int t=0;t<triangleCount;t++) {
+			if(deadTriangles[t]) continue;
+			System.arraycopy(values, t * 3 * size, result, offset, 3 * size);
+			offset += 3 * size;
+		}
+		return result;
+	}
+}
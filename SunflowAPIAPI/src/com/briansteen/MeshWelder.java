@@ -0,0 +1,224 @@
+package com.briansteen;
+
+import java.util.Arrays;
+
+/**
+ * Turns a triangle soup (9 floats per triangle) into an indexed mesh.
+ * Vertices closer than epsilon are merged. They are looked up through an open addressing
+ * hash table of grid cells twice the size of epsilon, in the cell of a vertex and the cells
+ * next to the corner it is nearest to, so neighbours across a cell border are found as well. Triangles that collapse are dropped
+ * together with the vertices only they used.
+ * Optionally smooth vertex normals are calculated from the area weighted face normals.
+ *
+ * One welder is meant to be reused for many meshes, it keeps its work arrays between
+ * calls. The arrays returned by the getters are new for every weld, so they can be
+ * handed to sunflow. It is not thread safe.
+ */
+public class MeshWelder {
+	private float epsilon;
+	private boolean smoothNormals = false;
+
+	// work arrays, grown when needed
+	private float[] vertices = new float[0];
+	private long[] cells = new long[0];
+	private int[] triangles = new int[0];
+	private int[] table = new int[0];
+	private int[] remap = new int[0];
+
+	private int vertexCount;
+	private int triangleCount;
+	private float[] normals;
+
+	/**
+	 * @param epsilon vertices closer than this are merged, 0 only merges equal vertices
+	 */
+	public MeshWelder(float epsilon) {
+		this.epsilon = epsilon;
+	}
+
+	/**
+	 * welds a triangle soup
+	 * @param soup 9 floats per triangle (like [ax,ay,az,bx,by,bz,cx,cy,cz])
+	 * @param count number of triangles to read from soup
+	 */
+	public void weld(float[] soup, int count) {
+		weld(soup, 0, count);
+	}
+
+	/**
+	 * welds a part of a triangle soup
+	 * @param soup 9 floats per triangle (like [ax,ay,az,bx,by,bz,cx,cy,cz])
+	 * @param offset index of the first triangle value
+	 * @param count number of triangles to read from soup
+	 */
+	public void weld(float[] soup, int offset, int count) {
+		int corners = count * 3;
+		if(vertices.length < corners * 3) {
+			vertices = new float[corners * 3];
+			cells = new long[corners * 3];
+			triangles = new int[corners];
+		}
+		int tableSize = Integer.highestOneBit(Math.max(corners, 8)) << 2;
+		if(table.length < tableSize) table = new int[tableSize];
+		Arrays.fill(table, 0, tableSize, 0);
+		int mask = tableSize - 1;
+
+		vertexCount = 0;
+		triangleCount = 0;
+		// cells are twice epsilon, so a vertex closer than epsilon is at most one cell away on one side
+		float scale = epsilon > 0 ? 0.5f / epsilon : 0;
+		for(int t=0;t<count;t++) {
+			int base = triangleCount * 3;
+			for(int c=0;c<3;c++) {
+				int s = offset + (t * 3 + c) * 3;
+				float x = soup[s], y = soup[s+1], z = soup[s+2];
+				long cx = cell(x, scale), cy = cell(y, scale), cz = cell(z, scale);
+
+				int index = find(cx, cy, cz, x, y, z, mask);
+				if(index < 0 && scale > 0) {
+					// the other cells on the side of the cell x, y, z is nearer to
+					long dx = (double)x * scale - cx >= 0.5 ? 1 : -1, dy = (double)y * scale - cy >= 0.5 ? 1 : -1, dz = (double)z * scale - cz >= 0.5 ? 1 : -1;
+					for(int n=1;index<0 && n<8;n++) {
+						index = find(cx + (n & 1) * dx, cy + (n >> 1 & 1) * dy, cz + (n >> 2 & 1) * dz, x, y, z, mask);
+					}
+				}
+				if(index < 0) {
+					index = vertexCount++;
+					vertices[index*3] = x;
+					vertices[index*3+1] = y;
+					vertices[index*3+2] = z;
+					cells[index*3] = cx;
+					cells[index*3+1] = cy;
+					cells[index*3+2] = cz;
+					int slot = slot(cx, cy, cz, mask);
+					while(table[slot] != 0) slot = (slot + 1) & mask;
+					table[slot] = index + 1;
+				}
+				triangles[base + c] = index;
+			}
+			// drop triangles which collapsed to a line or a point
+			int a = triangles[base], b = triangles[base+1], c = triangles[base+2];
+			if(a != b && b != c && a != c) triangleCount++;
+		}
+		if(triangleCount < count) removeUnusedVertices();
+		normals = smoothNormals ? calculateNormals() : null;
+	}
+
+	private static int slot(long cx, long cy, long cz, int mask) {
+		long hash = cx * 73856093L ^ cy * 19349663L ^ cz * 83492791L;
+		return (int)(hash ^ (hash >>> 32)) & mask;
+	}
+
+	/**
+	 * vertex of a cell closer than epsilon to x, y, z, or with epsilon 0 any vertex of the cell
+	 * @return vertex index, -1 if there is none
+	 */
+	private int find(long cx, long cy, long cz, float x, float y, float z, int mask) {
+		for(int slot=slot(cx, cy, cz, mask);table[slot]!=0;slot=(slot + 1) & mask) {
+			int index = table[slot] - 1;
+			if(cells[index*3] != cx || cells[index*3+1] != cy || cells[index*3+2] != cz) continue;
+			if(epsilon <= 0) return index;
+			float dx = vertices[index*3] - x, dy = vertices[index*3+1] - y, dz = vertices[index*3+2] - z;
+			if(dx * dx + dy * dy + dz * dz < epsilon * epsilon) return index;
+		}
+		return -1;
+	}
+
+	/**
+	 * drops the vertices which were only used by collapsed triangles, keeping the order of the others
+	 */
+	private void removeUnusedVertices() {
+		if(remap.length < vertexCount) remap = new int[vertexCount];
+		Arrays.fill(remap, 0, vertexCount, -1);
+		for(int i=0;i<triangleCount*3;i++) remap[triangles[i]] = 0;
+		int used = 0;
+		for(int v=0;v<vertexCount;v++) {
+			if(remap[v] < 0) continue;
+			remap[v] = used;
+			if(used != v) System.arraycopy(vertices, v * 3, vertices, used * 3, 3);
+			used++;
+		}
+		for(int i=0;i<triangleCount*3;i++) triangles[i] = remap[triangles[i]];
+		vertexCount = used;
+	}
+
+	private static long cell(float value, float scale) {
+		if(scale == 0) return Float.floatToIntBits(value == 0 ? 0 : value);
+		return (long)Math.floor((double)value * scale);
+	}
+
+	/**
+	 * sums the face normals (length is twice the area) at every vertex and normalizes them
+	 */
+	private float[] calculateNormals() {
+		float[] n = new float[vertexCount * 3];
+		for(int t=0;t<triangleCount;t++) {
+			int a = triangles[t*3] * 3, b = triangles[t*3+1] * 3, c = triangles[t*3+2] * 3;
+			float e1x = vertices[b] - vertices[a], e1y = vertices[b+1] - vertices[a+1], e1z = vertices[b+2] - vertices[a+2];
+			float e2x = vertices[c] - vertices[a], e2y = vertices[c+1] - vertices[a+1], e2z = vertices[c+2] - vertices[a+2];
+			float nx = e1y * e2z - e1z * e2y;
+			float ny = e1z * e2x - e1x * e2z;
+			float nz = e1x * e2y - e1y * e2x;
+			n[a] += nx; n[a+1] += ny; n[a+2] += nz;
+			n[b] += nx; n[b+1] += ny; n[b+2] += nz;
+			n[c] += nx; n[c+1] += ny; n[c+2] += nz;
+		}
+		for(int i=0;i<n.length;i+=3) {
+			float length = (float)Math.sqrt(n[i]*n[i] + n[i+1]*n[i+1] + n[i+2]*n[i+2]);
+			if(length > 0) {
+				n[i] /= length;
+				n[i+1] /= length;
+				n[i+2] /= length;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * welded vertex coordinates of the last weld
+	 * @return Float array with coordinates (like [x0,y0,z0,x1,y1,z1])
+	 */
+	public float[] getVertices() {
+		return Arrays.copyOf(vertices, vertexCount * 3);
+	}
+
+	/**
+	 * triangles of the last weld
+	 * @return int array connecting the vertices (like [0,1,2])
+	 */
+	public int[] getTriangles() {
+		return Arrays.copyOf(triangles, triangleCount * 3);
+	}
+
+	/**
+	 * smooth vertex normals of the last weld
+	 * @return Float array with one normal per vertex or null if smooth normals are off
+	 */
+	public float[] getNormals() {
+		return normals;
+	}
+
+	public int getVertexCount() {
+		return vertexCount;
+	}
+
+	public int getTriangleCount() {
+		return triangleCount;
+	}
+
+	public float getEpsilon() {
+		return epsilon;
+	}
+
+	public void setEpsilon(float epsilon) {
+		this.epsilon = epsilon;
+	}
+
+	public boolean isSmoothNormals() {
+		return smoothNormals;
+	}
+
+	public void setSmoothNormals(boolean smoothNormals) {
+		this.smoothNormals = smoothNormals;
+	}
+}
@@ -0,0 +1,184 @@
+package com.briansteen;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Sorts particles along a Morton (z order) curve and cuts them into chunks, for
+ * SunflowAPIAPI.drawParticleSurface(String, FloatBuffer, float). Particles following each other
+ * on the curve are close in space, so every chunk fills a small box and the chunks overlap little.
+ *
+ * Particles are read from a FloatBuffer (x, y, z per particle), which can be a view on a direct
+ * buffer, so only the chunks are copied onto the heap. Bounds, keys, sorting and copying run on
+ * all cores.
+ */
+public class ParticleSorter {
+	// bits per axis of the Morton keys, 3 * 10 bits leave room for the index in a long
+	private static final int BITS = 10;
+
+	/**
+	 * particle indices in Morton order
+	 * @param particles x, y, z per particle, from position to limit
+	 * @return indices of the particles, 0 is the particle at position
+	 */
+	public static int[] sort(final FloatBuffer particles) {
+		final int count = particles.remaining() / 3;
+		final int base = particles.position();
+		if(count == 0) return new int[0];
+		int threads = Runtime.getRuntime().availableProcessors();
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			final int part = (count + threads - 1) / threads;
+
+			// bounds
+			List<Callable<float[]>> boundsTasks = new ArrayList<Callable<float[]>>();
+			for(int first=0;first<count;first+=part) {
+				final int from = first, to = Math.min(count, first + part);
+				boundsTasks.add(new Callable<float[]>() {
+					public float[] call() {
+						float[] bounds = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+						for(int i=from;i<to;i++) {
+							for(int j=0;j<3;j++) {
+								float value = particles.get(base + i * 3 + j);
+								if(value < bounds[j]) bounds[j] = value;
+								if(value > bounds[j + 3]) bounds[j + 3] = value;
+							}
+						}
+						return bounds;
+					}
+				});
+			}
+			final float[] bounds = { Float.MAX_VALUE, Float.MAX_VALUE, Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE, -Float.MAX_VALUE };
+			for(float[] partBounds : run(pool, boundsTasks)) {
+				for(int j=0;j<3;j++) {
+					bounds[j] = Math.min(bounds[j], partBounds[j]);
+					bounds[j + 3] = Math.max(bounds[j + 3], partBounds[j + 3]);
+				}
+			}
+
+			// keys with the index in the low bits, each part sorted on its own
+			final long[] keys = new long[count];
+			final float[] scale = new float[3];
+			for(int j=0;j<3;j++) {
+				float size = bounds[j + 3] - bounds[j];
+				scale[j] = size > 0 ? ((1 << BITS) - 1) / size : 0;
+			}
+			List<Callable<Object>> keyTasks = new ArrayList<Callable<Object>>();
+			for(int first=0;first<count;first+=part) {
+				final int from = first, to = Math.min(count, first + part);
+				keyTasks.add(new Callable<Object>() {
+					public Object call() {
+						for(int i=from;i<to;i++) {
+							long x = (long)((particles.get(base + i * 3) - bounds[0]) * scale[0]);
+							long y = (long)((particles.get(base + i * 3 + 1) - bounds[1]) * scale[1]);
+							long z = (long)((particles.get(base + i * 3 + 2) - bounds[2]) * scale[2]);
+							keys[i] = (spread(x) << 2 | spread(y) << 1 | spread(z)) << 32 | i;
+						}
+						Arrays.sort(keys, from, to);
+						return null;
+					}
+				});
+			}
+			run(pool, keyTasks);
+
+			// merge the sorted parts in pairs until one is left
+			long[] source = keys;
+			long[] target = new long[count];
+			for(int width=part;width<count;width*=2) {
+				List<Callable<Object>> mergeTasks = new ArrayList<Callable<Object>>();
+				for(int first=0;first<count;first+=width*2) {
+					final int from = first, middle = Math.min(count, first + width), to = Math.min(count, first + width * 2);
+					final long[] in = source, out = target;
+					mergeTasks.add(new Callable<Object>() {
+						public Object call() {
+							int i = from, j = middle, k = from;
+							while(i < middle && j < to) out[k++] = in[i] <= in[j] ? in[i++] : in[j++];
+							System.arraycopy(in, i, out, k, middle - i);
+							System.arraycopy(in, j, out, k + middle - i, to - j);
+							return null;
+						}
+					});
+				}
+				run(pool, mergeTasks);
+				long[] swap = source;
+				source = target;
+				target = swap;
+			}
+
+			int[] order = new int[count];
+			for(int i=0;i<count;i++) order[i] = (int)source[i];
+			return order;
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * sorts the particles and copies them into chunks
+	 * @param particles x, y, z per particle, from position to limit
+	 * @param chunkSize particles per chunk
+	 * @return x, y, z per particle for every chunk
+	 */
+	public static float[][] chunks(final FloatBuffer particles, final int chunkSize) {
+		final int count = particles.remaining() / 3;
+		final int base = particles.position();
+		final int[] order = sort(particles);
+		final float[][] chunks = new float[(count + chunkSize - 1) / chunkSize][];
+		ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+		try {
+			List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+			for(int c=0;c<chunks.length;c++) {
+				final int chunk = c;
+				tasks.add(new Callable<Object>() {
+					public Object call() {
+						int from = chunk * chunkSize, to = Math.min(count, from + chunkSize);
+						float[] values = new float[(to - from) * 3];
+						for(int i=from;i<to;i++) {
+							int particle = base + order[i] * 3;
+							values[(i - from) * 3] = particles.get(particle);
+							values[(i - from) * 3 + 1] = particles.get(particle + 1);
+							values[(i - from) * 3 + 2] = particles.get(particle + 2);
+						}
+						chunks[chunk] = values;
+						return null;
+					}
+				});
+			}
+			run(pool, tasks);
+		} finally {
+			pool.shutdown();
+		}
+		return chunks;
+	}
+
+	/**
+	 * spreads the low 10 bits of value to every third bit
+	 */
+	private static long spread(long value) {
+		value = Math.max(0, Math.min((1 << BITS) - 1, value));
+		value = (value | value << 16) & 0x030000FFL;
+		value = (value | value << 8) & 0x0300F00FL;
+		value = (value | value << 4) & 0x030C30C3L;
+		value = (value | value << 2) & 0x09249249L;
+		return value;
+	}
+
+	private static <T> List<T> run(ExecutorService pool, List<Callable<T>> tasks) {
+		try {
+			List<T> results = new ArrayList<T>(tasks.size());
+			for(Future<T> future : pool.invokeAll(tasks)) results.add(future.get());
+			return results;
+		} catch (InterruptedException e) {
+			throw new RuntimeException("sorting particles was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("sorting particles failed", e.getCause());
+		}
+	}
+}
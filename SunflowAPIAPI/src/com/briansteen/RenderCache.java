@@ -0,0 +1,127 @@
+package com.briansteen;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Directory of rendered images, named by the scene hash they were rendered from (see
+ * SunflowAPIAPI.getSceneHash()), so an unchanged scene does not have to be rendered again.
+ *
+ * When the images take more than the maximum size, the least recently used ones are deleted.
+ * The modification time of a file is its last use, so the order is kept between runs and
+ * several programs can share one cache directory.
+ */
+public class RenderCache {
+	private File directory;
+	private long maxBytes;
+
+	/**
+	 * @param directory cache directory, it is created if it does not exist
+	 * @param maxBytes largest size of all images together
+	 */
+	public RenderCache(String directory, long maxBytes) {
+		this.directory = new File(directory);
+		this.maxBytes = maxBytes;
+		this.directory.mkdirs();
+	}
+
+	private File file(long key, String fileName) {
+		String name = Long.toHexString(key);
+		int dot = fileName.lastIndexOf('.');
+		// the same scene written as png and as tiff are different images
+		if(dot > fileName.lastIndexOf(File.separatorChar)) name += fileName.substring(dot).toLowerCase();
+		return new File(directory, name);
+	}
+
+	/**
+	 * copies a cached image to a file
+	 * @param key scene hash
+	 * @param fileName image file, its extension is part of the key
+	 * @return true if the image was in the cache and is copied
+	 */
+	public boolean get(long key, String fileName) {
+		File cached = file(key, fileName);
+		if(!cached.isFile()) return false;
+		try {
+			copy(cached, new File(fileName));
+		} catch (IOException e) {
+			return false;
+		}
+		cached.setLastModified(System.currentTimeMillis());
+		return true;
+	}
+
+	/**
+	 * copies a rendered image into the cache and deletes the least recently used images
+	 * if the cache is too large
+	 * @param key scene hash
+	 * @param fileName rendered image file
+	 */
+	public void put(long key, String fileName) {
+		File cached = file(key, fileName);
+		// written under another name first, so other programs never see half an image
+		File part = new File(directory, cached.getName() + ".part");
+		try {
+			copy(new File(fileName), part);
+			cached.delete();
+			if(!part.renameTo(cached)) part.delete();
+		} catch (IOException e) {
+			part.delete();
+			return;
+		}
+		evict();
+	}
+
+	/**
+	 * deletes the least recently used images until the cache is small enough
+	 */
+	public void evict() {
+		// images other programs are still writing are left alone
+		File[] files = directory.listFiles(new FileFilter() {
+			public boolean accept(File file) {
+				return !file.getName().endsWith(".part");
+			}
+		});
+		if(files == null) return;
+		long size = 0;
+		for(int i=0;i<files.length;i++) size += files[i].length();
+		if(size <= maxBytes) return;
+		Arrays.sort(files, new Comparator<File>() {
+			public int compare(File a, File b) {
+				long difference = a.lastModified() - b.lastModified();
+				return difference < 0 ? -1 : difference > 0 ? 1 : 0;
+			}
+		});
+		for(int i=0;i<files.length && size>maxBytes;i++) {
+			long length = files[i].length();
+			if(files[i].delete()) size -= length;
+		}
+	}
+
+	public void clear() {
+		File[] files = directory.listFiles();
+		if(files == null) return;
+		for(int i=0;i<files.length;i++) files[i].delete();
+	}
+
+	private static void copy(File source, File destination) throws IOException {
+		FileInputStream in = new FileInputStream(source);
+		try {
+			FileOutputStream out = new FileOutputStream(destination);
+			try {
+				long size = in.getChannel().size();
+				long position = 0;
+				while(position < size) position += in.getChannel().transferTo(position, size - position, out.getChannel());
+			} finally {
+				out.close();
+			}
+		} finally {
+			in.close();
+		}
+	}
+}
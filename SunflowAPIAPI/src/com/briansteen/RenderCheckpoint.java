@@ -0,0 +1,208 @@
+package com.briansteen;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.sunflow.core.Display;
+import org.sunflow.image.Color;
+
+/**
+ * Passes the rendered buckets on to another display and appends each finished bucket to a
+ * checkpoint file, together with the hash of the scene and options it was rendered from.
+ * If the render is stopped, open() finds the finished buckets of the same scene again, so
+ * only the missing buckets are rendered (see CheckpointBucketOrder) and the finished ones are
+ * passed on to the display from the file. The file is deleted once the image is complete.
+ *
+ * Buckets are stored as the float colors sunflow rendered, and a bucket only depends on its
+ * position, so the resumed image is the same as one rendered without a stop. Irradiance
+ * caching shares results between buckets and is the exception.
+ *
+ * The file is a 32 byte header (the bytes "SFCP", version, scene hash, width, height, bucket
+ * size) followed by one record per bucket: x, y, width and height as ints and 4 floats
+ * (r, g, b, alpha) per pixel, all little endian. A record cut off by a crash is dropped.
+ */
+public class RenderCheckpoint implements Display {
+	private static final int MAGIC = 'S' | 'F' << 8 | 'C' << 16 | 'P' << 24;
+	private static final int VERSION = 1;
+	private static final int HEADER = 32;
+	private static final int RECORD_HEADER = 16;
+
+	private String fileName;
+	private Display display;
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private volatile IOException error;
+
+	private int bucketSize;
+	private int bucketsAcross;
+	private boolean[] completed;
+	// start of every record found by open()
+	private ArrayList<Long> records = new ArrayList<Long>();
+	private long end;
+
+	/**
+	 * @param fileName checkpoint file
+	 * @param display gets all buckets, rendered or from the file
+	 */
+	public RenderCheckpoint(String fileName, Display display) {
+		this.fileName = fileName;
+		this.display = display;
+	}
+
+	/**
+	 * opens the checkpoint file, keeping the buckets in it if they belong to the same render
+	 * and starting a new file otherwise
+	 * @param sceneHash hash of the scene and options
+	 * @param width image width
+	 * @param height image height
+	 * @param bucketSize bucket size of the render
+	 * @return one value per bucket, row by row, true for buckets in the file
+	 * @throws IOException if the file can not be read or written
+	 */
+	public boolean[] open(long sceneHash, int width, int height, int bucketSize) throws IOException {
+		this.bucketSize = bucketSize;
+		bucketsAcross = (width + bucketSize - 1) / bucketSize;
+		completed = new boolean[bucketsAcross * ((height + bucketSize - 1) / bucketSize)];
+		records.clear();
+		error = null;
+
+		file = new RandomAccessFile(fileName, "rw");
+		channel = file.getChannel();
+		ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+		read(header, 0);
+		header.flip();
+		boolean isSameRender = header.remaining() == HEADER
+				&& header.getInt() == MAGIC
+				&& header.getInt() == VERSION
+				&& header.getLong() == sceneHash
+				&& header.getInt() == width
+				&& header.getInt() == height
+				&& header.getInt() == bucketSize;
+
+		end = HEADER;
+		if(isSameRender) {
+			long size = channel.size();
+			ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			while(end + RECORD_HEADER <= size) {
+				record.clear();
+				read(record, end);
+				record.flip();
+				int x = record.getInt(), y = record.getInt(), w = record.getInt(), h = record.getInt();
+				long length = RECORD_HEADER + (long)w * h * 16;
+				if(end + length > size) break;
+				records.add(end);
+				completed[(y / bucketSize) * bucketsAcross + x / bucketSize] = true;
+				end += length;
+			}
+			// drops a record cut off by a crash
+			channel.truncate(end);
+		} else {
+			channel.truncate(0);
+			header.clear();
+			header.putInt(MAGIC).putInt(VERSION).putLong(sceneHash).putInt(width).putInt(height).putInt(bucketSize).putInt(0);
+			header.flip();
+			write(header, 0);
+			channel.force(false);
+		}
+		return completed;
+	}
+
+	/**
+	 * @return number of buckets taken from the file
+	 */
+	public int getRestoredBuckets() {
+		return records.size();
+	}
+
+	private void read(ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) {
+			int count = channel.read(buffer, position);
+			if(count < 0) break;
+			position += count;
+		}
+	}
+
+	private void write(ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) position += channel.write(buffer, position);
+	}
+
+	public void imageBegin(int w, int h, int bucketSize) {
+		display.imageBegin(w, h, bucketSize);
+		// buckets of the last run
+		try {
+			ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			for(int r=0;r<records.size();r++) {
+				header.clear();
+				read(header, records.get(r));
+				header.flip();
+				int x = header.getInt(), y = header.getInt(), bw = header.getInt(), bh = header.getInt();
+				ByteBuffer buffer = ByteBuffer.allocate(bw * bh * 16).order(ByteOrder.LITTLE_ENDIAN);
+				read(buffer, records.get(r) + RECORD_HEADER);
+				buffer.flip();
+				Color[] data = new Color[bw * bh];
+				float[] alpha = new float[bw * bh];
+				for(int i=0;i<data.length;i++) {
+					data[i] = new Color(buffer.getFloat(), buffer.getFloat(), buffer.getFloat());
+					alpha[i] = buffer.getFloat();
+				}
+				display.imageUpdate(x, y, bw, bh, data, alpha);
+			}
+		} catch (IOException e) {
+			error = e;
+		}
+	}
+
+	public void imagePrepare(int x, int y, int w, int h, int id) {
+		display.imagePrepare(x, y, w, h, id);
+	}
+
+	public void imageUpdate(int x, int y, int w, int h, Color[] data, float[] alpha) {
+		display.imageUpdate(x, y, w, h, data, alpha);
+		if(error != null) return;
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + w * h * 16).order(ByteOrder.LITTLE_ENDIAN);
+		record.putInt(x).putInt(y).putInt(w).putInt(h);
+		for(int i=0;i<w*h;i++) {
+			float[] rgb = data[i].getRGB();
+			record.putFloat(rgb[0]).putFloat(rgb[1]).putFloat(rgb[2]).putFloat(alpha[i]);
+		}
+		record.flip();
+		try {
+			// one record after the other, each on disk before the next one
+			synchronized(this) {
+				write(record, end);
+				end += record.limit();
+				channel.force(false);
+			}
+		} catch (IOException e) {
+			error = e;
+		}
+	}
+
+	public void imageFill(int x, int y, int w, int h, Color c, float alpha) {
+		Color[] data = new Color[w * h];
+		float[] alphas = new float[w * h];
+		Arrays.fill(data, c);
+		Arrays.fill(alphas, alpha);
+		imageUpdate(x, y, w, h, data, alphas);
+	}
+
+	public void imageEnd() {
+		display.imageEnd();
+		try {
+			if(file != null) file.close();
+		} catch (IOException e) {
+			if(error == null) error = e;
+		}
+		file = null;
+		channel = null;
+		if(error != null) throw new RuntimeException("writing checkpoint " + fileName + " failed", error);
+		// the image is complete
+		new File(fileName).delete();
+	}
+}
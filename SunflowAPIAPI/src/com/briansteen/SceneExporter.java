@@ -0,0 +1,598 @@
+package com.briansteen;
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.sunflow.math.Point3;
+import org.sunflow.math.Vector3;
+
+/**
+ * Writes scene calls as a sunflow .sc scene file, which the sunflow command line renderer
+ * can render on its own. It gets the calls from a SceneRecorder (see
+ * SunflowAPIAPI.startExport()).
+ *
+ * Every shader, modifier, light, object and instance is written as soon as it is declared,
+ * through a buffered writer and number by number, so large meshes are never held as text.
+ * Only the parameters of the current call, the cameras and the options are kept until
+ * close(), which writes the image settings and the cameras, the active one last.
+ *
+ * The .sc format can not remove or change objects, so removals and updates of shaders,
+ * objects or lights are left out, as well as shaders, objects and lights .sc files have
+ * no syntax for. getSkippedCalls() counts them.
+ */
+public class SceneExporter {
+	private static final float[] IDENTITY = { 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1, 0, 0, 0, 0, 1 };
+
+	private Writer out;
+	private HashMap<String, Object> parameters = new HashMap<String, Object>();
+	// the latest options and cameras, written by close()
+	private HashMap<String, Object> options = new HashMap<String, Object>();
+	private LinkedHashMap<String, HashMap<String, Object>> cameras = new LinkedHashMap<String, HashMap<String, Object>>();
+	private HashMap<String, String> cameraTypes = new HashMap<String, String>();
+	// colors of constant shaders and the background geometries, for the background block
+	private HashMap<String, ColorValue> constantColors = new HashMap<String, ColorValue>();
+	private HashMap<String, Boolean> backgrounds = new HashMap<String, Boolean>();
+	private int skippedCalls = 0;
+
+	private static class ColorValue {
+		String colorSpace;
+		float[] data;
+	}
+
+	private static class ArrayValue {
+		String type;
+		String interpolation;
+		float[] data;
+	}
+
+	/**
+	 * @param fileName .sc file, it is replaced if it exists
+	 * @throws IOException if the file can not be written
+	 */
+	public SceneExporter(String fileName) throws IOException {
+		out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(fileName), "UTF-8"), 1 << 16);
+	}
+
+	/**
+	 * @return number of calls which could not be written as .sc, or only approximately
+	 */
+	public int getSkippedCalls() {
+		return skippedCalls;
+	}
+
+	/* ---------------------------------------------------------------------------------------------
+	 * PARAMETERS
+	 * values are only referenced until the next declaration, like in sunflow
+	 */
+	public void parameter(String name, Object value) {
+		parameters.put(name, value);
+	}
+
+	public void parameter(String name, String colorSpace, float[] data) {
+		ColorValue color = new ColorValue();
+		color.colorSpace = colorSpace;
+		color.data = data;
+		parameters.put(name, color);
+	}
+
+	public void parameter(String name, String type, String interpolation, float[] data) {
+		ArrayValue array = new ArrayValue();
+		array.type = type;
+		array.interpolation = interpolation;
+		array.data = data;
+		parameters.put(name, array);
+	}
+
+	/* ---------------------------------------------------------------------------------------------
+	 * DECLARATIONS
+	 */
+	public void shader(String name, String type) throws IOException {
+		try {
+			if(type == null) {
+				skippedCalls++;
+				return;
+			}
+			if(type.equals("constant")) constantColors.put(name, color("color"));
+
+			String textured = type.startsWith("textured_") ? type.substring(9) : type;
+			String texture = string("texture");
+			if(textured.equals("diffuse")) {
+				begin("shader", name, "diffuse");
+				colorOrTexture("diff", "diffuse", texture);
+			} else if(textured.equals("phong")) {
+				begin("shader", name, "phong");
+				colorOrTexture("diff", "diffuse", texture);
+				writeColor("spec", color("specular"));
+				write(" ").write(number("power", 20));
+				write("\n\tsamples ").write(integer("samples", 4));
+			} else if(textured.equals("ambient_occlusion")) {
+				begin("shader", name, "amb-occ");
+				colorOrTexture("bright", "bright", texture);
+				writeColor("dark", color("dark"));
+				write("\n\tsamples ").write(integer("samples", 32));
+				write("\n\tdist ").write(number("maxdist", 0));
+			} else if(textured.equals("shiny_diffuse")) {
+				begin("shader", name, "shiny");
+				colorOrTexture("diff", "diffuse", texture);
+				write("\n\trefl ").write(number("shiny", 0.5f));
+			} else if(textured.equals("ward")) {
+				begin("shader", name, "ward");
+				colorOrTexture("diff", "diffuse", texture);
+				writeColor("spec", color("specular"));
+				write("\n\trough ").write(number("roughnessX", 1)).write(" ").write(number("roughnessY", 1));
+				write("\n\tsamples ").write(integer("samples", 4));
+			} else if(type.equals("mirror")) {
+				begin("shader", name, "mirror");
+				writeColor("refl", color("color"));
+			} else if(type.equals("glass")) {
+				begin("shader", name, "glass");
+				write("\n\teta ").write(number("eta", 1.3f));
+				writeColor("color", color("color"));
+				if(parameters.containsKey("absorption.distance")) write("\n\tabsorbtion.distance ").write(number("absorption.distance", 0));
+				if(parameters.containsKey("absorption.color")) writeColor("absorbtion.color", color("absorption.color"));
+			} else if(type.equals("constant")) {
+				begin("shader", name, "constant");
+				writeColor("color", color("color"));
+			} else if(type.equals("uber")) {
+				begin("shader", name, "uber");
+				writeColor("diff", color("diffuse"));
+				if(string("diffuse.texture") != null) write("\n\tdiff.texture ").writeString(string("diffuse.texture"));
+				write("\n\tdiff.blend ").write(number("diffuse.blend", 1));
+				writeColor("spec", color("specular"));
+				if(string("specular.texture") != null) write("\n\tspec.texture ").writeString(string("specular.texture"));
+				write("\n\tspec.blend ").write(number("specular.blend", 1));
+				write("\n\tglossy ").write(number("glossyness", 0));
+				write("\n\tsamples ").write(integer("samples", 4));
+			} else {
+				skippedCalls++;
+				return;
+			}
+			end();
+		} finally {
+			parameters.clear();
+		}
+	}
+
+	public void modifier(String name, String type) throws IOException {
+		try {
+			if(type == null) {
+				skippedCalls++;
+			} else if(type.equals("bump_map")) {
+				begin("modifier", name, "bump");
+				write("\n\ttexture ").writeString(string("texture"));
+				write("\n\tscale ").write(number("scale", 1));
+				end();
+			} else if(type.equals("normal_map")) {
+				begin("modifier", name, "normalmap");
+				write("\n\ttexture ").writeString(string("texture"));
+				end();
+			} else if(type.equals("perlin")) {
+				begin("modifier", name, "perlin");
+				write("\n\tfunction ").write(integer("function", 0));
+				write("\n\tsize ").write(number("size", 1));
+				write("\n\tscale ").write(number("scale", 0.1f));
+				end();
+			} else {
+				skippedCalls++;
+			}
+		} finally {
+			parameters.clear();
+		}
+	}
+
+	public void light(String name, String type) throws IOException {
+		try {
+			if(type == null) {
+				skippedCalls++;
+			} else if(type.equals("point")) {
+				write("light {\n\ttype point");
+				writeColor("color", color("power"));
+				write("\n\tpower 1\n\tp ").write(floats("center"));
+				end();
+			} else if(type.equals("sphere")) {
+				write("light {\n\ttype spherical");
+				writeColor("color", color("radiance"));
+				write("\n\tradiance 1\n\tcenter ").write(floats("center"));
+				write("\n\tradius ").write(number("radius", 1));
+				write("\n\tsamples ").write(integer("samples", 4));
+				end();
+			} else if(type.equals("directional")) {
+				float[] source = floats("source"), direction = floats("dir");
+				write("light {\n\ttype directional\n\tsource ").write(source);
+				write("\n\ttarget ").write(new float[] { source[0] + direction[0], source[1] + direction[1], source[2] + direction[2] });
+				write("\n\tradius ").write(number("radius", 1));
+				writeColor("emit", color("radiance"));
+				write("\n\tintensity 1");
+				end();
+			} else if(type.equals("sunsky")) {
+				write("light {\n\ttype sunsky\n\tup ").write(floats("up"));
+				write("\n\teast ").write(floats("east"));
+				write("\n\tsundir ").write(floats("sundir"));
+				write("\n\tturbidity ").write(number("turbidity", 6));
+				write("\n\tsamples ").write(integer("samples", 16));
+				if(parameters.containsKey("ground.extendsky")) write("\n\tground.extendsky ").write(String.valueOf(parameters.get("ground.extendsky")));
+				if(parameters.containsKey("ground.color")) writeColor("ground.color", color("ground.color"));
+				end();
+			} else if(type.equals("ibl")) {
+				write("light {\n\ttype ibl\n\timage ").writeString(string("texture"));
+				write("\n\tcenter ").write(floats("center"));
+				write("\n\tup ").write(floats("up"));
+				write("\n\tlock true\n\tsamples ").write(integer("samples", 16));
+				if(parameters.containsKey("lowsamples")) write("\n\tlowsamples ").write(integer("lowsamples", 8));
+				end();
+			} else if(type.equals("triangle_mesh")) {
+				write("light {\n\ttype meshlight\n\tname ").writeString(name);
+				writeColor("emit", color("radiance"));
+				write("\n\tradiance 1\n\tsamples ").write(integer("samples", 4));
+				writePoints(array("points").data);
+				writeTriangles((int[])parameters.get("triangles"));
+				end();
+			} else {
+				skippedCalls++;
+			}
+		} finally {
+			parameters.clear();
+		}
+	}
+
+	public void geometry(String name, String type) throws IOException {
+		try {
+			if(type == null) {
+				skippedCalls++;
+				return;
+			}
+			if(type.equals("background")) {
+				// written as background block with its instance
+				backgrounds.put(name, Boolean.TRUE);
+				return;
+			}
+			if(type.equals("triangle_mesh")) {
+				begin("object", name, "generic-mesh");
+				writePoints(array("points").data);
+				writeTriangles((int[])parameters.get("triangles"));
+				writeVertexData("normals", array("normals"));
+				writeVertexData("uvs", array("uvs"));
+				if(parameters.get("faceshaders") != null) {
+					write("\n\tface_shaders");
+					writeInts((int[])parameters.get("faceshaders"), 16);
+				}
+			} else if(type.equals("sphere") || type.equals("box") || type.equals("cylinder") || type.equals("banchoff")) {
+				begin("object", name, type);
+			} else if(type.equals("plane")) {
+				begin("object", name, "plane");
+				write("\n\tp ").write(floats("center"));
+				write("\n\tn ").write(floats("normal"));
+			} else if(type.equals("sphereflake")) {
+				begin("object", name, "sphereflake");
+				write("\n\tlevel ").write(integer("level", 2));
+				if(parameters.containsKey("axis")) write("\n\taxis ").write(floats("axis"));
+				write("\n\tradius ").write(number("radius", 1));
+			} else if(type.equals("julia")) {
+				begin("object", name, "julia");
+				write("\n\tq ").write(number("cw", -0.4f)).write(" ").write(number("cx", 0.4f)).write(" ").write(number("cy", 0)).write(" ").write(number("cz", 0));
+				write("\n\titerations ").write(integer("iterations", 15));
+				write("\n\tepsilon ").write(number("epsilon", 0.00001f));
+			} else if(type.equals("hair")) {
+				begin("object", name, "hair");
+				write("\n\tsegments ").write(integer("segments", 1));
+				// .sc hair has one width for all strands, other widths are written as their average
+				ArrayValue widths = array("widths");
+				float width = widths == null ? 1 : widths.data[0];
+				if(widths != null && widths.data.length > 1) {
+					float sum = 0;
+					boolean isUniform = true;
+					for(float value : widths.data) {
+						sum += value;
+						isUniform &= value == width;
+					}
+					if(!isUniform) {
+						width = sum / widths.data.length;
+						skippedCalls++;
+					}
+				}
+				write("\n\twidth ").write(Float.toString(width));
+				float[] points = array("points").data;
+				write("\n\tpoints ").write(String.valueOf(points.length));
+				writeFloats(points, 3);
+			} else if(type.equals("bezier_mesh")) {
+				begin("object", name, "bezier-mesh");
+				write("\n\tn ").write(integer("nu", 4)).write(" ").write(integer("nv", 4));
+				write("\n\twrap ").write(String.valueOf(parameters.get("uwrap"))).write(" ").write(String.valueOf(parameters.get("vwrap")));
+				write("\n\tpoints");
+				writeFloats(array("points").data, 3);
+				write("\n\tsubdivs ").write(integer("subdivs", 8));
+				write("\n\tsmooth ").write(String.valueOf(parameters.get("smooth")));
+			} else {
+				skippedCalls++;
+				return;
+			}
+			end();
+		} finally {
+			parameters.clear();
+		}
+	}
+
+	public void instance(String name, String geometry) throws IOException {
+		try {
+			if(backgrounds.containsKey(geometry)) {
+				ColorValue color = constantColors.get(shaderNames()[0]);
+				if(color == null) {
+					skippedCalls++;
+					return;
+				}
+				write("background {");
+				writeColor("color", color);
+				end();
+				return;
+			}
+			write("instance {\n\tname ").writeString(name);
+			write("\n\tgeometry ").writeString(geometry);
+			writeTransform(parameters.get("transform") instanceof float[] ? (float[])parameters.get("transform") : IDENTITY);
+			String[] shaders = shaderNames();
+			write("\n\tshaders ").write(String.valueOf(shaders.length));
+			for(int i=0;i<shaders.length;i++) write(" ").writeString(shaders[i]);
+			String[] modifiers = names("modifiers");
+			if(modifiers.length > 0) {
+				write("\n\tmodifiers ").write(String.valueOf(modifiers.length));
+				for(int i=0;i<modifiers.length;i++) write(" ").writeString(modifiers[i]);
+			}
+			end();
+		} finally {
+			parameters.clear();
+		}
+	}
+
+	public void camera(String name, String type) {
+		HashMap<String, Object> camera = cameras.get(name);
+		if(type != null || camera == null) {
+			camera = new HashMap<String, Object>();
+			cameraTypes.put(name, type);
+		}
+		// updates only change the parameters they have
+		camera.putAll(parameters);
+		cameras.remove(name);
+		cameras.put(name, camera);
+		parameters.clear();
+	}
+
+	public void options(String name) {
+		options.putAll(parameters);
+		parameters.clear();
+	}
+
+	public void remove(String name) {
+		skippedCalls++;
+	}
+
+	/**
+	 * writes image settings and cameras and closes the file
+	 * @throws IOException if the file can not be written
+	 */
+	public void close() throws IOException {
+		try {
+			write("image {\n\tresolution ").write(optionNumber("resolutionX", 640)).write(" ").write(optionNumber("resolutionY", 480));
+			write("\n\taa ").write(optionNumber("aa.min", 0)).write(" ").write(optionNumber("aa.max", 2));
+			if(options.get("filter") != null) write("\n\tfilter ").write((String)options.get("filter"));
+			end();
+			String order = (String)options.get("bucket.order");
+			// a checkpoint order is no stock order
+			if(order != null && !order.equals(CheckpointBucketOrder.NAME)) write("bucket ").write(optionNumber("bucket.size", 32)).write(" ").write(order).write("\n\n");
+			writeGI();
+
+			// the last camera is the one rendered
+			String active = (String)options.get("camera");
+			for(Map.Entry<String, HashMap<String, Object>> camera : cameras.entrySet()) {
+				if(!camera.getKey().equals(active) && cameraTypes.get(camera.getKey()) != null) writeCamera(cameraTypes.get(camera.getKey()), camera.getValue());
+			}
+			if(cameras.containsKey(active) && cameraTypes.get(active) != null) writeCamera(cameraTypes.get(active), cameras.get(active));
+		} finally {
+			out.close();
+		}
+	}
+
+	private void writeGI() throws IOException {
+		String engine = (String)options.get("gi.engine");
+		if(engine == null) return;
+		HashMap<String, Object> current = parameters;
+		parameters = options;
+		try {
+			write("gi {\n\ttype ").write(engine);
+			if(engine.equals("ambocc")) {
+				writeColor("bright", color("gi.ambocc.bright"));
+				writeColor("dark", color("gi.ambocc.dark"));
+				write("\n\tsamples ").write(integer("gi.ambocc.samples", 32));
+				write("\n\tmaxdist ").write(number("gi.ambocc.maxdist", 0));
+			} else if(engine.equals("fake")) {
+				write("\n\tup ").write(floats("gi.fake.up"));
+				writeColor("sky", color("gi.fake.sky"));
+				writeColor("ground", color("gi.fake.ground"));
+			} else if(engine.equals("igi")) {
+				write("\n\tsamples ").write(integer("gi.igi.samples", 64));
+				write("\n\tsets ").write(integer("gi.igi.sets", 1));
+				write("\n\tb ").write(number("gi.igi.c", 0.00003f));
+				write("\n\tbias-samples ").write(integer("gi.igi.bias_samples", 0));
+			} else if(engine.equals("irr-cache")) {
+				write("\n\tsamples ").write(integer("gi.irr-cache.samples", 512));
+				write("\n\ttolerance ").write(number("gi.irr-cache.tolerance", 0.01f));
+				write("\n\tspacing ").write(number("gi.irr-cache.min_spacing", 0.05f)).write(" ").write(number("gi.irr-cache.max_spacing", 5));
+			} else if(engine.equals("path")) {
+				write("\n\tsamples ").write(integer("gi.path.samples", 16));
+			}
+			end();
+		} finally {
+			parameters = current;
+		}
+	}
+
+	private void writeCamera(String type, HashMap<String, Object> camera) throws IOException {
+		HashMap<String, Object> current = parameters;
+		parameters = camera;
+		try {
+			write("camera {\n\ttype ").write(type);
+			writeTransform(camera.get("transform") instanceof float[] ? (float[])camera.get("transform") : IDENTITY);
+			if(type.equals("pinhole") || type.equals("thinlens")) {
+				write("\n\tfov ").write(number("fov", 90));
+				write("\n\taspect ").write(number("aspect", 1));
+				if(camera.containsKey("shift.x")) write("\n\tshift ").write(number("shift.x", 0)).write(" ").write(number("shift.y", 0));
+			}
+			if(type.equals("thinlens")) {
+				write("\n\tfdist ").write(number("focus.distance", 1));
+				write("\n\tlensr ").write(number("lens.radius", 0));
+				if(camera.containsKey("lens.sides")) write("\n\tsides ").write(integer("lens.sides", 0));
+				if(camera.containsKey("lens.rotation")) write("\n\trotation ").write(number("lens.rotation", 0));
+			}
+			end();
+		} finally {
+			parameters = current;
+		}
+	}
+
+	/* ---------------------------------------------------------------------------------------------
+	 * VALUES
+	 */
+	private String string(String name) {
+		Object value = parameters.get(name);
+		return value instanceof String ? (String)value : null;
+	}
+
+	private String number(String name, float fallback) {
+		Object value = parameters.get(name);
+		return value instanceof Number ? value.toString() : Float.toString(fallback);
+	}
+
+	private String integer(String name, int fallback) {
+		Object value = parameters.get(name);
+		return value instanceof Number ? String.valueOf(((Number)value).intValue()) : String.valueOf(fallback);
+	}
+
+	private String optionNumber(String name, int fallback) {
+		Object value = options.get(name);
+		return value instanceof Number ? value.toString() : String.valueOf(fallback);
+	}
+
+	private ColorValue color(String name) {
+		Object value = parameters.get(name);
+		return value instanceof ColorValue ? (ColorValue)value : null;
+	}
+
+	private ArrayValue array(String name) {
+		Object value = parameters.get(name);
+		return value instanceof ArrayValue ? (ArrayValue)value : null;
+	}
+
+	private float[] floats(String name) {
+		Object value = parameters.get(name);
+		if(value instanceof Point3) return new float[] { ((Point3)value).x, ((Point3)value).y, ((Point3)value).z };
+		if(value instanceof Vector3) return new float[] { ((Vector3)value).x, ((Vector3)value).y, ((Vector3)value).z };
+		return new float[3];
+	}
+
+	private String[] names(String name) {
+		Object value = parameters.get(name);
+		if(value instanceof String) return new String[] { (String)value };
+		if(value instanceof String[]) return (String[])value;
+		return new String[0];
+	}
+
+	private String[] shaderNames() {
+		String[] shaders = names("shaders");
+		return shaders.length > 0 ? shaders : new String[] { null };
+	}
+
+	/* ---------------------------------------------------------------------------------------------
+	 * WRITING
+	 */
+	private SceneExporter write(String text) throws IOException {
+		out.write(text);
+		return this;
+	}
+
+	private SceneExporter write(float[] values) throws IOException {
+		for(int i=0;i<values.length;i++) {
+			if(i > 0) out.write(' ');
+			out.write(Float.toString(values[i]));
+		}
+		return this;
+	}
+
+	private SceneExporter writeString(String text) throws IOException {
+		out.write('"');
+		out.write(text == null ? "" : text.replace("\"", "\\\""));
+		out.write('"');
+		return this;
+	}
+
+	private void begin(String block, String name, String type) throws IOException {
+		write(block).write(" {");
+		if(block.equals("object")) write("\n\tnoinstance");
+		if(block.equals("shader") || block.equals("modifier")) write("\n\tname ").writeString(name).write("\n\ttype ").write(type);
+		else write("\n\ttype ").write(type).write("\n\tname ").writeString(name);
+	}
+
+	private void end() throws IOException {
+		write("\n}\n\n");
+	}
+
+	private void writeColor(String keyword, ColorValue color) throws IOException {
+		write("\n\t").write(keyword).write(" { ");
+		if(color == null) {
+			write("\"sRGB linear\" 0 0 0 }");
+			return;
+		}
+		writeString(color.colorSpace == null ? "sRGB linear" : color.colorSpace).write(" ").write(color.data).write(" }");
+	}
+
+	private void colorOrTexture(String keyword, String colorName, String texture) throws IOException {
+		if(texture != null) write("\n\ttexture ").writeString(texture);
+		else writeColor(keyword, color(colorName));
+	}
+
+	private void writeTransform(float[] rowMajor) throws IOException {
+		write("\n\ttransform {\n\t\trow");
+		for(int i=0;i<16;i++) out.write(" " + rowMajor[i]);
+		write("\n\t}");
+	}
+
+	private void writePoints(float[] points) throws IOException {
+		write("\n\tpoints ").write(String.valueOf(points.length / 3));
+		writeFloats(points, 3);
+	}
+
+	private void writeTriangles(int[] triangles) throws IOException {
+		write("\n\ttriangles ").write(String.valueOf(triangles.length / 3));
+		writeInts(triangles, 3);
+	}
+
+	private void writeVertexData(String keyword, ArrayValue values) throws IOException {
+		write("\n\t").write(keyword).write(" ");
+		if(values == null || values.data == null) {
+			write("none");
+			return;
+		}
+		write(values.interpolation);
+		writeFloats(values.data, keyword.equals("uvs") ? 2 : 3);
+	}
+
+	/**
+	 * writes values a few per line, straight into the buffered writer
+	 */
+	private void writeFloats(float[] values, int perLine) throws IOException {
+		for(int i=0;i<values.length;i++) {
+			out.write(i % perLine == 0 ? "\n\t\t" : " ");
+			out.write(Float.toString(values[i]));
+		}
+	}
+
+	private void writeInts(int[] values, int perLine) throws IOException {
+		for(int i=0;i<values.length;i++) {
+			out.write(i % perLine == 0 ? "\n\t\t" : " ");
+			out.write(Integer.toString(values[i]));
+		}
+	}
+}
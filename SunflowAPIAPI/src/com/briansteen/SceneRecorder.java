@@ -0,0 +1,614 @@
+package com.briansteen;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.sunflow.SunflowAPI;
+import org.sunflow.core.Display;
+import org.sunflow.math.Matrix4;
+import org.sunflow.math.Point3;
+import org.sunflow.math.Vector3;
+
+/**
+ * Passes scene calls on to a SunflowAPI and keeps the hash of every object and option set
+ * which is declared and not removed, with the parameters it was declared with, so the hash
+ * identifies the scene and options a render is made from. Like sunflow, declaring an object
+ * again under its name updates the parameters given and keeps the others. The same scene
+ * gets the same hash, however often and in whichever order it was built.
+ *
+ * The contents of texture files are part of the hash, not only their names.
+ * Calls made on getAPI() directly are not part of the hash. It is not thread safe.
+ *
+ * The calls can also be recorded into a binary scene file and loaded again later, without
+ * the code which made them. The file starts with the bytes "SFSC" and a version, followed by
+ * one entry per call: an int for the kind of call and its values. Strings are a length and
+ * UTF-8 bytes, arrays are a length and the raw values, everything is little endian and padded
+ * to 4 bytes, so load() can map the file and copy arrays out of it in one go.
+ * The calls can be exported as a sunflow .sc file as well, see SceneExporter.
+ */
+public class SceneRecorder {
+	// one id per kind of call, so different calls with the same values hash differently
+	private static final int PARAMETER = 1;
+	private static final int SHADER = 2;
+	private static final int MODIFIER = 3;
+	private static final int GEOMETRY = 4;
+	private static final int INSTANCE = 5;
+	private static final int LIGHT = 6;
+	private static final int CAMERA = 7;
+	private static final int OPTIONS = 8;
+	private static final int REMOVE = 9;
+	// kinds of parameters in a scene file
+	private static final int PARAMETER_STRING = 10;
+	private static final int PARAMETER_BOOLEAN = 11;
+	private static final int PARAMETER_INT = 12;
+	private static final int PARAMETER_FLOAT = 13;
+	private static final int PARAMETER_COLOR = 14;
+	private static final int PARAMETER_POINT = 15;
+	private static final int PARAMETER_VECTOR = 16;
+	private static final int PARAMETER_MATRIX = 17;
+	private static final int PARAMETER_INTS = 18;
+	private static final int PARAMETER_STRINGS = 19;
+	private static final int PARAMETER_ARRAY = 20;
+	// a setting of the code using the recorder, not a sunflow call
+	private static final int SETTING = 21;
+
+	private static final int MAGIC = 'S' | 'F' << 8 | 'S' << 16 | 'C' << 24;
+	private static final int VERSION = 1;
+	// buffer for small values, arrays larger than this are written straight to the file
+	private static final int BUFFER_BYTES = 1 << 20;
+
+	private SunflowAPI sunflow;
+	// hash of the parameter value being set
+	private ContentHash hash = new ContentHash();
+	private String parameterName;
+	// parameter hashes waiting for the next declaration, and the declarations in the scene
+	private HashMap<String, Long> parameters = new HashMap<String, Long>();
+	private HashMap<String, Declaration> declarations = new HashMap<String, Declaration>();
+	// texture file (with size and modification time) to the hash of its contents
+	private HashMap<String, Long> textureHashes = new HashMap<String, Long>();
+
+	private FileOutputStream recording;
+	private FileChannel recordingChannel;
+	private ByteBuffer out;
+	private SceneExporter exporter;
+
+	/**
+	 * an object or option set in the scene, with the hashes of its parameters by name
+	 */
+	private static class Declaration {
+		int type;
+		String kind;
+		HashMap<String, Long> parameters = new HashMap<String, Long>();
+	}
+
+	public SceneRecorder(SunflowAPI sunflow) {
+		this.sunflow = sunflow;
+	}
+
+	public SunflowAPI getAPI() {
+		return sunflow;
+	}
+
+	/**
+	 * @return hash of the objects and options in the scene now
+	 */
+	public long getHash() {
+		endParameter();
+		// summed, so the order of the declarations does not matter
+		long sceneHash = 0;
+		ContentHash declarationHash = new ContentHash();
+		for(Map.Entry<String, Declaration> entry : declarations.entrySet()) {
+			Declaration declaration = entry.getValue();
+			long parameterHash = 0;
+			for(Long value : declaration.parameters.values()) parameterHash += value.longValue();
+			sceneHash += declarationHash.reset().add(entry.getKey()).add(declaration.type).add(declaration.kind).add(parameterHash).get();
+		}
+		return sceneHash;
+	}
+
+	/**
+	 * starts the hash of a parameter value, which is kept when the next call begins
+	 */
+	private ContentHash value(String name) {
+		endParameter();
+		parameterName = name;
+		return hash.reset().add(PARAMETER).add(name);
+	}
+
+	private void endParameter() {
+		if(parameterName == null) return;
+		parameters.put(parameterName, hash.get());
+		parameterName = null;
+	}
+
+	/**
+	 * declares or updates an object with the parameters set since the last declaration
+	 */
+	private void declare(int type, String name, String kind) {
+		endParameter();
+		Declaration declaration = declarations.get(name);
+		if(declaration == null || declaration.type != type || (kind != null && !kind.equals(declaration.kind))) {
+			declaration = new Declaration();
+			declaration.type = type;
+			declaration.kind = kind;
+			declarations.put(name, declaration);
+		}
+		declaration.parameters.putAll(parameters);
+		parameters.clear();
+	}
+
+	/**
+	 * hash of the contents of a texture file. a file is only read again if its size or
+	 * modification time changed
+	 * @param fileName texture file
+	 * @return hash, 0 if the file can not be read
+	 */
+	private long textureHash(String fileName) {
+		if(fileName == null) return 0;
+		File file = new File(fileName);
+		String key = file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified();
+		Long known = textureHashes.get(key);
+		if(known != null) return known;
+		long textureHash = 0;
+		try {
+			FileInputStream in = new FileInputStream(file);
+			try {
+				ContentHash contents = new ContentHash();
+				byte[] buffer = new byte[65536];
+				int count;
+				while((count = in.read(buffer)) > 0) contents.add(buffer, 0, count);
+				textureHash = contents.get();
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			// sunflow reports the missing texture
+			return 0;
+		}
+		textureHashes.put(key, textureHash);
+		return textureHash;
+	}
+
+	/* ---------------------------------------------------------------------------------------------
+	 * PARAMETERS
+	 */
+	public void parameter(String name, String value) {
+		value(name).add(value);
+		// a changed texture file changes the image as well
+		if(name.equals("texture") || name.endsWith(".texture")) hash.add(textureHash(value));
+		if(recording != null) record(PARAMETER_STRING, name).writeString(value);
+		if(exporter != null) exporter.parameter(name, value);
+		sunflow.parameter(name, value);
+	}
+
+	public void parameter(String name, boolean value) {
+		value(name).add(value);
+		if(recording != null) record(PARAMETER_BOOLEAN, name).writeInt(value ? 1 : 0);
+		if(exporter != null) exporter.parameter(name, value);
+		sunflow.parameter(name, value);
+	}
+
+	public void parameter(String name, int value) {
+		// the number of threads does not change the image
+		if(!name.equals("threads")) value(name).add(value);
+		if(recording != null) record(PARAMETER_INT, name).writeInt(value);
+		if(exporter != null) exporter.parameter(name, value);
+		sunflow.parameter(name, value);
+	}
+
+	public void parameter(String name, float value) {
+		value(name).add(value);
+		if(recording != null) record(PARAMETER_FLOAT, name).writeFloat(value);
+		if(exporter != null) exporter.parameter(name, value);
+		sunflow.parameter(name, value);
+	}
+
+	public void parameter(String name, String colorSpace, float... data) {
+		value(name).add(colorSpace).add(data);
+		if(recording != null) record(PARAMETER_COLOR, name).writeString(colorSpace).writeFloats(data);
+		if(exporter != null) exporter.parameter(name, colorSpace, data);
+		sunflow.parameter(name, colorSpace, data);
+	}
+
+	public void parameter(String name, Point3 value) {
+		value(name).add(value);
+		if(recording != null) record(PARAMETER_POINT, name).writeFloat(value.x).writeFloat(value.y).writeFloat(value.z);
+		if(exporter != null) exporter.parameter(name, value);
+		sunflow.parameter(name, value);
+	}
+
+	public void parameter(String name, Vector3 value) {
+		value(name).add(value);
+		if(recording != null) record(PARAMETER_VECTOR, name).writeFloat(value.x).writeFloat(value.y).writeFloat(value.z);
+		if(exporter != null) exporter.parameter(name, value);
+		sunflow.parameter(name, value);
+	}
+
+	public void parameter(String name, Matrix4 value) {
+		float[] rowMajor = value == null ? null : value.asRowMajor();
+		value(name).add(rowMajor);
+		if(recording != null) record(PARAMETER_MATRIX, name).writeFloats(rowMajor);
+		if(exporter != null) exporter.parameter(name, rowMajor);
+		sunflow.parameter(name, value);
+	}
+
+	public void parameter(String name, int[] value) {
+		value(name).add(value);
+		if(recording != null) record(PARAMETER_INTS, name).writeInts(value);
+		if(exporter != null) exporter.parameter(name, value);
+		sunflow.parameter(name, value);
+	}
+
+	public void parameter(String name, String[] value) {
+		value(name).add(value == null ? -1 : value.length);
+		if(value != null) for(int i=0;i<value.length;i++) hash.add(value[i]);
+		if(recording != null) {
+			record(PARAMETER_STRINGS, name).writeInt(value == null ? -1 : value.length);
+			if(value != null) for(int i=0;i<value.length;i++) writeString(value[i]);
+		}
+		if(exporter != null) exporter.parameter(name, value);
+		sunflow.parameter(name, value);
+	}
+
+	public void parameter(String name, String type, String interpolation, float[] data) {
+		value(name).add(type).add(interpolation).add(data);
+		if(recording != null) record(PARAMETER_ARRAY, name).writeString(type).writeString(interpolation).writeFloats(data);
+		if(exporter != null) exporter.parameter(name, type, interpolation, data);
+		sunflow.parameter(name, type, interpolation, data);
+	}
+
+	/* ---------------------------------------------------------------------------------------------
+	 * SCENE
+	 */
+	public void shader(String name, String type) {
+		declare(SHADER, name, type);
+		if(recording != null) record(SHADER, name).writeString(type);
+		if(exporter != null) export(SHADER, name, type);
+		sunflow.shader(name, type);
+	}
+
+	public void modifier(String name, String type) {
+		declare(MODIFIER, name, type);
+		if(recording != null) record(MODIFIER, name).writeString(type);
+		if(exporter != null) export(MODIFIER, name, type);
+		sunflow.modifier(name, type);
+	}
+
+	public void geometry(String name, String type) {
+		declare(GEOMETRY, name, type);
+		if(recording != null) record(GEOMETRY, name).writeString(type);
+		if(exporter != null) export(GEOMETRY, name, type);
+		sunflow.geometry(name, type);
+	}
+
+	public void instance(String name, String geometry) {
+		declare(INSTANCE, name, geometry);
+		if(recording != null) record(INSTANCE, name).writeString(geometry);
+		if(exporter != null) export(INSTANCE, name, geometry);
+		sunflow.instance(name, geometry);
+	}
+
+	public void light(String name, String type) {
+		declare(LIGHT, name, type);
+		if(recording != null) record(LIGHT, name).writeString(type);
+		if(exporter != null) export(LIGHT, name, type);
+		sunflow.light(name, type);
+	}
+
+	public void camera(String name, String type) {
+		declare(CAMERA, name, type);
+		if(recording != null) record(CAMERA, name).writeString(type);
+		if(exporter != null) export(CAMERA, name, type);
+		sunflow.camera(name, type);
+	}
+
+	public void options(String name) {
+		declare(OPTIONS, name, null);
+		if(recording != null) record(OPTIONS, name);
+		if(exporter != null) export(OPTIONS, name, null);
+		sunflow.options(name);
+	}
+
+	public void remove(String name) {
+		endParameter();
+		declarations.remove(name);
+		if(recording != null) record(REMOVE, name);
+		if(exporter != null) export(REMOVE, name, null);
+		sunflow.remove(name);
+	}
+
+	public void render(String options, Display display) {
+		sunflow.render(options, display);
+	}
+
+	/* ---------------------------------------------------------------------------------------------
+	 * LOOKUP
+	 */
+	public Object lookupGeometry(String name) {
+		return sunflow.lookupGeometry(name);
+	}
+
+	public Object lookupShader(String name) {
+		return sunflow.lookupShader(name);
+	}
+
+	public Object lookupModifier(String name) {
+		return sunflow.lookupModifier(name);
+	}
+
+	public Object lookupCamera(String name) {
+		return sunflow.lookupCamera(name);
+	}
+
+	/* ---------------------------------------------------------------------------------------------
+	 * SCENE FILE
+	 */
+	/**
+	 * records all following calls into a scene file
+	 * @param fileName scene file, it is replaced if it exists
+	 */
+	public void startRecording(String fileName) {
+		stopRecording();
+		try {
+			recording = new FileOutputStream(fileName);
+		} catch (IOException e) {
+			throw new RuntimeException("writing " + fileName + " failed", e);
+		}
+		recordingChannel = recording.getChannel();
+		out = ByteBuffer.allocate(BUFFER_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+		writeInt(MAGIC).writeInt(VERSION);
+	}
+
+	/**
+	 * ends the recording and closes the scene file
+	 */
+	public void stopRecording() {
+		if(recording == null) return;
+		try {
+			flush();
+			recording.close();
+		} catch (IOException e) {
+			throw new RuntimeException("writing scene file failed", e);
+		} finally {
+			recording = null;
+			recordingChannel = null;
+			out = null;
+		}
+	}
+
+	public boolean isRecording() {
+		return recording != null;
+	}
+
+	/**
+	 * records a value of the code using the recorder, like the resolution. load() returns it
+	 * @param name name of the setting
+	 * @param value value
+	 */
+	public void setting(String name, String value) {
+		if(recording != null) record(SETTING, name).writeString(value);
+	}
+
+	private SceneRecorder record(int type, String name) {
+		return writeInt(type).writeString(name);
+	}
+
+	private SceneRecorder writeInt(int value) {
+		if(out.remaining() < 4) flush();
+		out.putInt(value);
+		return this;
+	}
+
+	private SceneRecorder writeFloat(float value) {
+		if(out.remaining() < 4) flush();
+		out.putFloat(value);
+		return this;
+	}
+
+	private SceneRecorder writeString(String value) {
+		if(value == null) return writeInt(-1);
+		byte[] bytes;
+		try {
+			bytes = value.getBytes("UTF-8");
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+		writeInt(bytes.length);
+		int padded = (bytes.length + 3) & ~3;
+		if(out.remaining() < padded) flush();
+		if(padded > out.capacity()) {
+			write(ByteBuffer.wrap(bytes));
+			write(ByteBuffer.allocate(padded - bytes.length));
+		} else {
+			out.put(bytes);
+			for(int i=bytes.length;i<padded;i++) out.put((byte)0);
+		}
+		return this;
+	}
+
+	private SceneRecorder writeFloats(float[] values) {
+		if(values == null) return writeInt(-1);
+		writeInt(values.length);
+		for(int i=0;i<values.length;) {
+			if(out.remaining() < 4) flush();
+			int count = Math.min(values.length - i, out.remaining() / 4);
+			out.asFloatBuffer().put(values, i, count);
+			out.position(out.position() + count * 4);
+			i += count;
+		}
+		return this;
+	}
+
+	private SceneRecorder writeInts(int[] values) {
+		if(values == null) return writeInt(-1);
+		writeInt(values.length);
+		for(int i=0;i<values.length;) {
+			if(out.remaining() < 4) flush();
+			int count = Math.min(values.length - i, out.remaining() / 4);
+			out.asIntBuffer().put(values, i, count);
+			out.position(out.position() + count * 4);
+			i += count;
+		}
+		return this;
+	}
+
+	private void flush() {
+		out.flip();
+		write(out);
+		out.clear();
+	}
+
+	private void write(ByteBuffer buffer) {
+		try {
+			while(buffer.hasRemaining()) recordingChannel.write(buffer);
+		} catch (IOException e) {
+			throw new RuntimeException("writing scene file failed", e);
+		}
+	}
+
+	/**
+	 * writes all following calls into a sunflow .sc file
+	 * @param fileName .sc file, it is replaced if it exists
+	 */
+	public void startExport(String fileName) {
+		stopExport();
+		try {
+			exporter = new SceneExporter(fileName);
+		} catch (IOException e) {
+			throw new RuntimeException("writing " + fileName + " failed", e);
+		}
+	}
+
+	/**
+	 * ends the export started with startExport() and closes the .sc file
+	 * @return number of calls which could not be written as .sc
+	 */
+	public int stopExport() {
+		if(exporter == null) return 0;
+		SceneExporter closing = exporter;
+		exporter = null;
+		try {
+			closing.close();
+		} catch (IOException e) {
+			throw new RuntimeException("writing .sc file failed", e);
+		}
+		return closing.getSkippedCalls();
+	}
+
+	public boolean isExporting() {
+		return exporter != null;
+	}
+
+	private void export(int type, String name, String value) {
+		try {
+			switch(type) {
+			case SHADER: exporter.shader(name, value); break;
+			case MODIFIER: exporter.modifier(name, value); break;
+			case GEOMETRY: exporter.geometry(name, value); break;
+			case INSTANCE: exporter.instance(name, value); break;
+			case LIGHT: exporter.light(name, value); break;
+			case CAMERA: exporter.camera(name, value); break;
+			case OPTIONS: exporter.options(name); break;
+			case REMOVE: exporter.remove(name); break;
+			}
+		} catch (IOException e) {
+			throw new RuntimeException("writing .sc file failed", e);
+		}
+	}
+
+	/**
+	 * makes all calls of a scene file again. the file is memory mapped and arrays are
+	 * copied straight out of it. the calls are part of the hash and of a running recording
+	 * @param fileName scene file
+	 * @return the settings in the file
+	 * @throws IOException if the file can not be read or is no scene file
+	 */
+	public HashMap<String, String> load(String fileName) throws IOException {
+		MappedByteBuffer in;
+		RandomAccessFile file = new RandomAccessFile(fileName, "r");
+		try {
+			long size = file.length();
+			if(size > Integer.MAX_VALUE) throw new IOException(fileName + " is larger than 2GB");
+			in = file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+		} finally {
+			file.close();
+		}
+		in.order(ByteOrder.LITTLE_ENDIAN);
+		if(in.remaining() < 8 || in.getInt() != MAGIC) throw new IOException(fileName + " is no scene file");
+		if(in.getInt() != VERSION) throw new IOException(fileName + " has an unknown version");
+
+		HashMap<String, String> settings = new HashMap<String, String>();
+		while(in.hasRemaining()) {
+			int type = in.getInt();
+			String name = readString(in);
+			switch(type) {
+			case PARAMETER_STRING: parameter(name, readString(in)); break;
+			case PARAMETER_BOOLEAN: parameter(name, in.getInt() != 0); break;
+			case PARAMETER_INT: parameter(name, in.getInt()); break;
+			case PARAMETER_FLOAT: parameter(name, in.getFloat()); break;
+			case PARAMETER_COLOR: parameter(name, readString(in), readFloats(in)); break;
+			case PARAMETER_POINT: parameter(name, new Point3(in.getFloat(), in.getFloat(), in.getFloat())); break;
+			case PARAMETER_VECTOR: parameter(name, new Vector3(in.getFloat(), in.getFloat(), in.getFloat())); break;
+			case PARAMETER_MATRIX:
+				float[] rowMajor = readFloats(in);
+				parameter(name, rowMajor == null ? null : new Matrix4(rowMajor, true));
+				break;
+			case PARAMETER_INTS: parameter(name, readInts(in)); break;
+			case PARAMETER_STRINGS:
+				int count = in.getInt();
+				String[] strings = count < 0 ? null : new String[count];
+				for(int i=0;i<count;i++) strings[i] = readString(in);
+				parameter(name, strings);
+				break;
+			case PARAMETER_ARRAY: parameter(name, readString(in), readString(in), readFloats(in)); break;
+			case SHADER: shader(name, readString(in)); break;
+			case MODIFIER: modifier(name, readString(in)); break;
+			case GEOMETRY: geometry(name, readString(in)); break;
+			case INSTANCE: instance(name, readString(in)); break;
+			case LIGHT: light(name, readString(in)); break;
+			case CAMERA: camera(name, readString(in)); break;
+			case OPTIONS: options(name); break;
+			case REMOVE: remove(name); break;
+			case SETTING: settings.put(name, readString(in)); break;
+			default: throw new IOException(fileName + " is damaged");
+			}
+		}
+		return settings;
+	}
+
+	private static String readString(ByteBuffer in) throws IOException {
+		int length = in.getInt();
+		if(length < 0) return null;
+		byte[] bytes = new byte[length];
+		in.get(bytes);
+		in.position(in.position() + (((length + 3) & ~3) - length));
+		return new String(bytes, "UTF-8");
+	}
+
+	private static float[] readFloats(ByteBuffer in) {
+		int length = in.getInt();
+		if(length < 0) return null;
+		float[] values = new float[length];
+		in.asFloatBuffer().get(values);
+		in.position(in.position() + length * 4);
+		return values;
+	}
+
+	private static int[] readInts(ByteBuffer in) {
+		int length = in.getInt();
+		if(length < 0) return null;
+		int[] values = new int[length];
+		in.asIntBuffer().get(values);
+		in.position(in.position() + length * 4);
+		return values;
+	}
+}
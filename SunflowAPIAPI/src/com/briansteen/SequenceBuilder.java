@@ -0,0 +1,23 @@
+package com.briansteen;
+
+/**
+ * Builds the scenes for SunflowAPIAPI.renderSequence(..).
+ * Every worker of a sequence has its own SunflowAPIAPI: setup() is called once for each
+ * of them, frame() before every frame the worker renders. Workers render frames out of
+ * order and at the same time, so frame() has to set everything that changes over the
+ * sequence and must not depend on the frame rendered before.
+ */
+public interface SequenceBuilder {
+	/**
+	 * builds what all frames share, like lights, shaders and static geometry
+	 * @param sunflow scene of one worker
+	 */
+	void setup(SunflowAPIAPI sunflow);
+
+	/**
+	 * changes the scene for one frame, like the camera or moving objects
+	 * @param sunflow scene of one worker
+	 * @param frame frame number, starting at 0
+	 */
+	void frame(SunflowAPIAPI sunflow, int frame);
+}
@@ -1,6 +1,23 @@
 package com.briansteen;
 
 import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.imageio.ImageIO;
 
 import org.sunflow.SunflowAPI;
 import org.sunflow.core.Display;
@@ -19,10 +36,19 @@ public class SunflowAPIAPI {
 	private String cameraType;
 	private String modifierType;
 	
-	private SunflowAPI sunflow;
+	// every scene call goes through the recorder, which keeps a hash of the scene
+	private SceneRecorder sunflow;
+	// reused for every transformed primitive
+	private TransformBuilder transform = new TransformBuilder();
 
 	private Display windowDisplay;
-	private FileDisplay fileDisplay;
+	private Display fileDisplay;
+	private RenderCache renderCache;
+	// holds the point lights until rendering, null to set them right away
+	private LightManager lightManager;
+	private List<LightManager.Light> submittedLights = new ArrayList<LightManager.Light>();
+	// largest error of simplified meshes in pixels, 0 for no simplification
+	private float levelOfDetail = 0;
 
 	public final String SHADER_AMBIENT_OCCLUSION = "ambient_occlusion";
 	public final String SHADER_TEXTURED_AMBIENT_OCCLUSION = "textured_ambient_occlusion";
@@ -109,8 +135,11 @@ public class SunflowAPIAPI {
 	
 	private int width = 640;
 	private int height = 480;
+	private int threads = 0;
+	private static final int CHECKPOINT_BUCKET_SIZE = 32;
+	public static final int PARTICLE_CHUNK_SIZE = 1 << 16;
 	public SunflowAPIAPI() {
-		sunflow = new SunflowAPI();
+		sunflow = new SceneRecorder(new SunflowAPI());
 		
 		// set default values
 		
@@ -183,6 +212,10 @@ public class SunflowAPIAPI {
 	 * @param color light color
 	 */
 	public void setPointLight(String name, Point3 center, Color color) {
+		if(lightManager != null) {
+			lightManager.add(name, center.x, center.y, center.z, colorSpace, color.getRed()/(float)255, color.getGreen()/(float)255, color.getBlue()/(float)255);
+			return;
+		}
 		sunflow.parameter("center", center);
 		sunflow.parameter("power", colorSpace, color.getRed()/(float)255, color.getGreen()/(float)255, color.getBlue()/(float)255);
 		sunflow.light( name, this.LIGHT_POINT );
@@ -254,6 +287,34 @@ public class SunflowAPIAPI {
 		sunflow.light( name, this.LIGHT_MESH);
 	}
 	
+	/**
+	 * keeps the following point lights in a light manager, which clusters and leaves out
+	 * lights each time the scene is rendered (see LightManager). lights are measured from the
+	 * camera target, in a radius of the camera distance, unless the manager has a region
+	 * @param lightManager light manager, null to set point lights right away
+	 */
+	public void setLightManager(LightManager lightManager) {
+		this.lightManager = lightManager;
+	}
+	/**
+	 * gives sunflow the lights of the light manager, lights of the last time which
+	 * are not used anymore are removed
+	 */
+	private void submitLights() {
+		if(lightManager == null) return;
+		float dx = eye.x - target.x, dy = eye.y - target.y, dz = eye.z - target.z;
+		List<LightManager.Light> lights = lightManager.cluster(target.x, target.y, target.z, (float)Math.sqrt(dx * dx + dy * dy + dz * dz));
+		// unchanged lights are not sent again
+		if(lights.equals(submittedLights)) return;
+		for(LightManager.Light light : submittedLights) sunflow.remove(light.name);
+		for(LightManager.Light light : lights) {
+			sunflow.parameter("center", new Point3(light.x, light.y, light.z));
+			sunflow.parameter("power", light.colorSpace, light.r, light.g, light.b);
+			sunflow.light(light.name, this.LIGHT_POINT);
+		}
+		submittedLights = lights;
+	}
+
 	/*
 	 * END OF LIGHTS
 	 * --------------------------------------------------------------------------------------
@@ -580,6 +641,21 @@ public class SunflowAPIAPI {
 		sunflow.shader(currShader, SHADER_WIREFRAME);
 	}
 
+	/**
+	 * uses a shader set before for the following primitives
+	 * @param name Individual Name of the shader
+	 */
+	public void setShader(String name) {
+		currShader = name;
+	}
+
+	/**
+	 * @return name of the shader used for the following primitives
+	 */
+	public String getShader() {
+		return currShader;
+	}
+
 	/*
 	 * END OF SHADER
 	 * --------------------------------------------------------------------------------------
@@ -620,6 +696,10 @@ public class SunflowAPIAPI {
 	 * @param triangles int array connecting the vertices (like [0,1,2])
 	 */
 	public void drawMesh(String name, float[] vertices, int[] triangles) {
+		if(levelOfDetail > 0) {
+			drawMesh(name, new MeshData(vertices, triangles));
+			return;
+		}
 		sunflow.parameter("points", "point", "vertex", vertices); 
 		sunflow.parameter("triangles", triangles);
 
@@ -640,15 +720,7 @@ public class SunflowAPIAPI {
 	 * @param zRotation z rotation
 	 */
 	public void drawMesh(String name, float[] vertices, int[] triangles, float size, float xRotation, float yRotation, float zRotation) {
-		Matrix4 scale = Matrix4.IDENTITY.multiply( Matrix4.scale(size, size, size) );
-		Matrix4 rotate = Matrix4.IDENTITY 
-		.multiply( Matrix4.rotateZ(zRotation) ) 
-		.multiply( Matrix4.rotateX(xRotation) ) 
-		.multiply( Matrix4.rotateY(yRotation) );
-
-		Matrix4 m = Matrix4.IDENTITY;
-		m = scale.multiply(m);
-		m = rotate.multiply(m); 
+		Matrix4 m = transform.set(size, size, size, xRotation, yRotation, zRotation, 0, 0, 0).toMatrix4();
 
 		sunflow.parameter("points", "point", "vertex", vertices); 
 		sunflow.parameter("triangles", triangles);
@@ -660,6 +732,76 @@ public class SunflowAPIAPI {
 		sunflow.instance( name + ".instance", name );
 	}
 	
+	/**
+	 * draws a mesh with its normals and uvs, if it has any
+	 * @param name individual name of primitive
+	 * @param mesh mesh, for example from MeshImporter
+	 */
+	public void drawMesh(String name, MeshData mesh) {
+		mesh = levelOfDetail(mesh);
+		sunflow.parameter("points", "point", "vertex", mesh.getVertices());
+		sunflow.parameter("triangles", mesh.getTriangles());
+		if(mesh.getNormals() != null) sunflow.parameter("normals", "vector", mesh.getNormalsInterpolation(), mesh.getNormals());
+		if(mesh.getUVs() != null) sunflow.parameter("uvs", "texcoord", mesh.getUVsInterpolation(), mesh.getUVs());
+
+		sunflow.geometry( name, "triangle_mesh" );
+		sunflow.parameter( "shaders", currShader);
+		if(isModifiers) sunflow.parameter("modifiers", currModifier);
+		sunflow.instance( name + ".instance", name );
+	}
+
+	/**
+	 * draws a mesh simplified to a number of triangles
+	 * @param name individual name of primitive
+	 * @param mesh mesh, for example from MeshImporter
+	 * @param triangles number of triangles to keep
+	 */
+	public void drawMesh(String name, MeshData mesh, int triangles) {
+		drawMesh(name, MeshSimplifier.simplify(mesh, triangles, Float.MAX_VALUE));
+	}
+
+	/**
+	 * simplifies a mesh by setLevelOfDetail(), the error at the point of its bounding sphere
+	 * closest to the camera stays below the pixel error
+	 */
+	private MeshData levelOfDetail(MeshData mesh) {
+		if(levelOfDetail <= 0 || mesh.getVertexCount() == 0) return mesh;
+		if(cameraType != CAMERA_PINHOLE && cameraType != CAMERA_THINLENS) return mesh;
+		float[] vertices = mesh.getVertices();
+		float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, minZ = Float.MAX_VALUE;
+		float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE, maxZ = -Float.MAX_VALUE;
+		for(int i=0;i<vertices.length;i+=3) {
+			minX = Math.min(minX, vertices[i]); maxX = Math.max(maxX, vertices[i]);
+			minY = Math.min(minY, vertices[i + 1]); maxY = Math.max(maxY, vertices[i + 1]);
+			minZ = Math.min(minZ, vertices[i + 2]); maxZ = Math.max(maxZ, vertices[i + 2]);
+		}
+		float dx = (minX + maxX) * 0.5f - eye.x, dy = (minY + maxY) * 0.5f - eye.y, dz = (minZ + maxZ) * 0.5f - eye.z;
+		float sx = maxX - minX, sy = maxY - minY, sz = maxZ - minZ;
+		float distance = (float)Math.sqrt(dx * dx + dy * dy + dz * dz) - 0.5f * (float)Math.sqrt(sx * sx + sy * sy + sz * sz);
+		// the camera is inside the mesh
+		if(distance <= 0) return mesh;
+		// sunflow's fov is horizontal
+		float pixelSize = 2 * distance * (float)Math.tan(Math.toRadians(fov * 0.5)) / width;
+		return MeshSimplifier.simplify(mesh, 0, levelOfDetail * pixelSize);
+	}
+
+	/**
+	 * draws a mesh from an OBJ or binary PLY file (see MeshImporter)
+	 * @param name individual name of primitive
+	 * @param fileName mesh file
+	 * @return the mesh, to draw it again without loading it
+	 */
+	public MeshData drawMesh(String name, String fileName) {
+		MeshData mesh;
+		try {
+			mesh = MeshImporter.load(fileName);
+		} catch (IOException e) {
+			throw new RuntimeException("loading " + fileName + " failed", e);
+		}
+		drawMesh(name, mesh);
+		return mesh;
+	}
+
 	/**
 	 * draws a bezier patch
 	 * @param name individual name of primitive
@@ -707,12 +849,7 @@ public class SunflowAPIAPI {
 	 * @param size size
 	 */
 	public void drawSphere(String name, float x, float y, float z, float size) {
-		Matrix4 translate = Matrix4.IDENTITY.multiply( Matrix4.translation(x, y, z ));
-		Matrix4 scale = Matrix4.IDENTITY.multiply( Matrix4.scale(size, size, size) );
-
-		Matrix4 m = Matrix4.IDENTITY;
-		m = scale.multiply(m);
-		m = translate.multiply(m);
+		Matrix4 m = transform.identity().scale(size, size, size).translate(x, y, z).toMatrix4();
 
 		sunflow.geometry( name, "sphere" );
 		sunflow.parameter( "shaders", currShader);
@@ -740,12 +877,7 @@ public class SunflowAPIAPI {
 	 * @param size size
 	 */
 	public void drawBox(String name, float x, float y, float z, float size) {
-		Matrix4 translate = Matrix4.IDENTITY.multiply( Matrix4.translation(x, y, z ));
-		Matrix4 scale = Matrix4.IDENTITY.multiply( Matrix4.scale(size, size, size) );
-
-		Matrix4 m = Matrix4.IDENTITY;
-		m = scale.multiply(m);
-		m = translate.multiply(m);
+		Matrix4 m = transform.identity().scale(size, size, size).translate(x, y, z).toMatrix4();
 
 		sunflow.geometry( name, "box" );
 		sunflow.parameter( "shaders", currShader);
@@ -767,17 +899,7 @@ public class SunflowAPIAPI {
 	 * @param zRotation z rotation
 	 */
 	public void drawBox(String name, float size, float x, float y, float z, float xRotation, float yRotation, float zRotation) {
-		Matrix4 translate = Matrix4.IDENTITY.multiply( Matrix4.translation(x, y, z ));
-		Matrix4 scale = Matrix4.IDENTITY.multiply( Matrix4.scale(size, size, size) );
-		Matrix4 rotate = Matrix4.IDENTITY 
-		.multiply( Matrix4.rotateZ(zRotation) ) 
-		.multiply( Matrix4.rotateX(xRotation) ) 
-		.multiply( Matrix4.rotateY(yRotation) );
-
-		Matrix4 m = Matrix4.IDENTITY;
-		m = scale.multiply(m);
-		m = rotate.multiply(m); 
-		m = translate.multiply(m);
+		Matrix4 m = transform.set(size, size, size, xRotation, yRotation, zRotation, x, y, z).toMatrix4();
 
 		sunflow.geometry( name, "box" );
 		sunflow.parameter( "shaders", currShader);
@@ -801,17 +923,7 @@ public class SunflowAPIAPI {
 	 * @param zRotation z rotation
 	 */
 	public void drawBox(String name, float xSize, float ySize, float zSize, float x, float y, float z, float xRotation, float yRotation, float zRotation) {
-		Matrix4 translate = Matrix4.IDENTITY.multiply( Matrix4.translation(x, y, z ));
-		Matrix4 scale = Matrix4.IDENTITY.multiply( Matrix4.scale(xSize, ySize, zSize) );
-		Matrix4 rotate = Matrix4.IDENTITY 
-		.multiply( Matrix4.rotateZ(zRotation) ) 
-		.multiply( Matrix4.rotateX(xRotation) ) 
-		.multiply( Matrix4.rotateY(yRotation) );
-
-		Matrix4 m = Matrix4.IDENTITY;
-		m = scale.multiply(m);
-		m = rotate.multiply(m); 
-		m = translate.multiply(m);
+		Matrix4 m = transform.set(xSize, ySize, zSize, xRotation, yRotation, zRotation, x, y, z).toMatrix4();
 
 		sunflow.geometry( name, "box" );
 		sunflow.parameter( "shaders", currShader);
@@ -839,12 +951,7 @@ public class SunflowAPIAPI {
 	 * @param size size
 	 */
 	public void drawCylinder(String name, float x, float y, float z, float size) {
-		Matrix4 translate = Matrix4.IDENTITY.multiply( Matrix4.translation(x, y, z ));
-		Matrix4 scale = Matrix4.IDENTITY.multiply( Matrix4.scale(size, size, size) );
-
-		Matrix4 m = Matrix4.IDENTITY;
-		m = scale.multiply(m);
-		m = translate.multiply(m);
+		Matrix4 m = transform.identity().scale(size, size, size).translate(x, y, z).toMatrix4();
 
 		sunflow.geometry( name, "cylinder" );
 		sunflow.parameter( "shaders", currShader);
@@ -865,17 +972,7 @@ public class SunflowAPIAPI {
 	 * @param zRotation z rotation
 	 */
 	public void drawCylinder(String name, float x, float y, float z, float size, float xRotation, float yRotation, float zRotation) {
-		Matrix4 translate = Matrix4.IDENTITY.multiply( Matrix4.translation(x, y, z ));
-		Matrix4 scale = Matrix4.IDENTITY.multiply( Matrix4.scale(size, size, size) );
-		Matrix4 rotate = Matrix4.IDENTITY 
-		.multiply( Matrix4.rotateZ(zRotation) ) 
-		.multiply( Matrix4.rotateX(xRotation) ) 
-		.multiply( Matrix4.rotateY(yRotation) );
-
-		Matrix4 m = Matrix4.IDENTITY;
-		m = scale.multiply(m);
-		m = rotate.multiply(m); 
-		m = translate.multiply(m);
+		Matrix4 m = transform.set(size, size, size, xRotation, yRotation, zRotation, x, y, z).toMatrix4();
 
 		sunflow.geometry( name, "cylinder" );
 		sunflow.parameter( "shaders", currShader);
@@ -899,17 +996,7 @@ public class SunflowAPIAPI {
 	 * @param zRotation z rotation
 	 */
 	public void drawCylinder(String name, float xSize, float ySize, float zSize, float x, float y, float z, float xRotation, float yRotation, float zRotation) {
-		Matrix4 translate = Matrix4.IDENTITY.multiply( Matrix4.translation(x, y, z ));
-		Matrix4 scale = Matrix4.IDENTITY.multiply( Matrix4.scale(xSize, ySize, zSize) );
-		Matrix4 rotate = Matrix4.IDENTITY 
-		.multiply( Matrix4.rotateZ(zRotation) ) 
-		.multiply( Matrix4.rotateX(xRotation) ) 
-		.multiply( Matrix4.rotateY(yRotation) );
-
-		Matrix4 m = Matrix4.IDENTITY;
-		m = scale.multiply(m);
-		m = rotate.multiply(m); 
-		m = translate.multiply(m);
+		Matrix4 m = transform.set(xSize, ySize, zSize, xRotation, yRotation, zRotation, x, y, z).toMatrix4();
 
 		sunflow.geometry( name, "cylinder" );
 		sunflow.parameter( "shaders", currShader);
@@ -937,12 +1024,7 @@ public class SunflowAPIAPI {
 	 * @param size size
 	 */
 	public void drawBanchoffSurface(String name, float x, float y, float z, float size) {
-		Matrix4 translate = Matrix4.IDENTITY.multiply( Matrix4.translation(x, y, z ));
-		Matrix4 scale = Matrix4.IDENTITY.multiply( Matrix4.scale(size, size, size) );
-
-		Matrix4 m = Matrix4.IDENTITY;
-		m = scale.multiply(m);
-		m = translate.multiply(m);
+		Matrix4 m = transform.identity().scale(size, size, size).translate(x, y, z).toMatrix4();
 
 		sunflow.geometry( name, "banchoff" );
 		sunflow.parameter( "shaders", currShader);
@@ -963,17 +1045,7 @@ public class SunflowAPIAPI {
 	 * @param zRotation z rotation
 	 */
 	public void drawBanchoffSurface(String name, float x, float y, float z, float size, float xRotation, float yRotation, float zRotation) {
-		Matrix4 translate = Matrix4.IDENTITY.multiply( Matrix4.translation(x, y, z ));
-		Matrix4 scale = Matrix4.IDENTITY.multiply( Matrix4.scale(size, size, size) );
-		Matrix4 rotate = Matrix4.IDENTITY 
-		.multiply( Matrix4.rotateZ(zRotation) ) 
-		.multiply( Matrix4.rotateX(xRotation) ) 
-		.multiply( Matrix4.rotateY(yRotation) );
-
-		Matrix4 m = Matrix4.IDENTITY;
-		m = scale.multiply(m);
-		m = rotate.multiply(m); 
-		m = translate.multiply(m);
+		Matrix4 m = transform.set(size, size, size, xRotation, yRotation, zRotation, x, y, z).toMatrix4();
 
 		sunflow.geometry( name, "banchoff" );
 		sunflow.parameter( "shaders", currShader);
@@ -1018,17 +1090,7 @@ public class SunflowAPIAPI {
 
 	public void drawJulia(String name, float x, float y, float z, float size, float xRotation, float yRotation, float zRotation, float[] q, int iterations, float epsilon) {
 
-		Matrix4 translate = Matrix4.IDENTITY.multiply( Matrix4.translation(x, y, z ));
-		Matrix4 scale = Matrix4.IDENTITY.multiply( Matrix4.scale(size, size, size) );
-		Matrix4 rotate = Matrix4.IDENTITY 
-		.multiply( Matrix4.rotateZ(zRotation) ) 
-		.multiply( Matrix4.rotateX(xRotation) ) 
-		.multiply( Matrix4.rotateY(yRotation) );
-
-		Matrix4 m = Matrix4.IDENTITY;
-		m = scale.multiply(m);
-		m = rotate.multiply(m); 
-		m = translate.multiply(m);
+		Matrix4 m = transform.set(size, size, size, xRotation, yRotation, zRotation, x, y, z).toMatrix4();
 
 		sunflow.parameter("iterations", iterations);
 		sunflow.parameter("epsilon", epsilon);
@@ -1085,17 +1147,7 @@ public class SunflowAPIAPI {
 
 	public void drawSphereFlake(String name, float x, float y, float z, float size, float xRotation, float yRotation, float zRotation,
 	int level, Vector3 axis, float radius) {
-		Matrix4 translate = Matrix4.IDENTITY.multiply( Matrix4.translation(x, y, z ));
-		Matrix4 scale = Matrix4.IDENTITY.multiply( Matrix4.scale(size, size, size) );
-		Matrix4 rotate = Matrix4.IDENTITY 
-		.multiply( Matrix4.rotateZ(zRotation) ) 
-		.multiply( Matrix4.rotateX(xRotation) ) 
-		.multiply( Matrix4.rotateY(yRotation) );
-
-		Matrix4 m = Matrix4.IDENTITY;
-		m = scale.multiply(m);
-		m = rotate.multiply(m); 
-		m = translate.multiply(m);
+		Matrix4 m = transform.set(size, size, size, xRotation, yRotation, zRotation, x, y, z).toMatrix4();
 
 		sunflow.parameter("level", level);
 		sunflow.parameter("axis", axis);
@@ -1124,11 +1176,11 @@ public class SunflowAPIAPI {
 	 * @param name Individual Name
 	 * @param segments ?
 	 * @param points start of hair ?
-	 * @param widths hairwidth ?
+	 * @param widths one width for all hair, or one per point
 	 */
 	public void drawHair(String name, int segments, float[] points, float[] widths) {
 		sunflow.parameter("segments", segments);
-		sunflow.parameter("widths", "float", "none", widths);
+		sunflow.parameter("widths", "float", widths.length == 1 ? "none" : "vertex", widths);
 		sunflow.parameter("points", "point", "vertex", points);
 
 		sunflow.geometry( name, "hair" );
@@ -1155,6 +1207,40 @@ public class SunflowAPIAPI {
 		if(isModifiers) sunflow.parameter("modifiers", currModifier);
 		sunflow.instance( name + ".instance", name );
 	}
+
+	/**
+	 * draw particles from a buffer, which can be a direct buffer filled outside the heap. the particles are
+	 * sorted along a Morton curve and drawn in chunks of PARTICLE_CHUNK_SIZE (see ParticleSorter), named
+	 * name.0, name.1, ... so every chunk gets a small box of its own
+	 * @param name Individual name
+	 * @param particles x, y, z per particle, from position to limit
+	 * @param radius radius of particles
+	 */
+	public void drawParticleSurface(String name, FloatBuffer particles, float radius) {
+		drawParticleSurface(name, particles, radius, PARTICLE_CHUNK_SIZE);
+	}
+	/**
+	 * draw particles from a buffer in chunks of chunkSize particles
+	 * @param name Individual name
+	 * @param particles x, y, z per particle, from position to limit
+	 * @param radius radius of particles
+	 * @param chunkSize particles per chunk
+	 */
+	public void drawParticleSurface(String name, FloatBuffer particles, float radius, int chunkSize) {
+		float[][] chunks = ParticleSorter.chunks(particles, chunkSize);
+		for(int i=0;i<chunks.length;i++) {
+			drawParticleSurface(name + "." + i, chunks[i], radius, chunks[i].length / 3);
+		}
+	}
+	/**
+	 * draw particles from a byte buffer, floats are read in the byte order of the buffer
+	 * @param name Individual name
+	 * @param particles x, y, z per particle as floats, from position to limit
+	 * @param radius radius of particles
+	 */
+	public void drawParticleSurface(String name, ByteBuffer particles, float radius) {
+		drawParticleSurface(name, particles.asFloatBuffer(), radius, PARTICLE_CHUNK_SIZE);
+	}
 	/**
 	 * Draw a plane
 	 * @param name Individual name
@@ -1177,6 +1263,196 @@ public class SunflowAPIAPI {
 	 */
 
 	/*
+	 * --------------------------------------------------------------------------------------
+	 * INSTANCING
+	 */
+
+	/**
+	 * defines a geometry once, so it can be placed many times with drawInstance
+	 * nothing is drawn until an instance of it is added
+	 * @param name Individual name of the prototype
+	 * @param type sunflow geometry type (like "box", "sphere", "cylinder")
+	 */
+	public void defineGeometry(String name, String type) {
+		sunflow.geometry( name, type );
+	}
+	/**
+	 * defines a box prototype for drawInstance
+	 * @param name Individual name of the prototype
+	 */
+	public void defineBox(String name) {
+		defineGeometry(name, "box");
+	}
+	/**
+	 * defines a sphere prototype for drawInstance
+	 * @param name Individual name of the prototype
+	 */
+	public void defineSphere(String name) {
+		defineGeometry(name, "sphere");
+	}
+	/**
+	 * defines a cylinder prototype for drawInstance
+	 * @param name Individual name of the prototype
+	 */
+	public void defineCylinder(String name) {
+		defineGeometry(name, "cylinder");
+	}
+	/**
+	 * defines a mesh prototype for drawInstance
+	 * @param name Individual name of the prototype
+	 * @param vertices Float array with coordinates (like [x0,y0,z0,x1,y1,z1,x2,y2,z2])
+	 * @param triangles int array connecting the vertices (like [0,1,2])
+	 */
+	public void defineMesh(String name, float[] vertices, int[] triangles) {
+		sunflow.parameter("points", "point", "vertex", vertices);
+		sunflow.parameter("triangles", triangles);
+		defineGeometry(name, "triangle_mesh");
+	}
+
+	/**
+	 * places an instance of a prototype using the current shader
+	 * @param name Individual name of the instance
+	 * @param prototype name of a geometry defined with one of the define methods
+	 */
+	public void drawInstance(String name, String prototype) {
+		sunflow.parameter( "shaders", currShader);
+		if(isModifiers) sunflow.parameter("modifiers", currModifier);
+		sunflow.instance( name + ".instance", prototype );
+	}
+	/**
+	 * places an instance of a prototype using the current shader
+	 * @param name Individual name of the instance
+	 * @param prototype name of a geometry defined with one of the define methods
+	 * @param x x position
+	 * @param y y position
+	 * @param z z position
+	 * @param size size
+	 */
+	public void drawInstance(String name, String prototype, float x, float y, float z, float size) {
+		Matrix4 m = transform.identity().scale(size, size, size).translate(x, y, z).toMatrix4();
+
+		drawInstance(name, prototype, m);
+	}
+	/**
+	 * places an instance of a prototype using the current shader
+	 * @param name Individual name of the instance
+	 * @param prototype name of a geometry defined with one of the define methods
+	 * @param xSize size on x axis
+	 * @param ySize size on y axis
+	 * @param zSize size on z axis
+	 * @param x x position
+	 * @param y y position
+	 * @param z z position
+	 * @param xRotation x rotation
+	 * @param yRotation y rotation
+	 * @param zRotation z rotation
+	 */
+	public void drawInstance(String name, String prototype, float xSize, float ySize, float zSize, float x, float y, float z, float xRotation, float yRotation, float zRotation) {
+		Matrix4 m = transform.set(xSize, ySize, zSize, xRotation, yRotation, zRotation, x, y, z).toMatrix4();
+
+		drawInstance(name, prototype, m);
+	}
+	/**
+	 * places an instance of a prototype using the current shader
+	 * @param name Individual name of the instance
+	 * @param prototype name of a geometry defined with one of the define methods
+	 * @param transform object to world transformation of this instance
+	 */
+	public void drawInstance(String name, String prototype, Matrix4 transform) {
+		sunflow.parameter( "shaders", currShader);
+		if(isModifiers) sunflow.parameter("modifiers", currModifier);
+		sunflow.parameter( "transform", transform );
+		sunflow.instance( name + ".instance", prototype );
+	}
+	/**
+	 * remove an instance placed with drawInstance. the prototype stays defined
+	 * @param name Individual name of the instance
+	 */
+	public void removeInstance(String name) {
+		sunflow.remove(name + ".instance");
+	}
+
+	/**
+	 * draws many boxes in one call. all boxes share one box geometry called name,
+	 * box i is placed as instance "name.i" with the current shader
+	 * @param name Individual name
+	 * @param positions x,y,z per box (like [x0,y0,z0,x1,y1,z1])
+	 * @param sizes null for size 1, one size per box or xSize,ySize,zSize per box
+	 * @param rotations null for no rotation or xRotation,yRotation,zRotation per box
+	 */
+	public void drawBoxes(String name, float[] positions, float[] sizes, float[] rotations) {
+		drawInstances(name, "box", positions, sizes, rotations);
+	}
+	/**
+	 * draws many spheres in one call. all spheres share one sphere geometry called name,
+	 * sphere i is placed as instance "name.i" with the current shader
+	 * @param name Individual name
+	 * @param positions x,y,z per sphere (like [x0,y0,z0,x1,y1,z1])
+	 * @param sizes null for size 1, one size per sphere or xSize,ySize,zSize per sphere
+	 */
+	public void drawSpheres(String name, float[] positions, float[] sizes) {
+		drawInstances(name, "sphere", positions, sizes, null);
+	}
+	/**
+	 * draws many cylinders in one call. all cylinders share one cylinder geometry called name,
+	 * cylinder i is placed as instance "name.i" with the current shader
+	 * @param name Individual name
+	 * @param positions x,y,z per cylinder (like [x0,y0,z0,x1,y1,z1])
+	 * @param sizes null for size 1, one size per cylinder or xSize,ySize,zSize per cylinder
+	 * @param rotations null for no rotation or xRotation,yRotation,zRotation per cylinder
+	 */
+	public void drawCylinders(String name, float[] positions, float[] sizes, float[] rotations) {
+		drawInstances(name, "cylinder", positions, sizes, rotations);
+	}
+
+	/**
+	 * defines one geometry and places an instance of it for every position
+	 */
+	private void drawInstances(String name, String type, float[] positions, float[] sizes, float[] rotations) {
+		if(positions.length % 3 != 0) throw new IllegalArgumentException("positions needs 3 values per object, " + positions.length + " values given");
+		int count = positions.length / 3;
+		if(sizes != null && sizes.length != count && sizes.length != count * 3) {
+			throw new IllegalArgumentException("sizes needs 1 or 3 values per object, " + sizes.length + " values for " + count + " objects");
+		}
+		boolean uniformSize = sizes != null && sizes.length == count;
+		if(rotations != null && rotations.length < count * 3) throw new IllegalArgumentException("rotations needs 3 values per object");
+
+		defineGeometry(name, type);
+
+		float[] m = new float[16];
+		StringBuilder instanceName = new StringBuilder(name).append('.');
+		int prefixLength = instanceName.length();
+		for(int i=0;i<count;i++) {
+			float xSize = 1, ySize = 1, zSize = 1;
+			if(uniformSize) {
+				xSize = ySize = zSize = sizes[i];
+			} else if(sizes != null) {
+				xSize = sizes[i*3];
+				ySize = sizes[i*3+1];
+				zSize = sizes[i*3+2];
+			}
+			if(rotations != null) {
+				TransformBuilder.compose(m, 0, xSize, ySize, zSize, rotations[i*3], rotations[i*3+1], rotations[i*3+2], positions[i*3], positions[i*3+1], positions[i*3+2]);
+			} else {
+				TransformBuilder.compose(m, 0, xSize, ySize, zSize, 0, 0, 0, positions[i*3], positions[i*3+1], positions[i*3+2]);
+			}
+
+			instanceName.setLength(prefixLength);
+			instanceName.append(i).append(".instance");
+
+			sunflow.parameter( "shaders", currShader);
+			if(isModifiers) sunflow.parameter("modifiers", currModifier);
+			sunflow.parameter( "transform", new Matrix4(m, true) );
+			sunflow.instance( instanceName.toString(), name );
+		}
+	}
+
+	/*
+	 * END OF INSTANCING
+	 * --------------------------------------------------------------------------------------
+	 */
+
+	/*
      * --------------------------------------------------------------------------------------
      * MY OWN SHAPES
      */
@@ -1417,6 +1693,7 @@ public class SunflowAPIAPI {
 	public void setFisheyeCamera(String name) {
 //		set currCamera for rendering
 		this.currCamera = name;
+		this.cameraType = this.CAMERA_FISHEYE;
 
 		sunflow.parameter("transform", Matrix4.lookAt(eye, target, up)); 
 
@@ -1430,6 +1707,7 @@ public class SunflowAPIAPI {
 	public void setSphericalCamera(String name) {
 //		set currCamera for rendering
 		this.currCamera = name;
+		this.cameraType = this.CAMERA_SPHERICAL;
 
 		sunflow.parameter("transform", Matrix4.lookAt(eye, target, up)); 
 
@@ -1440,7 +1718,11 @@ public class SunflowAPIAPI {
 	 * one has to do that after having updated the position for example
 	 */
 	private void resetCamera() {
-		sunflow.remove(currCamera);
+		// an existing camera is only updated, the scene stays as it is
+		if(sunflow.lookupCamera(currCamera) != null) {
+			updateCamera();
+			return;
+		}
 		if(cameraType == this.CAMERA_FISHEYE) {
 			this.setFisheyeCamera(currCamera);
 		} else if(cameraType == this.CAMERA_PINHOLE) {
@@ -1451,6 +1733,85 @@ public class SunflowAPIAPI {
 			this.setThinlensCamera(currCamera, fov, aspect, shiftX, shiftY, focusDistance, lensRadius, sides, lensRotation);
 		}
 	}
+	/**
+	 * sends the current camera values to the existing camera
+	 */
+	private void updateCamera() {
+		sunflow.parameter("transform", Matrix4.lookAt(eye, target, up));
+		if(cameraType == this.CAMERA_PINHOLE || cameraType == this.CAMERA_THINLENS) {
+			sunflow.parameter("fov", fov);
+			sunflow.parameter("aspect", aspect);
+			sunflow.parameter("shift.x", shiftX);
+			sunflow.parameter("shift.y", shiftY);
+		}
+		if(cameraType == this.CAMERA_THINLENS) {
+			sunflow.parameter("focus.distance", focusDistance);
+			sunflow.parameter("lens.radius", lensRadius);
+			sunflow.parameter("lens.sides", sides);
+			sunflow.parameter("lens.rotation", lensRotation);
+		}
+		// no type updates the camera instead of declaring a new one
+		sunflow.camera(currCamera, null);
+	}
+	/**
+	 * moves the current camera along a camera path
+	 * @param path camera keyframes
+	 * @param time time on the path
+	 */
+	public void setCameraPath(CameraPath path, float time) {
+		path.evaluate(time);
+		eye = new Point3(path.getEye());
+		target = new Point3(path.getTarget());
+		up = new Vector3(path.getUp());
+		fov = path.getFov();
+		// update current camera
+		resetCamera();
+	}
+	/**
+	 * renders a camera animation into numbered image files. geometry, lights and shaders are
+	 * sent once, between frames only the camera is updated
+	 * @param path camera keyframes
+	 * @param frames number of frames, spread evenly from the first to the last keyframe
+	 * @param fileName file name, a row of # is replaced by the frame number (like "fly_####.png")
+	 */
+	public void renderCameraPath(CameraPath path, int frames, String fileName) {
+		setCameraPath(path, path.getStartTime());
+		submitLights();
+//		rendering options, they stay the same for all frames
+		sunflow.parameter("camera", currCamera);
+		sunflow.parameter("resolutionX", width);
+		sunflow.parameter("resolutionY", height);
+		sunflow.parameter("aa.min", aaMin);
+		sunflow.parameter("aa.max", aaMax);
+		sunflow.parameter("bucket.order", currBucketOrder);
+		sunflow.parameter("filter", currFilter);
+		sunflow.parameter("threads", threads);
+		sunflow.options(SunflowAPI.DEFAULT_OPTIONS);
+		for(int i=0;i<frames;i++) {
+			float time = frames > 1 ? path.getStartTime() + (path.getEndTime() - path.getStartTime()) * i / (frames - 1) : path.getStartTime();
+			if(i > 0) setCameraPath(path, time);
+			fileDisplay = createFileDisplay(frameFileName(fileName, i));
+			sunflow.render(SunflowAPI.DEFAULT_OPTIONS, fileDisplay);
+		}
+	}
+	/**
+	 * puts a frame number into a file name
+	 * @param fileName file name with a row of # (like "fly_####.png"), without it the number goes before the extension
+	 * @param frame frame number
+	 */
+	private static String frameFileName(String fileName, int frame) {
+		int start = fileName.indexOf('#');
+		if(start < 0) {
+			int dot = fileName.lastIndexOf('.');
+			if(dot < 0) dot = fileName.length();
+			return fileName.substring(0, dot) + "_" + frame + fileName.substring(dot);
+		}
+		int end = start;
+		while(end < fileName.length() && fileName.charAt(end) == '#') end++;
+		StringBuilder number = new StringBuilder().append(frame);
+		while(number.length() < end - start) number.insert(0, '0');
+		return fileName.substring(0, start) + number + fileName.substring(end);
+	}
 	
 	/*
 	 * END OF CAMERAS
@@ -1580,6 +1941,7 @@ public class SunflowAPIAPI {
 		if(sunflow.lookupGeometry("internal_background") != null) sunflow.remove("internal_background");
 	}
 	public void render(){
+		submitLights();
 //		rendering options
 		sunflow.parameter("camera", currCamera);
 		sunflow.parameter("resolutionX", width);
@@ -1588,17 +1950,20 @@ public class SunflowAPIAPI {
 		sunflow.parameter("aa.max", aaMax);
 		sunflow.parameter("bucket.order", currBucketOrder);
 		sunflow.parameter("filter", currFilter);
+		sunflow.parameter("threads", threads);
 		sunflow.options(SunflowAPI.DEFAULT_OPTIONS);
 		sunflow.render(SunflowAPI.DEFAULT_OPTIONS, windowDisplay);
 	}
 	public void render(boolean isPreview) {
 		if (isPreview) {
+			submitLights();
 			sunflow.parameter("camera", currCamera);
 			sunflow.parameter("resolutionX", width);
 			sunflow.parameter("resolutionY", height);
 			sunflow.parameter("aa.min", previewAaMin);
 			sunflow.parameter("aa.max", previewAaMax);
 			sunflow.parameter("bucket.order", this.BUCKET_ORDER_SPIRAL);
+			sunflow.parameter("threads", threads);
 			sunflow.options(SunflowAPI.DEFAULT_OPTIONS);
 			sunflow.render(SunflowAPI.DEFAULT_OPTIONS, windowDisplay);
 		} else {
@@ -1606,6 +1971,7 @@ public class SunflowAPIAPI {
 		}
 	}
 	public void render(String fileName) {
+		submitLights();
 //		rendering options
 		sunflow.parameter("camera", currCamera);
 		sunflow.parameter("resolutionX", width);
@@ -1614,25 +1980,247 @@ public class SunflowAPIAPI {
 		sunflow.parameter("aa.max", aaMax);
 		sunflow.parameter("bucket.order", currBucketOrder);
 		sunflow.parameter("filter", currFilter);
+		sunflow.parameter("threads", threads);
 		sunflow.options(SunflowAPI.DEFAULT_OPTIONS);
-		fileDisplay = new FileDisplay(fileName);
+		long sceneHash = getSceneHash();
+		if(renderCache != null && renderCache.get(sceneHash, fileName)) return;
+		fileDisplay = createFileDisplay(fileName);
 		sunflow.render(SunflowAPI.DEFAULT_OPTIONS, fileDisplay);
+		if(renderCache != null) renderCache.put(sceneHash, fileName);
 	}
 	public void render(boolean isPreview, String fileName) {
 		if (isPreview) {
+			submitLights();
 			sunflow.parameter("camera", currCamera);
 			sunflow.parameter("resolutionX", width);
 			sunflow.parameter("resolutionY", height);
 			sunflow.parameter("aa.min", previewAaMin);
 			sunflow.parameter("aa.max", previewAaMax);
 			sunflow.parameter("bucket.order", this.BUCKET_ORDER_SPIRAL);
+			sunflow.parameter("threads", threads);
 			sunflow.options(SunflowAPI.DEFAULT_OPTIONS);
-			fileDisplay = new FileDisplay(fileName);
+			fileDisplay = createFileDisplay(fileName);
 			sunflow.render(SunflowAPI.DEFAULT_OPTIONS, fileDisplay);
 		} else {
 			render(fileName);
 		}
 	}
+	/**
+	 * renders into any sunflow display
+	 * @param display gets the rendered buckets
+	 */
+	public void render(Display display) {
+		submitLights();
+//		rendering options
+		sunflow.parameter("camera", currCamera);
+		sunflow.parameter("resolutionX", width);
+		sunflow.parameter("resolutionY", height);
+		sunflow.parameter("aa.min", aaMin);
+		sunflow.parameter("aa.max", aaMax);
+		sunflow.parameter("bucket.order", currBucketOrder);
+		sunflow.parameter("filter", currFilter);
+		sunflow.parameter("threads", threads);
+		sunflow.options(SunflowAPI.DEFAULT_OPTIONS);
+		sunflow.render(SunflowAPI.DEFAULT_OPTIONS, display);
+	}
+	/**
+	 * renders into memory, no window or file is needed
+	 * @return ARGB image with sRGB colors
+	 */
+	public BufferedImage renderToImage() {
+		ImageDisplay display = new ImageDisplay();
+		render(display);
+		return display.getImage();
+	}
+	/**
+	 * renders into memory, no window or file is needed
+	 * @return ARGB ints with sRGB colors, row by row from the top
+	 */
+	public int[] renderToBuffer() {
+		ImageDisplay display = new ImageDisplay();
+		render(display);
+		return display.getPixels();
+	}
+	/**
+	 * renders into memory, no window or file is needed
+	 * @return linear colors, 4 floats (r, g, b, alpha) per pixel row by row from the top
+	 */
+	public float[] renderToFloatBuffer() {
+		ImageDisplay display = new ImageDisplay(true);
+		render(display);
+		return display.getFloats();
+	}
+	/**
+	 * renders into a memory mapped file of linear float colors instead of the heap,
+	 * for images too large for -Xmx. see MappedFrameDisplay for the file layout
+	 * @param fileName frame file, it is replaced if it exists
+	 * @return the mapped frame, to read the pixels from
+	 */
+	public MappedFrameDisplay renderToMappedFile(String fileName) {
+		MappedFrameDisplay display = new MappedFrameDisplay(fileName);
+		render(display);
+		return display;
+	}
+	/**
+	 * renders to a file and keeps every finished bucket in a checkpoint file. if the render
+	 * is stopped, calling this again with the same scene renders only the missing buckets,
+	 * the image is the same as without the stop. the checkpoint is deleted when the image is done
+	 * @param fileName image file
+	 * @param checkpointFileName checkpoint file
+	 */
+	public void render(String fileName, String checkpointFileName) {
+		fileDisplay = createFileDisplay(fileName);
+		render(fileDisplay, checkpointFileName);
+	}
+	/**
+	 * renders into any sunflow display and keeps every finished bucket in a checkpoint file,
+	 * see render(String, String)
+	 * @param display gets the rendered buckets
+	 * @param checkpointFileName checkpoint file
+	 */
+	public void render(Display display, String checkpointFileName) {
+		submitLights();
+//		rendering options
+		sunflow.parameter("camera", currCamera);
+		sunflow.parameter("resolutionX", width);
+		sunflow.parameter("resolutionY", height);
+		sunflow.parameter("aa.min", aaMin);
+		sunflow.parameter("aa.max", aaMax);
+		// skips the buckets in the checkpoint
+		sunflow.parameter("bucket.order", CheckpointBucketOrder.NAME);
+		// fixed, so a resumed render has the same buckets
+		sunflow.parameter("bucket.size", CHECKPOINT_BUCKET_SIZE);
+		sunflow.parameter("filter", currFilter);
+		sunflow.parameter("threads", threads);
+		sunflow.options(SunflowAPI.DEFAULT_OPTIONS);
+
+		RenderCheckpoint checkpoint = new RenderCheckpoint(checkpointFileName, display);
+		boolean[] completed;
+		try {
+			completed = checkpoint.open(getSceneHash(), width, height, CHECKPOINT_BUCKET_SIZE);
+		} catch (IOException e) {
+			throw new RuntimeException("opening checkpoint " + checkpointFileName + " failed", e);
+		}
+		CheckpointBucketOrder.begin(currBucketOrder, completed);
+		try {
+			sunflow.render(SunflowAPI.DEFAULT_OPTIONS, checkpoint);
+		} finally {
+			CheckpointBucketOrder.end();
+		}
+	}
+	/**
+	 * hash of the objects and options in the scene now, renders of the same hash give the same image
+	 * @return scene hash
+	 */
+	public long getSceneHash() {
+		return sunflow.getHash();
+	}
+	/**
+	 * renders numbered frames with two workers, see renderSequence(int, String, SequenceBuilder, int)
+	 * @param frames number of frames
+	 * @param fileName file name, a row of # is replaced by the frame number (like "frame_####.png")
+	 * @param builder builds and changes the scene
+	 */
+	public void renderSequence(int frames, String fileName, SequenceBuilder builder) {
+		renderSequence(frames, fileName, builder, 2);
+	}
+	/**
+	 * renders numbered frames with several scenes at the same time, so one scene builds its
+	 * acceleration structures while another one renders. every worker has its own SunflowAPIAPI
+	 * with the size, anti aliasing, bucket order and filter of this one, builder.setup() builds
+	 * its scene once and builder.frame() changes it before each of its frames. the render threads
+	 * are split between the workers and images are written on their own thread while the next
+	 * frames render. the scene of this SunflowAPIAPI is not used
+	 * @param frames number of frames
+	 * @param fileName file name, a row of # is replaced by the frame number (like "frame_####.png")
+	 * @param builder builds and changes the scene
+	 * @param workers number of scenes rendering at the same time
+	 */
+	public void renderSequence(final int frames, final String fileName, final SequenceBuilder builder, int workers) {
+		workers = Math.max(1, Math.min(workers, frames));
+		int cores = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+		final int workerThreads = Math.max(1, cores / workers);
+		final AtomicInteger nextFrame = new AtomicInteger();
+		final List<Future<Object>> written = new Vector<Future<Object>>();
+		final ExecutorService encoder = Executors.newSingleThreadExecutor();
+		ExecutorService pool = Executors.newFixedThreadPool(workers);
+		ArrayList<Future<Object>> rendered = new ArrayList<Future<Object>>();
+		try {
+			for(int i=0;i<workers;i++) {
+				rendered.add(pool.submit(new Callable<Object>() {
+					public Object call() {
+						SunflowAPIAPI worker = new SunflowAPIAPI();
+						worker.copyRenderSettings(SunflowAPIAPI.this);
+						worker.threads = workerThreads;
+						builder.setup(worker);
+						ImageDisplay display = new ImageDisplay();
+						for(int frame = nextFrame.getAndIncrement(); frame < frames; frame = nextFrame.getAndIncrement()) {
+							builder.frame(worker, frame);
+							worker.render(display);
+							written.add(encoder.submit(new ImageWriter(display.getImage(), frameFileName(fileName, frame))));
+						}
+						return null;
+					}
+				}));
+			}
+			for(Future<Object> result : rendered) result.get();
+			for(Future<Object> result : written) result.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("rendering the sequence was interrupted", e);
+		} catch (ExecutionException e) {
+			throw new RuntimeException("rendering the sequence failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+			encoder.shutdown();
+		}
+	}
+	/**
+	 * takes over size, anti aliasing, bucket order, filter and threads of another SunflowAPIAPI
+	 */
+	private void copyRenderSettings(SunflowAPIAPI other) {
+		width = other.width;
+		height = other.height;
+		aaMin = other.aaMin;
+		aaMax = other.aaMax;
+		previewAaMin = other.previewAaMin;
+		previewAaMax = other.previewAaMax;
+		currBucketOrder = other.currBucketOrder;
+		currFilter = other.currFilter;
+		colorSpace = other.colorSpace;
+		threads = other.threads;
+	}
+	/**
+	 * writes an image on the encoder thread of renderSequence(..)
+	 */
+	private static class ImageWriter implements Callable<Object> {
+		private BufferedImage image;
+		private String fileName;
+		ImageWriter(BufferedImage image, String fileName) {
+			this.image = image;
+			this.fileName = fileName;
+		}
+		public Object call() throws IOException {
+			int dot = fileName.lastIndexOf('.');
+			String format = dot < 0 ? "png" : fileName.substring(dot + 1).toLowerCase();
+			if(ImageIO.write(image, format, new File(fileName))) return null;
+			// formats like jpg can not store alpha
+			BufferedImage rgb = new BufferedImage(image.getWidth(), image.getHeight(), BufferedImage.TYPE_INT_RGB);
+			rgb.getGraphics().drawImage(image, 0, 0, null);
+			if(!ImageIO.write(rgb, format, new File(fileName))) throw new IOException("no image writer for " + format + " files");
+			return null;
+		}
+	}
+	/**
+	 * display for a file name. tiff files are written tile by tile while rendering,
+	 * so even very large images never have to fit into memory
+	 * @param fileName image file
+	 */
+	private Display createFileDisplay(String fileName) {
+		String lowerCase = fileName.toLowerCase();
+		if(lowerCase.endsWith(".tif") || lowerCase.endsWith(".tiff")) return new TiledTiffDisplay(fileName);
+		return new FileDisplay(fileName);
+	}
 	/**
 	 * remove sunflow object. function checks if object is existing first
 	 * @param name
@@ -1656,7 +2244,7 @@ public class SunflowAPIAPI {
 	}
 	
 	public SunflowAPI sunflowObject() {
-		return sunflow;
+		return sunflow.getAPI();
 	}
 
 	public int getWidth() {
@@ -1690,6 +2278,37 @@ public class SunflowAPIAPI {
 	public void setAaMax(int aaMax) {
 		this.aaMax = aaMax;
 	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	/**
+	 * number of render threads, 0 uses all cores
+	 * @param threads number of threads
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * cache for render(String), a scene rendered before is copied from the cache instead
+	 * of rendered again. the scene hash (see getSceneHash()) is the key
+	 * @param renderCache cache, null to always render
+	 */
+	public void setRenderCache(RenderCache renderCache) {
+		this.renderCache = renderCache;
+	}
+
+	/**
+	 * simplifies meshes drawn with drawMesh(String, float[], int[]) and drawMesh(String, MeshData)
+	 * as far as it stays unseen from the current camera (see MeshSimplifier). set the camera and
+	 * the image size before drawing the meshes. only pinhole and thinlens cameras are used
+	 * @param pixelError largest error in pixels, 0 for no simplification
+	 */
+	public void setLevelOfDetail(float pixelError) {
+		this.levelOfDetail = pixelError;
+	}
 	
 	/*
 	 * --------------------------------------------------------------------------------------
@@ -1718,7 +2337,82 @@ public class SunflowAPIAPI {
 		// draw a ground plane
 		this.drawPlane("internal_basic_ground", new Point3(0,0,0), new Vector3(0,1,0));
 	}
-	
+
+	/**
+	 * records everything drawn and set from now on into a binary scene file, which
+	 * loadScene() renders again without the code that built the scene
+	 * @param fileName scene file
+	 */
+	public void startRecording(String fileName) {
+		sunflow.startRecording(fileName);
+	}
+
+	/**
+	 * ends the recording started with startRecording(), together with the lights of the
+	 * light manager and the camera, size, anti aliasing, bucket order and filter used for rendering
+	 */
+	public void stopRecording() {
+		if(!sunflow.isRecording()) return;
+		submitLights();
+		sunflow.setting("camera", currCamera);
+		sunflow.setting("width", String.valueOf(width));
+		sunflow.setting("height", String.valueOf(height));
+		sunflow.setting("aa.min", String.valueOf(aaMin));
+		sunflow.setting("aa.max", String.valueOf(aaMax));
+		sunflow.setting("bucket.order", currBucketOrder);
+		sunflow.setting("filter", currFilter);
+		sunflow.stopRecording();
+	}
+
+	/**
+	 * writes everything drawn and set from now on into a sunflow .sc file, which the
+	 * sunflow command line renderer can render without this library
+	 * @param fileName .sc file
+	 */
+	public void startExport(String fileName) {
+		sunflow.startExport(fileName);
+	}
+
+	/**
+	 * ends the export started with startExport(), together with the camera, size,
+	 * anti aliasing, bucket order and filter used for rendering
+	 * @return number of calls which could not be written as .sc, like removed objects
+	 */
+	public int stopExport() {
+		if(!sunflow.isExporting()) return 0;
+		submitLights();
+		sunflow.parameter("camera", currCamera);
+		sunflow.parameter("resolutionX", width);
+		sunflow.parameter("resolutionY", height);
+		sunflow.parameter("aa.min", aaMin);
+		sunflow.parameter("aa.max", aaMax);
+		sunflow.parameter("bucket.order", currBucketOrder);
+		sunflow.parameter("filter", currFilter);
+		sunflow.options(SunflowAPI.DEFAULT_OPTIONS);
+		return sunflow.stopExport();
+	}
+
+	/**
+	 * adds a scene recorded with startRecording() and takes over its render settings.
+	 * geometry arrays are copied straight from the memory mapped file
+	 * @param fileName scene file
+	 */
+	public void loadScene(String fileName) {
+		HashMap<String, String> settings;
+		try {
+			settings = sunflow.load(fileName);
+		} catch (IOException e) {
+			throw new RuntimeException("loading " + fileName + " failed", e);
+		}
+		if(settings.containsKey("camera")) currCamera = settings.get("camera");
+		if(settings.containsKey("width")) width = Integer.parseInt(settings.get("width"));
+		if(settings.containsKey("height")) height = Integer.parseInt(settings.get("height"));
+		if(settings.containsKey("aa.min")) aaMin = Integer.parseInt(settings.get("aa.min"));
+		if(settings.containsKey("aa.max")) aaMax = Integer.parseInt(settings.get("aa.max"));
+		if(settings.containsKey("bucket.order")) currBucketOrder = settings.get("bucket.order");
+		if(settings.containsKey("filter")) currFilter = settings.get("filter");
+	}
+
 	/*
 	 * END OF UTILITIES
 	 * --------------------------------------------------------------------------------------
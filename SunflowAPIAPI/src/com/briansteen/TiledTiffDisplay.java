@@ -0,0 +1,286 @@
+package com.briansteen;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.HashMap;
+
+import org.sunflow.core.Display;
+import org.sunflow.image.Color;
+
+/**
+ * Writes finished buckets straight into a tiled, uncompressed 8 bit RGBA TIFF file, so
+ * only the buckets being rendered are in memory, no matter how large the image is.
+ * Images above 4GB are written as BigTIFF.
+ *
+ * The header and the tile table are written in imageBegin() and every tile has a fixed
+ * place in the file, so the file can be opened while it is rendered and tiles appear
+ * as they are finished. Render threads write their tiles at the same time with positional
+ * writes. If the bucket size is a multiple of 16 every bucket is exactly one tile, otherwise
+ * tiles are collected until all their pixels are rendered.
+ */
+public class TiledTiffDisplay implements Display {
+	private static final int TIFF_SHORT = 3;
+	private static final int TIFF_LONG = 4;
+	private static final int TIFF_LONG8 = 16;
+	// entries in the image file directory
+	private static final int ENTRIES = 12;
+	// tile table entries written at once in imageBegin
+	private static final int TABLE_CHUNK = 65536;
+
+	private String fileName;
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private volatile IOException error;
+
+	private int width;
+	private int height;
+	private int tileSize;
+	private int tilesAcross;
+	private int tileBytes;
+	private long dataStart;
+	private boolean isBigTiff;
+	private boolean isAligned;
+
+	// tiles waiting for more buckets when buckets and tiles do not match
+	private HashMap<Integer, byte[]> openTiles = new HashMap<Integer, byte[]>();
+	private HashMap<Integer, Integer> openTilePixels = new HashMap<Integer, Integer>();
+
+	private ThreadLocal<ByteBuffer> tileBuffer = new ThreadLocal<ByteBuffer>() {
+		protected ByteBuffer initialValue() {
+			return ByteBuffer.allocate(tileBytes);
+		}
+	};
+
+	/**
+	 * @param fileName tiff file, it is replaced if it exists
+	 */
+	public TiledTiffDisplay(String fileName) {
+		this.fileName = fileName;
+	}
+
+	public void imageBegin(int w, int h, int bucketSize) {
+		width = w;
+		height = h;
+		// tiff tiles have to be a multiple of 16
+		tileSize = (bucketSize + 15) / 16 * 16;
+		isAligned = tileSize == bucketSize;
+		tilesAcross = (w + tileSize - 1) / tileSize;
+		int tilesDown = (h + tileSize - 1) / tileSize;
+		int tiles = tilesAcross * tilesDown;
+		tileBytes = tileSize * tileSize * 4;
+		openTiles.clear();
+		openTilePixels.clear();
+		error = null;
+
+		long classicHeader = 8 + 2 + ENTRIES * 12 + 4 + 8 + (tiles > 1 ? 8L * tiles : 0);
+		isBigTiff = classicHeader + (long)tiles * tileBytes > 0xffffffffL;
+		dataStart = isBigTiff ? 16 + 8 + ENTRIES * 20 + 8 + (tiles > 1 ? 16L * tiles : 0) : classicHeader;
+
+		try {
+			file = new RandomAccessFile(fileName, "rw");
+			file.setLength(0);
+			// full size right away, tiles not rendered yet read as black
+			file.setLength(dataStart + (long)tiles * tileBytes);
+			channel = file.getChannel();
+			writeHeader(tiles);
+		} catch (IOException e) {
+			error = e;
+		}
+	}
+
+	private void writeHeader(int tiles) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(64 + ENTRIES * 20).order(ByteOrder.LITTLE_ENDIAN);
+		header.put((byte)'I').put((byte)'I');
+		long extra;
+		if(isBigTiff) {
+			header.putShort((short)43).putShort((short)8).putShort((short)0).putLong(16);
+			header.putLong(ENTRIES);
+			extra = 16 + 8 + ENTRIES * 20 + 8;
+		} else {
+			header.putShort((short)42).putInt(8);
+			header.putShort((short)ENTRIES);
+			extra = 8 + 2 + ENTRIES * 12 + 4;
+		}
+		// bits per sample only needs extra room in classic tiff
+		long bitsPerSample = 0x0008000800080008L;
+		long bitsOffset = extra;
+		if(!isBigTiff) extra += 8;
+		long offsetsStart = extra;
+		long countsStart = extra + (long)tiles * (isBigTiff ? 8 : 4);
+		int tableType = isBigTiff ? TIFF_LONG8 : TIFF_LONG;
+
+		entry(header, 256, TIFF_LONG, 1, width);
+		entry(header, 257, TIFF_LONG, 1, height);
+		entry(header, 258, TIFF_SHORT, 4, isBigTiff ? bitsPerSample : bitsOffset);
+		entry(header, 259, TIFF_SHORT, 1, 1);			// no compression
+		entry(header, 262, TIFF_SHORT, 1, 2);			// rgb
+		entry(header, 277, TIFF_SHORT, 1, 4);			// samples per pixel
+		entry(header, 284, TIFF_SHORT, 1, 1);			// chunky
+		entry(header, 322, TIFF_LONG, 1, tileSize);
+		entry(header, 323, TIFF_LONG, 1, tileSize);
+		entry(header, 324, tableType, tiles, tiles > 1 ? offsetsStart : dataStart);
+		entry(header, 325, tableType, tiles, tiles > 1 ? countsStart : tileBytes);
+		entry(header, 338, TIFF_SHORT, 1, 1);			// associated alpha, sunflow colors are multiplied by coverage
+		if(isBigTiff) header.putLong(0);
+		else header.putInt(0);
+		if(!isBigTiff) header.putLong(bitsPerSample);
+		header.flip();
+		write(header, 0);
+
+		if(tiles > 1) {
+			// tile offsets and byte counts, in chunks to keep the buffer small
+			int size = isBigTiff ? 8 : 4;
+			ByteBuffer table = ByteBuffer.allocate(TABLE_CHUNK * size).order(ByteOrder.LITTLE_ENDIAN);
+			for(int pass=0;pass<2;pass++) {
+				long position = pass == 0 ? offsetsStart : countsStart;
+				for(int first=0;first<tiles;first+=TABLE_CHUNK) {
+					table.clear();
+					int last = Math.min(tiles, first + TABLE_CHUNK);
+					for(int i=first;i<last;i++) {
+						long value = pass == 0 ? dataStart + (long)i * tileBytes : tileBytes;
+						if(isBigTiff) table.putLong(value);
+						else table.putInt((int)value);
+					}
+					table.flip();
+					write(table, position);
+					position += (long)(last - first) * size;
+				}
+			}
+		}
+	}
+
+	private void entry(ByteBuffer header, int tag, int type, long count, long value) {
+		header.putShort((short)tag).putShort((short)type);
+		if(isBigTiff) {
+			header.putLong(count);
+			if(type == TIFF_SHORT && count == 1) header.putShort((short)value).putShort((short)0).putInt(0);
+			else if(type == TIFF_LONG && count == 1) header.putInt((int)value).putInt(0);
+			else header.putLong(value);
+		} else {
+			header.putInt((int)count);
+			if(type == TIFF_SHORT && count == 1) header.putShort((short)value).putShort((short)0);
+			else header.putInt((int)value);
+		}
+	}
+
+	private void write(ByteBuffer buffer, long position) throws IOException {
+		while(buffer.hasRemaining()) position += channel.write(buffer, position);
+	}
+
+	public void imagePrepare(int x, int y, int w, int h, int id) {
+	}
+
+	public void imageUpdate(int x, int y, int w, int h, Color[] data, float[] alpha) {
+		if(error != null) return;
+		try {
+			if(isAligned) {
+				// the bucket is exactly one tile
+				ByteBuffer buffer = tileBuffer.get();
+				if(buffer.capacity() != tileBytes) {
+					buffer = ByteBuffer.allocate(tileBytes);
+					tileBuffer.set(buffer);
+				}
+				byte[] tile = buffer.array();
+				if(w < tileSize || h < tileSize) Arrays.fill(tile, (byte)0);
+				copy(data, alpha, 0, w, w, h, tile, 0, 0);
+				buffer.clear();
+				write(buffer, tilePosition(x / tileSize, y / tileSize));
+			} else {
+				for(int ty=y/tileSize;ty<=(y+h-1)/tileSize;ty++) {
+					for(int tx=x/tileSize;tx<=(x+w-1)/tileSize;tx++) {
+						updateTile(tx, ty, x, y, w, h, data, alpha);
+					}
+				}
+			}
+		} catch (IOException e) {
+			error = e;
+		}
+	}
+
+	/**
+	 * copies the part of a bucket inside a tile and writes the tile once all its pixels are there
+	 */
+	private void updateTile(int tx, int ty, int x, int y, int w, int h, Color[] data, float[] alpha) throws IOException {
+		int left = Math.max(x, tx * tileSize), right = Math.min(x + w, Math.min(width, (tx + 1) * tileSize));
+		int top = Math.max(y, ty * tileSize), bottom = Math.min(y + h, Math.min(height, (ty + 1) * tileSize));
+		int pixels = (Math.min(width, (tx + 1) * tileSize) - tx * tileSize) * (Math.min(height, (ty + 1) * tileSize) - ty * tileSize);
+		Integer key = ty * tilesAcross + tx;
+		byte[] tile;
+		synchronized(openTiles) {
+			tile = openTiles.get(key);
+			if(tile == null) {
+				tile = new byte[tileBytes];
+				openTiles.put(key, tile);
+				openTilePixels.put(key, 0);
+			}
+		}
+		// buckets never overlap, so threads copy into different parts of the tile
+		copy(data, alpha, (top - y) * w + (left - x), w, right - left, bottom - top, tile, left - tx * tileSize, top - ty * tileSize);
+		// counted after copying, so the thread completing the tile sees all other copies
+		boolean isComplete;
+		synchronized(openTiles) {
+			int filled = openTilePixels.get(key) + (right - left) * (bottom - top);
+			isComplete = filled == pixels;
+			if(isComplete) {
+				openTiles.remove(key);
+				openTilePixels.remove(key);
+			} else {
+				openTilePixels.put(key, filled);
+			}
+		}
+		if(isComplete) write(ByteBuffer.wrap(tile), tilePosition(tx, ty));
+	}
+
+	/**
+	 * writes bucket pixels as sRGB RGBA bytes into a tile
+	 * @param offset index of the first bucket pixel
+	 * @param stride bucket width
+	 * @param w pixels per row to copy
+	 * @param h rows to copy
+	 * @param tileX first tile column written
+	 * @param tileY first tile row written
+	 */
+	private void copy(Color[] data, float[] alpha, int offset, int stride, int w, int h, byte[] tile, int tileX, int tileY) {
+		// toNonLinear() changes the color, so every pixel is converted in this one
+		Color pixel = new Color();
+		for(int j=0;j<h;j++) {
+			int source = offset + j * stride;
+			int dest = ((tileY + j) * tileSize + tileX) * 4;
+			for(int i=0;i<w;i++) {
+				int argb = pixel.set(data[source + i]).toNonLinear().toRGBA(alpha[source + i]);
+				tile[dest++] = (byte)(argb >> 16);
+				tile[dest++] = (byte)(argb >> 8);
+				tile[dest++] = (byte)argb;
+				tile[dest++] = (byte)(argb >> 24);
+			}
+		}
+	}
+
+	private long tilePosition(int tx, int ty) {
+		return dataStart + (long)(ty * tilesAcross + tx) * tileBytes;
+	}
+
+	public void imageFill(int x, int y, int w, int h, Color c, float alpha) {
+		Color[] data = new Color[w * h];
+		float[] alphas = new float[w * h];
+		Arrays.fill(data, c);
+		Arrays.fill(alphas, alpha);
+		imageUpdate(x, y, w, h, data, alphas);
+	}
+
+	public void imageEnd() {
+		try {
+			if(channel != null) channel.force(false);
+			if(file != null) file.close();
+		} catch (IOException e) {
+			if(error == null) error = e;
+		}
+		channel = null;
+		file = null;
+		if(error != null) throw new RuntimeException("writing " + fileName + " failed", error);
+	}
+}
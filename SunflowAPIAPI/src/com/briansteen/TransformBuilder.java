@@ -0,0 +1,176 @@
+package com.briansteen;
+
+import org.sunflow.math.Matrix4;
+
+/**
+ * Composes scale, rotation and translation into one row major 4x4 matrix in place.
+ * Every operation is applied after the ones before it (like m = op * m), so
+ * identity().scale(..).rotateY(..).rotateX(..).rotateZ(..).translate(..)
+ * builds the same transform as the Matrix4.IDENTITY.multiply(..) chains did,
+ * without creating a Matrix4 for every step.
+ *
+ * One builder is meant to be reused for many objects, it is not thread safe.
+ */
+public class TransformBuilder {
+	private final float[] m = new float[16];
+
+	public TransformBuilder() {
+		identity();
+	}
+
+	/**
+	 * resets to the identity matrix
+	 * @return this builder
+	 */
+	public TransformBuilder identity() {
+		for(int i=0;i<16;i++) m[i] = 0;
+		m[0] = m[5] = m[10] = m[15] = 1;
+		return this;
+	}
+
+	/**
+	 * scales what has been composed so far
+	 * @param x scale on x axis
+	 * @param y scale on y axis
+	 * @param z scale on z axis
+	 * @return this builder
+	 */
+	public TransformBuilder scale(float x, float y, float z) {
+		for(int i=0;i<4;i++) {
+			m[i] *= x;
+			m[4+i] *= y;
+			m[8+i] *= z;
+		}
+		return this;
+	}
+
+	/**
+	 * rotates what has been composed so far around the x axis
+	 * @param angle angle in radians
+	 * @return this builder
+	 */
+	public TransformBuilder rotateX(float angle) {
+		float c = (float)Math.cos(angle);
+		float s = (float)Math.sin(angle);
+		for(int i=0;i<4;i++) {
+			float r1 = m[4+i];
+			float r2 = m[8+i];
+			m[4+i] = c*r1 - s*r2;
+			m[8+i] = s*r1 + c*r2;
+		}
+		return this;
+	}
+
+	/**
+	 * rotates what has been composed so far around the y axis
+	 * @param angle angle in radians
+	 * @return this builder
+	 */
+	public TransformBuilder rotateY(float angle) {
+		float c = (float)Math.cos(angle);
+		float s = (float)Math.sin(angle);
+		for(int i=0;i<4;i++) {
+			float r0 = m[i];
+			float r2 = m[8+i];
+			m[i] = c*r0 + s*r2;
+			m[8+i] = -s*r0 + c*r2;
+		}
+		return this;
+	}
+
+	/**
+	 * rotates what has been composed so far around the z axis
+	 * @param angle angle in radians
+	 * @return this builder
+	 */
+	public TransformBuilder rotateZ(float angle) {
+		float c = (float)Math.cos(angle);
+		float s = (float)Math.sin(angle);
+		for(int i=0;i<4;i++) {
+			float r0 = m[i];
+			float r1 = m[4+i];
+			m[i] = c*r0 - s*r1;
+			m[4+i] = s*r0 + c*r1;
+		}
+		return this;
+	}
+
+	/**
+	 * rotates in the order used by all draw methods: y first, then x, then z
+	 * @param xRotation x rotation
+	 * @param yRotation y rotation
+	 * @param zRotation z rotation
+	 * @return this builder
+	 */
+	public TransformBuilder rotate(float xRotation, float yRotation, float zRotation) {
+		return rotateY(yRotation).rotateX(xRotation).rotateZ(zRotation);
+	}
+
+	/**
+	 * moves what has been composed so far
+	 * @param x x offset
+	 * @param y y offset
+	 * @param z z offset
+	 * @return this builder
+	 */
+	public TransformBuilder translate(float x, float y, float z) {
+		m[3] += x;
+		m[7] += y;
+		m[11] += z;
+		return this;
+	}
+
+	/**
+	 * replaces the matrix with scale, rotation and translation in one step
+	 * @return this builder
+	 */
+	public TransformBuilder set(float xSize, float ySize, float zSize, float xRotation, float yRotation, float zRotation, float x, float y, float z) {
+		compose(m, 0, xSize, ySize, zSize, xRotation, yRotation, zRotation, x, y, z);
+		return this;
+	}
+
+	/**
+	 * the row major matrix, it is not copied so it changes with the builder
+	 * @return float array with 16 values
+	 */
+	public float[] getMatrix() {
+		return m;
+	}
+
+	/**
+	 * creates the sunflow matrix, the only object made per transform
+	 * @return Matrix4
+	 */
+	public Matrix4 toMatrix4() {
+		return new Matrix4(m, true);
+	}
+
+	/**
+	 * writes translate * rotateZ * rotateX * rotateY * scale as a row major 4x4 matrix
+	 * into dest starting at offset. no objects are created
+	 * @param dest destination array with at least offset+16 values
+	 * @param offset first index written
+	 */
+	public static void compose(float[] dest, int offset, float xSize, float ySize, float zSize, float xRotation, float yRotation, float zRotation, float x, float y, float z) {
+		float cx = (float)Math.cos(xRotation), sx = (float)Math.sin(xRotation);
+		float cy = (float)Math.cos(yRotation), sy = (float)Math.sin(yRotation);
+		float cz = (float)Math.cos(zRotation), sz = (float)Math.sin(zRotation);
+
+		dest[offset] = (cz*cy - sz*sx*sy) * xSize;
+		dest[offset+1] = -sz*cx * ySize;
+		dest[offset+2] = (cz*sy + sz*sx*cy) * zSize;
+		dest[offset+3] = x;
+		dest[offset+4] = (sz*cy + cz*sx*sy) * xSize;
+		dest[offset+5] = cz*cx * ySize;
+		dest[offset+6] = (sz*sy - cz*sx*cy) * zSize;
+		dest[offset+7] = y;
+		dest[offset+8] = -cx*sy * xSize;
+		dest[offset+9] = sx * ySize;
+		dest[offset+10] = cx*cy * zSize;
+		dest[offset+11] = z;
+		dest[offset+12] = 0;
+		dest[offset+13] = 0;
+		dest[offset+14] = 0;
+		dest[offset+15] = 1;
+	}
+}
@@ -0,0 +1,114 @@
+package com.briansteen.benchmark;
+
+import java.lang.management.ManagementFactory;
+
+import org.sunflow.image.Color;
+
+import com.briansteen.BucketConverter;
+
+/**
+ * Measures how fast rendered buckets are turned into ARGB pixels of a 4K image.
+ * Prints buckets per second, megapixels per second and allocated bytes per bucket for
+ * - the per pixel Color.getRGB() conversion ProcessingDisplay used to do
+ * - BucketConverter without gamma
+ * - BucketConverter with a gamma table
+ *
+ * Allocation is read from the HotSpot thread allocation counter, so run it on a HotSpot JVM.
+ * run with: java -cp sunflow.jar:. com.briansteen.benchmark.BucketBenchmark
+ */
+public class BucketBenchmark {
+	private static final int WIDTH = 3840;
+	private static final int HEIGHT = 2160;
+	private static final int BUCKET_SIZE = 32;
+	private static final int ROUNDS = 5;
+	// every round converts the whole image this often
+	private static final int IMAGES = 5;
+
+	public static void main(String args[]) {
+		int bucketPixels = BUCKET_SIZE * BUCKET_SIZE;
+		Color[] data = new Color[bucketPixels];
+		float[] alpha = new float[bucketPixels];
+		for(int i=0;i<bucketPixels;i++) {
+			// some values above 1 so clamping is part of the work
+			data[i] = new Color((i % 37) / 30f, (i % 53) / 45f, (i % 71) / 60f);
+			alpha[i] = 1;
+		}
+		int[] pixels = new int[WIDTH * HEIGHT];
+		BucketConverter linear = new BucketConverter();
+		BucketConverter gamma = new BucketConverter(2.2f);
+
+		// warm up
+		runGetRGB(data, alpha, pixels);
+		runConverter(linear, data, alpha, pixels);
+		runConverter(gamma, data, alpha, pixels);
+
+		for(int i=0;i<ROUNDS;i++) {
+			long bytes = allocatedBytes();
+			long time = System.nanoTime();
+			int buckets = runGetRGB(data, alpha, pixels);
+			report("Color.getRGB per pixel", buckets, time, bytes);
+
+			bytes = allocatedBytes();
+			time = System.nanoTime();
+			buckets = runConverter(linear, data, alpha, pixels);
+			report("BucketConverter", buckets, time, bytes);
+
+			bytes = allocatedBytes();
+			time = System.nanoTime();
+			buckets = runConverter(gamma, data, alpha, pixels);
+			report("BucketConverter gamma 2.2", buckets, time, bytes);
+		}
+		System.out.println("sink " + pixels[WIDTH * HEIGHT / 2]);
+	}
+
+	private static int runGetRGB(Color[] data, float[] alpha, int[] pixels) {
+		int buckets = 0;
+		for(int n=0;n<IMAGES;n++) {
+			for(int y=0;y<HEIGHT;y+=BUCKET_SIZE) {
+				for(int x=0;x<WIDTH;x+=BUCKET_SIZE) {
+					int w = Math.min(BUCKET_SIZE, WIDTH - x), h = Math.min(BUCKET_SIZE, HEIGHT - y);
+					int loopCount = 0;
+					for(int yPos=y;yPos<y+h;yPos++) {
+						int thisY = (HEIGHT-1) - yPos;
+						for(int xPos=x;xPos<x+w;xPos++) {
+							float[] colors = data[loopCount].getRGB();
+							int a = (int)Math.min((alpha[loopCount] * 255), 255);
+							int r = (int)Math.min((colors[0] * 255), 255);
+							int g = (int)Math.min((colors[1] * 255), 255);
+							int b = (int)Math.min((colors[2] * 255), 255);
+							pixels[thisY * WIDTH + xPos] = (a << 24) | (r << 16) | (g << 8) | b;
+							loopCount++;
+						}
+					}
+					buckets++;
+				}
+			}
+		}
+		return buckets;
+	}
+
+	private static int runConverter(BucketConverter converter, Color[] data, float[] alpha, int[] pixels) {
+		int buckets = 0;
+		for(int n=0;n<IMAGES;n++) {
+			for(int y=0;y<HEIGHT;y+=BUCKET_SIZE) {
+				for(int x=0;x<WIDTH;x+=BUCKET_SIZE) {
+					int w = Math.min(BUCKET_SIZE, WIDTH - x), h = Math.min(BUCKET_SIZE, HEIGHT - y);
+					converter.convertBucket(data, alpha, x, y, w, h, pixels, WIDTH, HEIGHT, true);
+					buckets++;
+				}
+			}
+		}
+		return buckets;
+	}
+
+	private static void report(String name, int buckets, long startTime, long startBytes) {
+		long bytes = allocatedBytes() - startBytes;
+		double seconds = (System.nanoTime() - startTime) / 1e9;
+		double megapixels = (double)WIDTH * HEIGHT * IMAGES / 1e6;
+		System.out.println(name + ": " + (int)(buckets / seconds) + " buckets/s, " + (float)(megapixels / seconds) + " Mpixels/s, " + (bytes / (float)buckets) + " bytes/bucket");
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -0,0 +1,98 @@
+package com.briansteen.benchmark;
+
+import java.lang.management.ManagementFactory;
+
+import org.sunflow.math.Matrix4;
+
+import com.briansteen.TransformBuilder;
+
+/**
+ * Compares the old Matrix4.IDENTITY.multiply(..) chains with TransformBuilder.
+ * Prints time and allocated bytes per transform for
+ * - the chain the draw methods used to build (scale, rotate z/x/y, translate)
+ * - TransformBuilder.set(..).toMatrix4(), what the draw methods use now
+ * - TransformBuilder.compose(..) into a float array, the bulk path
+ *
+ * Allocation is read from the HotSpot thread allocation counter, so run it on a HotSpot JVM.
+ * run with: java -cp sunflow.jar:. com.briansteen.benchmark.TransformBenchmark
+ */
+public class TransformBenchmark {
+	private static final int WARMUP_ROUNDS = 5;
+	private static final int ROUNDS = 5;
+	private static final int TRANSFORMS = 1000000;
+
+	// keeps the results alive so the JIT can not remove the work
+	private static float sink;
+
+	public static void main(String args[]) {
+		TransformBuilder builder = new TransformBuilder();
+		float[] dest = new float[16];
+
+		for(int i=0;i<WARMUP_ROUNDS;i++) {
+			runChain();
+			runBuilder(builder);
+			runCompose(dest);
+		}
+		for(int i=0;i<ROUNDS;i++) {
+			long bytes = allocatedBytes();
+			long time = System.nanoTime();
+			runChain();
+			report("Matrix4 chain", time, bytes);
+
+			bytes = allocatedBytes();
+			time = System.nanoTime();
+			runBuilder(builder);
+			report("TransformBuilder.toMatrix4", time, bytes);
+
+			bytes = allocatedBytes();
+			time = System.nanoTime();
+			runCompose(dest);
+			report("TransformBuilder.compose", time, bytes);
+		}
+		System.out.println("sink " + sink);
+	}
+
+	private static void runChain() {
+		for(int i=0;i<TRANSFORMS;i++) {
+			float a = i * .001f;
+			Matrix4 translate = Matrix4.IDENTITY.multiply( Matrix4.translation(a, a, a));
+			Matrix4 scale = Matrix4.IDENTITY.multiply( Matrix4.scale(a, a, a) );
+			Matrix4 rotate = Matrix4.IDENTITY
+			.multiply( Matrix4.rotateZ(a) )
+			.multiply( Matrix4.rotateX(a) )
+			.multiply( Matrix4.rotateY(a) );
+
+			Matrix4 m = Matrix4.IDENTITY;
+			m = scale.multiply(m);
+			m = rotate.multiply(m);
+			m = translate.multiply(m);
+			sink += m.hashCode();
+		}
+	}
+
+	private static void runBuilder(TransformBuilder builder) {
+		for(int i=0;i<TRANSFORMS;i++) {
+			float a = i * .001f;
+			Matrix4 m = builder.set(a, a, a, a, a, a, a, a, a).toMatrix4();
+			sink += m.hashCode();
+		}
+	}
+
+	private static void runCompose(float[] dest) {
+		for(int i=0;i<TRANSFORMS;i++) {
+			float a = i * .001f;
+			TransformBuilder.compose(dest, 0, a, a, a, a, a, a, a, a, a);
+			sink += dest[0];
+		}
+	}
+
+	private static void report(String name, long startTime, long startBytes) {
+		long bytes = allocatedBytes() - startBytes;
+		long time = System.nanoTime() - startTime;
+		System.out.println(name + ": " + (time / (float)TRANSFORMS) + " ns/transform, " + (bytes / (float)TRANSFORMS) + " bytes/transform");
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean)ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread().getId());
+	}
+}
@@ -5,6 +5,7 @@ import java.awt.Color;
 import org.sunflow.math.Point3;
 import org.sunflow.math.Vector3;
 
+import com.briansteen.LightManager;
 import com.briansteen.SunflowAPIAPI;
 
 public class BoxCloud {
@@ -32,6 +33,11 @@ public class BoxCloud {
 		float boxX = 0;
 		float boxY = 0;
 		float boxZ = 0;
+		// the many point lights below are clustered and culled when rendering
+		sunflow.setLightManager(new LightManager(.1f, .001f));
+		
+		// define the box geometry once, every box below is an instance of it
+		sunflow.defineBox("box");
 		
 		for(int i=0;i<boxAmount;i++) {
 		
@@ -58,7 +64,7 @@ public class BoxCloud {
 			// set shiny-diffuse shader
 			// sunflow.setShinyDiffuseShader("myShinyShader", new Color(255,255,255), 1.2f);
 			// draw an object
-			sunflow.drawBox(i + "box", sizeX, sizeY, sizeZ, boxX, boxY, boxZ, rotationX, rotationY, rotationZ);
+			sunflow.drawInstance(i + "box", "box", sizeX, sizeY, sizeZ, boxX, boxY, boxZ, rotationX, rotationY, rotationZ);
 		}
 		sunflow.setIrradianceCacheGIEngine(32, .4f, 1f, 15f, null);
 		
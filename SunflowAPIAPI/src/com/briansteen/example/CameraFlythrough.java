@@ -0,0 +1,51 @@
+package com.briansteen.example;
+
+import java.awt.Color;
+
+import org.sunflow.math.Point3;
+import org.sunflow.math.Vector3;
+
+import com.briansteen.CameraPath;
+import com.briansteen.SunflowAPIAPI;
+
+public class CameraFlythrough {
+	private SunflowAPIAPI sunflow = new SunflowAPIAPI();
+	private int sceneWidth = 640;
+	private int sceneHeight = 480;
+	private int frames = 48;
+	public CameraFlythrough() {
+		// set width and height
+		sunflow.setWidth(sceneWidth);
+		sunflow.setHeight(sceneHeight);
+		// set background color
+		sunflow.setBackground(1f, 1f, 1f);
+		// set camera
+		sunflow.setPinholeCamera("flyCamera", 50f, (float)sceneWidth/sceneHeight);
+		// set basic light
+		sunflow.setSunSkyLight("mySunskyLight");
+		sunflow.setPointLight("myPointLight", new Point3(0,5,5), new Color(255,255,255));
+		// draw a ground plane
+		sunflow.drawPlane("ground", new Point3(0,0,0), new Vector3(0,1,0));
+		// set shader
+		sunflow.setShinyDiffuseShader("myShinyShader", new Color(255,120,0), .5f);
+		// a row of spheres to fly along
+		sunflow.defineSphere("sphere");
+		for(int i=0;i<10;i++) {
+			sunflow.drawInstance("sphere" + i, "sphere", i*2 - 9, 1, (float)Math.sin(i)*2, 1);
+		}
+
+		// camera keyframes, every frame in between follows a spline through them
+		CameraPath path = new CameraPath();
+		Vector3 up = new Vector3(0, 1, 0);
+		path.addKeyframe(0, new Point3(-15, 4, 10), new Point3(-9, 1, 0), up, 50);
+		path.addKeyframe(1, new Point3(-5, 2, 6), new Point3(-3, 1, 0), up, 45);
+		path.addKeyframe(2, new Point3(5, 2, 6), new Point3(3, 1, 0), up, 45);
+		path.addKeyframe(3, new Point3(15, 6, 10), new Point3(9, 1, 0), up, 60);
+
+		// render, the scene is built once and only the camera moves
+		sunflow.renderCameraPath(path, frames, "flythrough_###.png");
+	}
+	public static void main(String args[]) {
+		CameraFlythrough main = new CameraFlythrough();
+	}
+}
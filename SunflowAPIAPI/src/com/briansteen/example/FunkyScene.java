@@ -25,6 +25,8 @@ public class FunkyScene {
 		sunflow.setDirectionalLight("myDirectionalLight", new Point3(-2,3,0), new Vector3(0,0,0), 3, new Color(1f,0f,0f));
 		sunflow.setSphereLight("mySphereLight", new Point3(0,20,-5), new Color(0,0,255), 32, 10);
 
+		// define the sphere geometry once, every sphere below is an instance of it
+		sunflow.defineSphere("sphere");
 		int particleID = 0;
 		for(int i=0;i<particleAmount;i++) {
 		
@@ -47,7 +49,7 @@ public class FunkyScene {
 			
 			sunflow.setShinyDiffuseShader("myShinyDiffuseShader" + particleID, new Color(colorR,colorG,colorB),2f);
 			// draw an object
-			sunflow.drawSphere("sphere" + particleID++, x, y, z, .24f);
+			sunflow.drawInstance("sphere" + particleID++, "sphere", x, y, z, .24f);
 			
 			x += (float)Math.cos(i*.5f)*(i*.015f);
 			y += (float)Math.cos(i*.5f)*(i*.015f);
@@ -56,7 +58,7 @@ public class FunkyScene {
 			// set shader
 			sunflow.setGlassShader("myGlassShader" + particleID, new Color(1f,1f,1f), 2.5f, 3f, new Color(1f,1f,1f));
 			// draw an object
-			sunflow.drawSphere("sphere" + particleID++, x, y, z, .24f);		
+			sunflow.drawInstance("sphere" + particleID++, "sphere", x, y, z, .24f);		
 		}
 		
 		// set shader engine
@@ -5,6 +5,7 @@ import java.awt.Color;
 import org.sunflow.math.Point3;
 import org.sunflow.math.Vector3;
 
+import com.briansteen.LightManager;
 import com.briansteen.SunflowAPIAPI;
 
 public class ParticleSurface {
@@ -30,6 +31,9 @@ public class ParticleSurface {
 		// draw a ground plane
 		sunflow.drawPlane("ground", new Point3(0,0,0), new Vector3(0,1,0));
 		
+		// the many point lights below are clustered and culled when rendering
+		sunflow.setLightManager(new LightManager(.1f, .001f));
+		
 		// coordinates array
 		particleCoordinates = new float[particleAmount*3];
 		// particle start position
@@ -1,17 +1,30 @@
 package sunflowapiapi;
 import java.awt.Color;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.sunflow.SunflowAPI;
+import org.sunflow.core.Display;
 import org.sunflow.core.display.FileDisplay;
 import org.sunflow.core.display.FrameDisplay;
 import org.sunflow.math.Matrix4;
 import org.sunflow.math.Point3;
 import org.sunflow.math.Vector3;
+import org.sunflow.util.FloatArray;
 
 import processing.core.PApplet;
 import processing.core.PGraphics3D;
 import processing.core.PVector;
 
+import com.briansteen.ContentHash;
+import com.briansteen.MeshWelder;
+import com.briansteen.TransformBuilder;
+import com.briansteen.TiledTiffDisplay;
+
 /**
  * This class glues Sunflow and Processing together. Partly borrowed from Hipsterinc P5Sunflow (http://hipstersinc.com/p5sunflow/)
  * @author chwarnow
@@ -28,7 +41,7 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	private String modifierType;
 
 	private FrameDisplay windowDisplay;
-	private FileDisplay fileDisplay;
+	private Display fileDisplay;
 
 	public final String SHADER_AMBIENT_OCCLUSION = "ambient_occlusion";
 	public final String SHADER_TEXTURED_AMBIENT_OCCLUSION = "textured_ambient_occlusion";
@@ -106,6 +119,35 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	
 	// unique name id
 	private int uniqueID = 0;
+	
+	// vertex welding of processing triangles
+	private boolean isWelding = true;
+	private MeshWelder welder = new MeshWelder(0.0001f);
+	
+	// geometry collected per shader until render() when coalescing
+	private boolean isCoalescing = false;
+	private LinkedHashMap<String, FloatArray> coalescedTriangles = new LinkedHashMap<String, FloatArray>();
+	private LinkedHashMap<String, FloatArray> coalescedLines = new LinkedHashMap<String, FloatArray>();
+	
+	// raw geometry recorded while capturing, sent to sunflow only when rendering
+	private static final int CAPTURED_LINES = 0;
+	private static final int CAPTURED_TRIANGLES = 1;
+	private boolean isCapturing = false;
+	private float[] capturedVertices = new float[0];
+	private int capturedVertexLength = 0;
+	private int[] capturedBatches = new int[0];				// kind, offset and count per batch
+	private float[] capturedColors = new float[0];			// r, g, b per batch
+	private SunflowShader[] capturedShaders = new SunflowShader[0];	// shader values per batch
+	private SunflowShader capturedShader;
+	private int capturedBatchCount = 0;
+	
+	// retained mode: objects stay in sunflow between frames, known by the hash of what they are made of
+	private boolean isRetained = false;
+	private boolean isSceneRetained = false;
+	private HashMap<String, Long> retainedObjects = new HashMap<String, Long>();
+	private HashSet<String> drawnObjects = new HashSet<String>();
+	private HashMap<String, String> retainedShaders = new HashMap<String, String>();	// shader per object
+	private ContentHash hash = new ContentHash();
 
 	// modifier parameters
 	private int modifiercount = 0;
@@ -123,6 +165,8 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	//////////////////////////////////////////////////////////////////
 	// Sunflow parameters
 	protected SunflowAPI sunflow;
+	// reused for every transformed primitive
+	private TransformBuilder transform = new TransformBuilder();
 	protected PApplet applet;
 	protected ProcessingDisplay display;
 	
@@ -163,10 +207,24 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 		super.beginDraw();
 		// set default values
 		uniqueID = 0;
-		shader = null;
-		sunflow = null;
-		sunflow = new SunflowAPI();
-		shader = new SunflowShader(sunflow);
+		if(isRetained && isSceneRetained) {
+			// objects of the last frame which were not drawn again, unless its geometry never reached sunflow
+			if(capturedBatchCount == 0 && coalescedTriangles.isEmpty() && coalescedLines.isEmpty()) removeStaleObjects();
+			removeUnusedShaders();
+		}
+		coalescedTriangles.clear();
+		coalescedLines.clear();
+		clearCaptured();
+		drawnObjects.clear();
+		if(!isRetained || !isSceneRetained) {
+			retainedObjects.clear();
+			retainedShaders.clear();
+			shader = null;
+			sunflow = null;
+			sunflow = new SunflowAPI();
+			shader = new SunflowShader(sunflow);
+		}
+		isSceneRetained = isRetained;
 		fov = cameraFOV * RAD_TO_DEG;
 		// default cam
 		this.setPinholeCamera("internal_defaultcamera", fov, aspect);
@@ -192,45 +250,53 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	  protected void renderLines(int start, int stop) {
 		super.renderLines(start, stop);
 		
-		// apply current color to current shader
-		shader.applyCurrentShader(calcR, calcG, calcB);
-		currShader = shader.currentName;
-		
-		float[] hairCoordinates = new float[(stop-start) * 6];
-		float[] hairWidths = new float[] { .05f };
+		float[] segments;
+		int segmentID;
+		if(isCapturing) {
+			// only keep the coordinates, sunflow gets them when rendering
+			segmentID = captureBatch(CAPTURED_LINES, stop-start, 6);
+			segments = capturedVertices;
+		} else {
+			// apply current color to current shader
+			shader.applyCurrentShader(calcR, calcG, calcB);
+			currShader = shader.currentName;
+			segmentID = 0;
+			segments = new float[(stop-start) * 6];
+		}
 		
-		int lineID = 0;
+		int lineID = segmentID;
 		for (int i = start; i < stop; i++) {
 			float[] v0 = vertices[lines[i][VERTEX1]];
 			float[] v1 = vertices[lines[i][VERTEX2]];
-			if(i== start) {
-				hairCoordinates[lineID++] = v0[VX];
-				hairCoordinates[lineID++] = v0[VY];
-				hairCoordinates[lineID++] = v0[VZ];
-				hairCoordinates[lineID++] = v1[VX];
-				hairCoordinates[lineID++] = v1[VY];
-				hairCoordinates[lineID++] = v1[VZ];
-			} else {
-				hairCoordinates[lineID++] = v1[VX];
-				hairCoordinates[lineID++] = v1[VY];
-				hairCoordinates[lineID++] = v1[VZ];
-			}
+			segments[lineID++] = v0[VX];
+			segments[lineID++] = v0[VY];
+			segments[lineID++] = v0[VZ];
+			segments[lineID++] = v1[VX];
+			segments[lineID++] = v1[VY];
+			segments[lineID++] = v1[VZ];
 		}
-		drawHair("line" + uniqueID++, (stop-start), hairCoordinates, hairWidths);
 		
+		if(!isCapturing) submitLines(segments, segmentID, stop-start);
 	}
 	  
 	  protected void renderTriangles(int start, int stop) {
 		  super.renderTriangles(start, stop);
 		  
-		  // apply current color to current shader
-		  shader.applyCurrentShader(calcR, calcG, calcB);
-		  currShader = shader.currentName;
+		  float[] sunflowVertices;
+		  int soupID;
+		  if(isCapturing) {
+			  // only keep the coordinates, sunflow gets them when rendering
+			  soupID = captureBatch(CAPTURED_TRIANGLES, stop-start, 9);
+			  sunflowVertices = capturedVertices;
+		  } else {
+			  // apply current color to current shader
+			  shader.applyCurrentShader(calcR, calcG, calcB);
+			  currShader = shader.currentName;
+			  soupID = 0;
+			  sunflowVertices = new float[(stop-start)*9];
+		  }
 		  
-		  float[] sunflowVertices = new float[(stop-start)*9];
-		  int[] sunflowTriangles = new int[(stop-start)*3];
-		  int vertexID = 0;
-		  int triangleID = 0;
+		  int vertexID = soupID;
 		  for (int i = start; i < stop; i++) {
 			  
 		      float a[] = vertices[triangles[i][VERTEX1]];
@@ -239,21 +305,316 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 		      sunflowVertices[vertexID++] = a[VX];
 		      sunflowVertices[vertexID++] = a[VY];
 		      sunflowVertices[vertexID++] = a[VZ];
-		      sunflowTriangles[triangleID] = triangleID++;
 		      
 		      sunflowVertices[vertexID++] = b[VX];
 		      sunflowVertices[vertexID++] = b[VY];
 		      sunflowVertices[vertexID++] = b[VZ];
-		      sunflowTriangles[triangleID] = triangleID++;
 		      
 		      sunflowVertices[vertexID++] = c[VX];
 		      sunflowVertices[vertexID++] = c[VY];
 		      sunflowVertices[vertexID++] = c[VZ];
-		      sunflowTriangles[triangleID] = triangleID++;
 		  }
-		  this.drawMesh("mesh" + uniqueID++, sunflowVertices, sunflowTriangles);
 		  
+		  if(!isCapturing) submitTriangles(sunflowVertices, soupID, stop-start);
 	  }
+	  
+	  /**
+	   * draws lines with the current shader as one hair object, or keeps them for render() when coalescing
+	   * @param segments 6 floats per line (like [ax,ay,az,bx,by,bz])
+	   * @param offset first index read
+	   * @param count number of lines
+	   */
+	  private void submitLines(float[] segments, int offset, int count) {
+		  if(isCoalescing) {
+			  // every line becomes a one segment strand of the shaders hair object
+			  FloatArray merged = coalescedGeometry(coalescedLines, currShader);
+			  for (int i = offset; i < offset + count*6; i++) merged.add(segments[i]);
+			  return;
+		  }
+		  
+		  // one strand through all lines
+		  float[] hairCoordinates = new float[(count+1) * 3];
+		  float[] hairWidths = new float[] { .05f };
+		  hairCoordinates[0] = segments[offset];
+		  hairCoordinates[1] = segments[offset+1];
+		  hairCoordinates[2] = segments[offset+2];
+		  for (int i = 0; i < count; i++) {
+			  hairCoordinates[i*3+3] = segments[offset + i*6 + 3];
+			  hairCoordinates[i*3+4] = segments[offset + i*6 + 4];
+			  hairCoordinates[i*3+5] = segments[offset + i*6 + 5];
+		  }
+		  String name = isRetained ? retainedName("line", geometryHash("hair").add(count).add(hairCoordinates).add(hairWidths).get()) : "line" + uniqueID++;
+		  drawHair(name, count, hairCoordinates, hairWidths);
+	  }
+	  
+	  /**
+	   * draws triangles with the current shader as one mesh, or keeps them for render() when coalescing
+	   * @param soup 9 floats per triangle
+	   * @param offset first index read
+	   * @param count number of triangles
+	   */
+	  private void submitTriangles(float[] soup, int offset, int count) {
+		  if(isCoalescing) {
+			  FloatArray merged = coalescedGeometry(coalescedTriangles, currShader);
+			  for (int i = offset; i < offset + count*9; i++) merged.add(soup[i]);
+		  } else {
+			  drawTriangles(soup, offset, count);
+		  }
+	  }
+	  
+	  /**
+	   * draws a triangle soup with the current shader as one mesh
+	   * @param soup 9 floats per triangle
+	   * @param offset first index read
+	   * @param count number of triangles
+	   */
+	  private void drawTriangles(float[] soup, int offset, int count) {
+		  String name;
+		  if(isRetained) {
+			  // unchanged triangles are not even welded again
+			  long soupHash = geometryHash("triangle_mesh").add(soup, offset, count*9).add(isWelding).add(welder.getEpsilon()).add(welder.isSmoothNormals()).get();
+			  name = retainedName("mesh", soupHash);
+			  if(retained(name, soupHash)) return;
+		  } else {
+			  name = "mesh" + uniqueID++;
+		  }
+		  if(isWelding) {
+			  // share vertices between triangles
+			  welder.weld(soup, offset, count);
+			  declareMesh(name, welder.getVertices(), welder.getTriangles(), welder.getNormals());
+		  } else {
+			  float[] sunflowVertices = offset == 0 && soup.length == count*9 ? soup : Arrays.copyOfRange(soup, offset, offset + count*9);
+			  int[] sunflowTriangles = new int[count*3];
+			  for (int i = 0; i < sunflowTriangles.length; i++) sunflowTriangles[i] = i;
+			  declareMesh(name, sunflowVertices, sunflowTriangles, null);
+		  }
+	  }
+	  
+	  /**
+	   * returns the buffer collecting geometry for a shader
+	   */
+	  private FloatArray coalescedGeometry(LinkedHashMap<String, FloatArray> geometry, String shaderName) {
+		  FloatArray merged = geometry.get(shaderName);
+		  if(merged == null) {
+			  merged = new FloatArray();
+			  geometry.put(shaderName, merged);
+		  }
+		  return merged;
+	  }
+	  
+	  /**
+	   * draws everything collected while coalescing: one mesh and one hair object per shader
+	   */
+	  private void flushCoalesced() {
+		  String shaderBefore = currShader;
+		  for (Map.Entry<String, FloatArray> entry : coalescedTriangles.entrySet()) {
+			  currShader = entry.getKey();
+			  float[] soup = entry.getValue().trim();
+			  drawTriangles(soup, 0, soup.length / 9);
+		  }
+		  for (Map.Entry<String, FloatArray> entry : coalescedLines.entrySet()) {
+			  currShader = entry.getKey();
+			  float[] points = entry.getValue().trim();
+			  float[] widths = new float[] { .05f };
+			  String name = isRetained ? retainedName("line", geometryHash("hair").add(1).add(points).add(widths).get()) : "line" + uniqueID++;
+			  drawHair(name, 1, points, widths);
+		  }
+		  coalescedTriangles.clear();
+		  coalescedLines.clear();
+		  currShader = shaderBefore;
+	  }
+	  
+	  /**
+	   * starts a new captured batch with the current color and shader
+	   * @param kind CAPTURED_LINES or CAPTURED_TRIANGLES
+	   * @param count number of lines or triangles
+	   * @param size floats per line or triangle
+	   * @return index in capturedVertices where the coordinates go
+	   */
+	  private int captureBatch(int kind, int count, int size) {
+		  int offset = capturedVertexLength;
+		  capturedVertexLength += count * size;
+		  if(capturedVertices.length < capturedVertexLength) {
+			  capturedVertices = Arrays.copyOf(capturedVertices, Math.max(capturedVertexLength, capturedVertices.length * 2));
+		  }
+		  if(capturedShaders.length == capturedBatchCount) {
+			  int length = Math.max(16, capturedBatchCount * 2);
+			  capturedBatches = Arrays.copyOf(capturedBatches, length * 3);
+			  capturedColors = Arrays.copyOf(capturedColors, length * 3);
+			  capturedShaders = Arrays.copyOf(capturedShaders, length);
+		  }
+		  // the shader values only change when a shader is set, the name tells
+		  if(capturedShader == null || !capturedShader.currentName.equals(shader.currentName)) {
+			  capturedShader = new SunflowShader(shader);
+		  }
+		  int batch = capturedBatchCount++;
+		  capturedBatches[batch*3] = kind;
+		  capturedBatches[batch*3+1] = offset;
+		  capturedBatches[batch*3+2] = count;
+		  capturedColors[batch*3] = calcR;
+		  capturedColors[batch*3+1] = calcG;
+		  capturedColors[batch*3+2] = calcB;
+		  capturedShaders[batch] = capturedShader;
+		  return offset;
+	  }
+	  
+	  /**
+	   * sends everything recorded while capturing to sunflow, like it would have been drawn right away
+	   */
+	  private void replayCaptured() {
+		  if(capturedBatchCount == 0) return;
+		  String shaderBefore = currShader;
+		  SunflowShader stateBefore = new SunflowShader(shader);
+		  SunflowShader state = null;
+		  for (int i = 0; i < capturedBatchCount; i++) {
+			  if(capturedShaders[i] != state) {
+				  state = capturedShaders[i];
+				  shader.setState(state);
+			  }
+			  shader.applyCurrentShader(capturedColors[i*3], capturedColors[i*3+1], capturedColors[i*3+2]);
+			  currShader = shader.currentName;
+			  if(capturedBatches[i*3] == CAPTURED_LINES) submitLines(capturedVertices, capturedBatches[i*3+1], capturedBatches[i*3+2]);
+			  else submitTriangles(capturedVertices, capturedBatches[i*3+1], capturedBatches[i*3+2]);
+		  }
+		  shader.setState(stateBefore);
+		  currShader = shaderBefore;
+		  clearCaptured();
+	  }
+	  
+	  /**
+	   * forgets the captured geometry, the buffers are kept for the next frame
+	   */
+	  private void clearCaptured() {
+		  Arrays.fill(capturedShaders, 0, capturedBatchCount, null);
+		  capturedBatchCount = 0;
+		  capturedVertexLength = 0;
+		  capturedShader = null;
+	  }
+	  
+	  /**
+	   * starts the content hash of a geometry with its type, shader and modifier
+	   */
+	  private ContentHash geometryHash(String type) {
+		  return hash.reset().add(type).add(currShader).add(isModifiers ? currModifier : null);
+	  }
+	  
+	  /**
+	   * name for an object known by its content hash, identical objects drawn twice in a frame get their own names
+	   */
+	  private String retainedName(String prefix, long contentHash) {
+		  String name = prefix + Long.toHexString(contentHash);
+		  for (int i = 1; drawnObjects.contains(name); i++) name = prefix + Long.toHexString(contentHash) + "_" + i;
+		  return name;
+	  }
+	  
+	  /**
+	   * in retained mode tells if an object is still in sunflow exactly like this from an earlier frame.
+	   * an object with the same name but other content is removed, so it can be declared again
+	   * @param name object name
+	   * @param contentHash hash of everything the object is made of
+	   * @return true if nothing has to be sent to sunflow
+	   */
+	  private boolean retained(String name, long contentHash) {
+		  if(!isRetained) return false;
+		  drawnObjects.add(name);
+		  retainedShaders.put(name, currShader);
+		  Long previous = retainedObjects.put(name, contentHash);
+		  if(previous == null) return false;
+		  if(previous.longValue() == contentHash) return true;
+		  sunflow.remove(name);
+		  return false;
+	  }
+	  
+	  /**
+	   * removes objects of earlier frames which were not drawn in this frame
+	   */
+	  private void removeStaleObjects() {
+		  if(!isRetained) return;
+		  Iterator<Map.Entry<String, Long>> objects = retainedObjects.entrySet().iterator();
+		  while(objects.hasNext()) {
+			  String name = objects.next().getKey();
+			  if(!drawnObjects.contains(name)) {
+				  sunflow.remove(name);
+				  retainedShaders.remove(name);
+				  objects.remove();
+			  }
+		  }
+	  }
+	  
+	  /**
+	   * removes shaders which were not set since the last time and are not used by a retained object
+	   */
+	  private void removeUnusedShaders() {
+		  if(!isRetained) return;
+		  HashSet<String> keep = new HashSet<String>(retainedShaders.values());
+		  keep.add(currShader);
+		  shader.removeUnusedShaders(keep);
+	  }
+
+	/**
+	 * records processing geometry into plain float arrays and sends it to sunflow only when
+	 * render() is called, so frames which are never rendered stay cheap. lights, cameras and
+	 * shaders are still sent right away. default is off
+	 * @param capture true to capture geometry until render()
+	 */
+	public void setCapturing(boolean capture) {
+		if(!capture) replayCaptured();
+		isCapturing = capture;
+	}
+	
+	/**
+	 * keeps the sunflow scene between frames instead of building it again in beginDraw().
+	 * geometry and lights are recognised by what they are made of, only new or changed objects
+	 * are sent to sunflow and objects which were not drawn again are removed in the next
+	 * beginDraw() or when rendering, so unchanged objects keep their acceleration structures.
+	 * shaders no object uses any more are removed as well. default is off
+	 * @param retain true to keep the scene between frames
+	 */
+	public void setRetained(boolean retain) {
+		isRetained = retain;
+		if(!retain) {
+			retainedObjects.clear();
+			retainedShaders.clear();
+			drawnObjects.clear();
+		}
+	}
+	
+	/**
+	 * collects all triangles and lines of a frame per shader and draws them as one mesh and
+	 * one hair object per shader when rendering, instead of one object per processing flush.
+	 * default is off
+	 * @param coalesce true to merge geometry per shader
+	 */
+	public void setCoalescing(boolean coalesce) {
+		if(!coalesce) flushCoalesced();
+		isCoalescing = coalesce;
+	}
+	
+	/**
+	 * turns welding of processing triangles into shared vertices on or off, default is on
+	 * @param weld true to send indexed meshes to sunflow
+	 */
+	public void setVertexWelding(boolean weld) {
+		isWelding = weld;
+	}
+	
+	/**
+	 * turns welding of processing triangles into shared vertices on or off
+	 * @param weld true to send indexed meshes to sunflow
+	 * @param epsilon vertices closer than this are merged
+	 */
+	public void setVertexWelding(boolean weld, float epsilon) {
+		isWelding = weld;
+		welder.setEpsilon(epsilon);
+	}
+	
+	/**
+	 * sends smooth vertex normals with welded meshes, default is off
+	 * @param smooth true for smooth shading
+	 */
+	public void setSmoothNormals(boolean smooth) {
+		welder.setSmoothNormals(smooth);
+	}
 
 	//////////////////////////////////////////////////////////////////
 	// Background Methods
@@ -286,6 +647,7 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param color light color
 	 */
 	public void setDirectionalLight(String name, Point3 source, Vector3 direction, float radius, Color color) {
+		if(isRetained && retained(name, hash.reset().add(LIGHT_DIRECTIONAL).add(colorSpace).add(source).add(direction).add(radius).add(color.getRGB()).get())) return;
 		sunflow.parameter("source", source);
 		sunflow.parameter("dir", direction);
 		sunflow.parameter("radius", radius);
@@ -302,6 +664,7 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param texture Path to texture file
 	 */
 	public void setImageBasedLight(String name, Vector3 center, Vector3 up, int samples, int lowSamples, String texture) {
+		if(isRetained && retained(name, hash.reset().add(LIGHT_IMAGEBASED).add(center).add(up).add(samples).add(lowSamples).add(texture).get())) return;
 		sunflow.parameter("center", center);
 		sunflow.parameter("up", up);
 		sunflow.parameter("samples", samples);
@@ -316,6 +679,7 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param color light color
 	 */
 	public void setPointLight(String name, Point3 center, Color color) {
+		if(isRetained && retained(name, hash.reset().add(LIGHT_POINT).add(colorSpace).add(center).add(color.getRGB()).get())) return;
 		sunflow.parameter("center", center);
 		sunflow.parameter("power", colorSpace, color.getRed()/(float)255, color.getGreen()/(float)255, color.getBlue()/(float)255);
 		sunflow.light( name, this.LIGHT_POINT );
@@ -329,6 +693,7 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param radius light size
 	 */
 	public void setSphereLight(String name, Point3 center, Color color, int samples, float radius) {
+		if(isRetained && retained(name, hash.reset().add(LIGHT_SPHERE).add(colorSpace).add(center).add(color.getRGB()).add(samples).add(radius).get())) return;
 		sunflow.parameter("center", center);
 		sunflow.parameter("radiance", colorSpace, color.getRed()/(float)255, color.getGreen()/(float)255, color.getBlue()/(float)255);
 		sunflow.parameter("samples", samples);
@@ -340,6 +705,7 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param name Individual name
 	 */
 	public void setSunSkyLight(String name) {
+		if(isRetained && retained(name, hash.reset().add(LIGHT_SUNSKY).get())) return;
 		sunflow.parameter( "up", new Vector3( 0, 0, 1 ) ); 
 		sunflow.parameter( "east", new Vector3( 0, 1, 0 ) ); 
 		sunflow.parameter( "sundir", new Vector3( 1, -1, 0.31f ) ); 
@@ -359,6 +725,7 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param groundExtendSky ?
 	 */
 	public void setSunSkyLight(String name, Vector3 up, Vector3 east, Vector3 direction, Color color, int samples, float turbidity, boolean groundExtendSky) {
+		if(isRetained && retained(name, hash.reset().add(LIGHT_SUNSKY).add(colorSpace).add(up).add(east).add(direction).add(color.getRGB()).add(samples).add(turbidity).add(groundExtendSky).get())) return;
 		sunflow.parameter("up", up);
 		sunflow.parameter("east", east);
 		sunflow.parameter("sundir", direction);
@@ -378,6 +745,7 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param triangles int array connecting the vertices (like [0,1,2])
 	 */
 	public void drawMeshLight(String name, Color color, int samples, float[] vertices, int[] triangles) {
+		if(isRetained && retained(name, hash.reset().add(LIGHT_MESH).add(colorSpace).add(color.getRGB()).add(samples).add(vertices).add(triangles).get())) return;
 		sunflow.parameter("points", "point", "vertex", vertices); 
 		sunflow.parameter("triangles", triangles);
 		
@@ -855,8 +1223,14 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 */
 		
 	public void setPerlinModifier(String name, int function, float size, float scale) {
-		currModifier = name + modifiercount;		
+		// in retained mode the same modifier keeps its name between frames
+		if(isRetained) currModifier = name + "_" + Long.toHexString(hash.reset().add(function).add(size).add(scale).get());
+		else currModifier = name + modifiercount;		
 		modifierType = MODIFIER_PERLIN_MAP;
+		if(isRetained && sunflow.lookupModifier(currModifier) != null) {
+			isModifiers = true;
+			return;
+		}
 		
 		sunflow.parameter("function", function);
 		sunflow.parameter("size", size);
@@ -884,8 +1258,28 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param triangles int array connecting the vertices (like [0,1,2])
 	 */
 	public void drawMesh(String name, float[] vertices, int[] triangles) {
+		drawMesh(name, vertices, triangles, null);
+	}
+
+	/**
+	 * draws a mesh primitive with vertex normals
+	 * @param name individual name of primitive
+	 * @param vertices Float array with coordinates (like [x0,y0,z0,x1,y1,z1,x2,y2,z2])
+	 * @param triangles int array connecting the vertices (like [0,1,2])
+	 * @param normals Float array with one normal per vertex, null for flat shading
+	 */
+	public void drawMesh(String name, float[] vertices, int[] triangles, float[] normals) {
+		if(isRetained && retained(name, geometryHash("triangle_mesh").add(vertices).add(triangles).add(normals).get())) return;
+		declareMesh(name, vertices, triangles, normals);
+	}
+	
+	/**
+	 * sends a mesh and its instance to sunflow
+	 */
+	private void declareMesh(String name, float[] vertices, int[] triangles, float[] normals) {
 		sunflow.parameter("points", "point", "vertex", vertices); 
 		sunflow.parameter("triangles", triangles);
+		if(normals != null) sunflow.parameter("normals", "vector", "vertex", normals);
 		sunflow.geometry( name, "triangle_mesh" );
 		sunflow.parameter( "shaders", currShader);
 		if(isModifiers) sunflow.parameter("modifiers", currModifier);
@@ -905,6 +1299,7 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param points Float array with coordinates (like [x0,y0,z0,x1,y1,z1,x2,y2,z2])
 	 */
 	public void drawBezierMesh(String name, int subdivs, boolean smooth, boolean quads, int nu, int nv, boolean uwrap, boolean vwrap, float[] points) {
+		if(isRetained && retained(name, geometryHash("bezier_mesh").add(subdivs).add(smooth).add(quads).add(nu).add(nv).add(uwrap).add(vwrap).add(points).get())) return;
 		sunflow.parameter("subdivs", subdivs);
 		sunflow.parameter("smooth", smooth);
 		sunflow.parameter("quads", quads);
@@ -925,6 +1320,7 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param name Individual name
 	 */
 	public void drawSphere(String name) {
+		if(isRetained && retained(name, geometryHash("sphere").get())) return;
 		sunflow.geometry( name, "sphere" );
 		sunflow.parameter( "shaders", currShader);
 		if(isModifiers) sunflow.parameter("modifiers", currModifier);
@@ -939,12 +1335,8 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param size size
 	 */
 	public void drawSphere(String name, float x, float y, float z, float size) {
-		Matrix4 translate = Matrix4.IDENTITY.multiply( Matrix4.translation(x, y, z ));
-		Matrix4 scale = Matrix4.IDENTITY.multiply( Matrix4.scale(size, size, size) );
-
-		Matrix4 m = Matrix4.IDENTITY;
-		m = scale.multiply(m);
-		m = translate.multiply(m);
+		if(isRetained && retained(name, geometryHash("sphere").add(x).add(y).add(z).add(size).get())) return;
+		Matrix4 m = transform.identity().scale(size, size, size).translate(x, y, z).toMatrix4();
 
 		sunflow.geometry( name, "sphere" );
 		sunflow.parameter( "shaders", currShader);
@@ -957,6 +1349,7 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param name Individual name
 	 */
 	public void drawBox(String name) {
+		if(isRetained && retained(name, geometryHash("box").get())) return;
 		sunflow.geometry( name, "box" );
 		sunflow.parameter( "shaders", currShader);
 		if(isModifiers) sunflow.parameter("modifiers", currModifier);
@@ -972,12 +1365,8 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param size size
 	 */
 	public void drawBox(String name, float x, float y, float z, float size) {
-		Matrix4 translate = Matrix4.IDENTITY.multiply( Matrix4.translation(x, y, z ));
-		Matrix4 scale = Matrix4.IDENTITY.multiply( Matrix4.scale(size, size, size) );
-
-		Matrix4 m = Matrix4.IDENTITY;
-		m = scale.multiply(m);
-		m = translate.multiply(m);
+		if(isRetained && retained(name, geometryHash("box").add(x).add(y).add(z).add(size).get())) return;
+		Matrix4 m = transform.identity().scale(size, size, size).translate(x, y, z).toMatrix4();
 
 		sunflow.geometry( name, "box" );
 		sunflow.parameter( "shaders", currShader);
@@ -999,17 +1388,8 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param zRotation z rotation
 	 */
 	public void drawBox(String name, float size, float x, float y, float z, float xRotation, float yRotation, float zRotation) {
-		Matrix4 translate = Matrix4.IDENTITY.multiply( Matrix4.translation(x, y, z ));
-		Matrix4 scale = Matrix4.IDENTITY.multiply( Matrix4.scale(size, size, size) );
-		Matrix4 rotate = Matrix4.IDENTITY 
-		.multiply( Matrix4.rotateZ(zRotation) ) 
-		.multiply( Matrix4.rotateX(xRotation) ) 
-		.multiply( Matrix4.rotateY(yRotation) );
-
-		Matrix4 m = Matrix4.IDENTITY;
-		m = scale.multiply(m);
-		m = rotate.multiply(m); 
-		m = translate.multiply(m);
+		if(isRetained && retained(name, geometryHash("box").add(size).add(x).add(y).add(z).add(xRotation).add(yRotation).add(zRotation).get())) return;
+		Matrix4 m = transform.set(size, size, size, xRotation, yRotation, zRotation, x, y, z).toMatrix4();
 
 		sunflow.geometry( name, "box" );
 		sunflow.parameter( "shaders", currShader);
@@ -1033,17 +1413,8 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param zRotation z rotation
 	 */
 	public void drawBox(String name, float xSize, float ySize, float zSize, float x, float y, float z, float xRotation, float yRotation, float zRotation) {
-		Matrix4 translate = Matrix4.IDENTITY.multiply( Matrix4.translation(x, y, z ));
-		Matrix4 scale = Matrix4.IDENTITY.multiply( Matrix4.scale(xSize, ySize, zSize) );
-		Matrix4 rotate = Matrix4.IDENTITY 
-		.multiply( Matrix4.rotateZ(zRotation) ) 
-		.multiply( Matrix4.rotateX(xRotation) ) 
-		.multiply( Matrix4.rotateY(yRotation) );
-
-		Matrix4 m = Matrix4.IDENTITY;
-		m = scale.multiply(m);
-		m = rotate.multiply(m); 
-		m = translate.multiply(m);
+		if(isRetained && retained(name, geometryHash("box").add(xSize).add(ySize).add(zSize).add(x).add(y).add(z).add(xRotation).add(yRotation).add(zRotation).get())) return;
+		Matrix4 m = transform.set(xSize, ySize, zSize, xRotation, yRotation, zRotation, x, y, z).toMatrix4();
 
 		sunflow.geometry( name, "box" );
 		sunflow.parameter( "shaders", currShader);
@@ -1057,6 +1428,7 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param name Individual name
 	 */
 	public void drawCylinder(String name) {
+		if(isRetained && retained(name, geometryHash("cylinder").get())) return;
 		sunflow.geometry( name, "cylinder" );
 		sunflow.parameter( "shaders", currShader);
 		if(isModifiers) sunflow.parameter("modifiers", currModifier);
@@ -1071,12 +1443,8 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param size size
 	 */
 	public void drawCylinder(String name, float x, float y, float z, float size) {
-		Matrix4 translate = Matrix4.IDENTITY.multiply( Matrix4.translation(x, y, z ));
-		Matrix4 scale = Matrix4.IDENTITY.multiply( Matrix4.scale(size, size, size) );
-
-		Matrix4 m = Matrix4.IDENTITY;
-		m = scale.multiply(m);
-		m = translate.multiply(m);
+		if(isRetained && retained(name, geometryHash("cylinder").add(x).add(y).add(z).add(size).get())) return;
+		Matrix4 m = transform.identity().scale(size, size, size).translate(x, y, z).toMatrix4();
 
 		sunflow.geometry( name, "cylinder" );
 		sunflow.parameter( "shaders", currShader);
@@ -1097,17 +1465,8 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param zRotation z rotation
 	 */
 	public void drawCylinder(String name, float x, float y, float z, float size, float xRotation, float yRotation, float zRotation) {
-		Matrix4 translate = Matrix4.IDENTITY.multiply( Matrix4.translation(x, y, z ));
-		Matrix4 scale = Matrix4.IDENTITY.multiply( Matrix4.scale(size, size, size) );
-		Matrix4 rotate = Matrix4.IDENTITY 
-		.multiply( Matrix4.rotateZ(zRotation) ) 
-		.multiply( Matrix4.rotateX(xRotation) ) 
-		.multiply( Matrix4.rotateY(yRotation) );
-
-		Matrix4 m = Matrix4.IDENTITY;
-		m = scale.multiply(m);
-		m = rotate.multiply(m); 
-		m = translate.multiply(m);
+		if(isRetained && retained(name, geometryHash("cylinder").add(x).add(y).add(z).add(size).add(xRotation).add(yRotation).add(zRotation).get())) return;
+		Matrix4 m = transform.set(size, size, size, xRotation, yRotation, zRotation, x, y, z).toMatrix4();
 
 		sunflow.geometry( name, "cylinder" );
 		sunflow.parameter( "shaders", currShader);
@@ -1131,17 +1490,8 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param zRotation z rotation
 	 */
 	public void drawCylinder(String name, float xSize, float ySize, float zSize, float x, float y, float z, float xRotation, float yRotation, float zRotation) {
-		Matrix4 translate = Matrix4.IDENTITY.multiply( Matrix4.translation(x, y, z ));
-		Matrix4 scale = Matrix4.IDENTITY.multiply( Matrix4.scale(xSize, ySize, zSize) );
-		Matrix4 rotate = Matrix4.IDENTITY 
-		.multiply( Matrix4.rotateZ(zRotation) ) 
-		.multiply( Matrix4.rotateX(xRotation) ) 
-		.multiply( Matrix4.rotateY(yRotation) );
-
-		Matrix4 m = Matrix4.IDENTITY;
-		m = scale.multiply(m);
-		m = rotate.multiply(m); 
-		m = translate.multiply(m);
+		if(isRetained && retained(name, geometryHash("cylinder").add(xSize).add(ySize).add(zSize).add(x).add(y).add(z).add(xRotation).add(yRotation).add(zRotation).get())) return;
+		Matrix4 m = transform.set(xSize, ySize, zSize, xRotation, yRotation, zRotation, x, y, z).toMatrix4();
 
 		sunflow.geometry( name, "cylinder" );
 		sunflow.parameter( "shaders", currShader);
@@ -1155,6 +1505,7 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param name Individual name
 	 */
 	public void drawBanchoffSurface(String name) {
+		if(isRetained && retained(name, geometryHash("banchoff").get())) return;
 		sunflow.geometry( name, "banchoff" );
 		sunflow.parameter( "shaders", currShader);
 		if(isModifiers) sunflow.parameter("modifiers", currModifier);
@@ -1169,12 +1520,8 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param size size
 	 */
 	public void drawBanchoffSurface(String name, float x, float y, float z, float size) {
-		Matrix4 translate = Matrix4.IDENTITY.multiply( Matrix4.translation(x, y, z ));
-		Matrix4 scale = Matrix4.IDENTITY.multiply( Matrix4.scale(size, size, size) );
-
-		Matrix4 m = Matrix4.IDENTITY;
-		m = scale.multiply(m);
-		m = translate.multiply(m);
+		if(isRetained && retained(name, geometryHash("banchoff").add(x).add(y).add(z).add(size).get())) return;
+		Matrix4 m = transform.identity().scale(size, size, size).translate(x, y, z).toMatrix4();
 
 		sunflow.geometry( name, "banchoff" );
 		sunflow.parameter( "shaders", currShader);
@@ -1195,17 +1542,8 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param zRotation z rotation
 	 */
 	public void drawBanchoffSurface(String name, float x, float y, float z, float size, float xRotation, float yRotation, float zRotation) {
-		Matrix4 translate = Matrix4.IDENTITY.multiply( Matrix4.translation(x, y, z ));
-		Matrix4 scale = Matrix4.IDENTITY.multiply( Matrix4.scale(size, size, size) );
-		Matrix4 rotate = Matrix4.IDENTITY 
-		.multiply( Matrix4.rotateZ(zRotation) ) 
-		.multiply( Matrix4.rotateX(xRotation) ) 
-		.multiply( Matrix4.rotateY(yRotation) );
-
-		Matrix4 m = Matrix4.IDENTITY;
-		m = scale.multiply(m);
-		m = rotate.multiply(m); 
-		m = translate.multiply(m);
+		if(isRetained && retained(name, geometryHash("banchoff").add(x).add(y).add(z).add(size).add(xRotation).add(yRotation).add(zRotation).get())) return;
+		Matrix4 m = transform.set(size, size, size, xRotation, yRotation, zRotation, x, y, z).toMatrix4();
 
 		sunflow.geometry( name, "banchoff" );
 		sunflow.parameter( "shaders", currShader);
@@ -1249,18 +1587,9 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 
 
 	public void drawJulia(String name, float x, float y, float z, float size, float xRotation, float yRotation, float zRotation, float[] q, int iterations, float epsilon) {
+		if(isRetained && retained(name, geometryHash("julia").add(x).add(y).add(z).add(size).add(xRotation).add(yRotation).add(zRotation).add(q).add(iterations).add(epsilon).get())) return;
 
-		Matrix4 translate = Matrix4.IDENTITY.multiply( Matrix4.translation(x, y, z ));
-		Matrix4 scale = Matrix4.IDENTITY.multiply( Matrix4.scale(size, size, size) );
-		Matrix4 rotate = Matrix4.IDENTITY 
-		.multiply( Matrix4.rotateZ(zRotation) ) 
-		.multiply( Matrix4.rotateX(xRotation) ) 
-		.multiply( Matrix4.rotateY(yRotation) );
-
-		Matrix4 m = Matrix4.IDENTITY;
-		m = scale.multiply(m);
-		m = rotate.multiply(m); 
-		m = translate.multiply(m);
+		Matrix4 m = transform.set(size, size, size, xRotation, yRotation, zRotation, x, y, z).toMatrix4();
 
 		sunflow.parameter("iterations", iterations);
 		sunflow.parameter("epsilon", epsilon);
@@ -1289,6 +1618,7 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 */
 
 	public void drawSphereFlake(String name, int level, Vector3 axis, float radius) {
+		if(isRetained && retained(name, geometryHash("sphereflake").add(level).add(axis).add(radius).get())) return;
 		sunflow.parameter("level", level);
 		sunflow.parameter("axis", axis);
  		sunflow.parameter("radius", radius);
@@ -1317,17 +1647,8 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 
 	public void drawSphereFlake(String name, float x, float y, float z, float size, float xRotation, float yRotation, float zRotation,
 	int level, Vector3 axis, float radius) {
-		Matrix4 translate = Matrix4.IDENTITY.multiply( Matrix4.translation(x, y, z ));
-		Matrix4 scale = Matrix4.IDENTITY.multiply( Matrix4.scale(size, size, size) );
-		Matrix4 rotate = Matrix4.IDENTITY 
-		.multiply( Matrix4.rotateZ(zRotation) ) 
-		.multiply( Matrix4.rotateX(xRotation) ) 
-		.multiply( Matrix4.rotateY(yRotation) );
-
-		Matrix4 m = Matrix4.IDENTITY;
-		m = scale.multiply(m);
-		m = rotate.multiply(m); 
-		m = translate.multiply(m);
+		if(isRetained && retained(name, geometryHash("sphereflake").add(x).add(y).add(z).add(size).add(xRotation).add(yRotation).add(zRotation).add(level).add(axis).add(radius).get())) return;
+		Matrix4 m = transform.set(size, size, size, xRotation, yRotation, zRotation, x, y, z).toMatrix4();
 
 		sunflow.parameter("level", level);
 		sunflow.parameter("axis", axis);
@@ -1345,6 +1666,7 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param name Individual name
 	 */
 	public void setBackground(String name) {
+		if(isRetained && retained(name, geometryHash("background").get())) return;
 		sunflow.geometry( name, "background" );
 		sunflow.parameter( "shaders", currShader);
 		if(isModifiers) sunflow.parameter("modifiers", currModifier);
@@ -1359,6 +1681,7 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param widths hairwidth ?
 	 */
 	public void drawHair(String name, int segments, float[] points, float[] widths) {
+		if(isRetained && retained(name, geometryHash("hair").add(segments).add(points).add(widths).get())) return;
 		sunflow.parameter("segments", segments);
 		sunflow.parameter("widths", "float", "none", widths);
 		sunflow.parameter("points", "point", "vertex", points);
@@ -1378,6 +1701,7 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param num Number of Particles
 	 */
 	public void drawParticleSurface(String name, float[] particles, float radius, int num) {
+		if(isRetained && retained(name, geometryHash("particles").add(particles).add(radius).add(num).get())) return;
 		sunflow.parameter("particles", "point", "vertex", particles);
 		sunflow.parameter("num", num);
 		sunflow.parameter("radius", radius);
@@ -1394,6 +1718,7 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 * @param normal normal of plane
 	 */
 	public void drawPlane(String name, Point3 center, Vector3 normal) {
+		if(isRetained && retained(name, geometryHash("plane").add(center).add(normal).get())) return;
 		sunflow.parameter("center", center);
 		sunflow.parameter("normal", normal);
 
@@ -1403,6 +1728,82 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 		sunflow.instance( name + ".instance", name );
 	}
 
+	/**
+	 * draws many boxes in one call. all boxes share one box geometry called name,
+	 * box i is placed as instance "name.i" with the current shader
+	 * @param name Individual name
+	 * @param positions x,y,z per box (like [x0,y0,z0,x1,y1,z1])
+	 * @param sizes null for size 1, one size per box or xSize,ySize,zSize per box
+	 * @param rotations null for no rotation or xRotation,yRotation,zRotation per box
+	 */
+	public void drawBoxes(String name, float[] positions, float[] sizes, float[] rotations) {
+		drawInstances(name, "box", positions, sizes, rotations);
+	}
+	/**
+	 * draws many spheres in one call. all spheres share one sphere geometry called name,
+	 * sphere i is placed as instance "name.i" with the current shader
+	 * @param name Individual name
+	 * @param positions x,y,z per sphere (like [x0,y0,z0,x1,y1,z1])
+	 * @param sizes null for size 1, one size per sphere or xSize,ySize,zSize per sphere
+	 */
+	public void drawSpheres(String name, float[] positions, float[] sizes) {
+		drawInstances(name, "sphere", positions, sizes, null);
+	}
+	/**
+	 * draws many cylinders in one call. all cylinders share one cylinder geometry called name,
+	 * cylinder i is placed as instance "name.i" with the current shader
+	 * @param name Individual name
+	 * @param positions x,y,z per cylinder (like [x0,y0,z0,x1,y1,z1])
+	 * @param sizes null for size 1, one size per cylinder or xSize,ySize,zSize per cylinder
+	 * @param rotations null for no rotation or xRotation,yRotation,zRotation per cylinder
+	 */
+	public void drawCylinders(String name, float[] positions, float[] sizes, float[] rotations) {
+		drawInstances(name, "cylinder", positions, sizes, rotations);
+	}
+
+	/**
+	 * defines one geometry and places an instance of it for every position
+	 */
+	private void drawInstances(String name, String type, float[] positions, float[] sizes, float[] rotations) {
+		if(positions.length % 3 != 0) throw new IllegalArgumentException("positions needs 3 values per object, " + positions.length + " values given");
+		int count = positions.length / 3;
+		if(sizes != null && sizes.length != count && sizes.length != count * 3) {
+			throw new IllegalArgumentException("sizes needs 1 or 3 values per object, " + sizes.length + " values for " + count + " objects");
+		}
+		boolean uniformSize = sizes != null && sizes.length == count;
+		if(rotations != null && rotations.length < count * 3) throw new IllegalArgumentException("rotations needs 3 values per object");
+		if(isRetained && retained(name, geometryHash(type).add(positions).add(sizes).add(rotations).get())) return;
+
+		sunflow.geometry( name, type );
+
+		float[] m = new float[16];
+		StringBuilder instanceName = new StringBuilder(name).append('.');
+		int prefixLength = instanceName.length();
+		for(int i=0;i<count;i++) {
+			float xSize = 1, ySize = 1, zSize = 1;
+			if(uniformSize) {
+				xSize = ySize = zSize = sizes[i];
+			} else if(sizes != null) {
+				xSize = sizes[i*3];
+				ySize = sizes[i*3+1];
+				zSize = sizes[i*3+2];
+			}
+			if(rotations != null) {
+				TransformBuilder.compose(m, 0, xSize, ySize, zSize, rotations[i*3], rotations[i*3+1], rotations[i*3+2], positions[i*3], positions[i*3+1], positions[i*3+2]);
+			} else {
+				TransformBuilder.compose(m, 0, xSize, ySize, zSize, 0, 0, 0, positions[i*3], positions[i*3+1], positions[i*3+2]);
+			}
+
+			instanceName.setLength(prefixLength);
+			instanceName.append(i).append(".instance");
+
+			sunflow.parameter( "shaders", currShader);
+			if(isModifiers) sunflow.parameter("modifiers", currModifier);
+			sunflow.parameter( "transform", new Matrix4(m, true) );
+			sunflow.instance( instanceName.toString(), name );
+		}
+	}
+
 	/*
 	 * END OF PRIMITIVES
 	 * --------------------------------------------------------------------------------------
@@ -1421,6 +1822,7 @@ public class P5SunflowAPIAPI extends PGraphics3D {
      * @param points a float array of Point3s.
      */
     public void drawCircularShape(String name, Point3[] points) {
+        if(isRetained && retained(name, geometryHash("triangle_mesh").add(points).get())) return;
 //    	 vertex amount
         int verticesLength = points.length*3;
         int trianglesLength = points.length-1;
@@ -1548,7 +1950,7 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 		sunflow.parameter("shift.x", shiftX);
 		sunflow.parameter("shift.y", shiftY);
 
-		sunflow.camera(name, CAMERA_PINHOLE);
+		declareCamera(name, CAMERA_PINHOLE);
 	}
 	/**
 	 * set a pinhole camera
@@ -1580,7 +1982,7 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 		sunflow.parameter("shift.x", shiftX);
 		sunflow.parameter("shift.y", shiftY);
 
-		sunflow.camera(name, CAMERA_PINHOLE);
+		declareCamera(name, CAMERA_PINHOLE);
 	}
 
 	/**
@@ -1604,7 +2006,7 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 		sunflow.parameter("fov", fov);
 		sunflow.parameter("aspect", aspect);
 
-		sunflow.camera(name, CAMERA_THINLENS);
+		declareCamera(name, CAMERA_THINLENS);
 	}
 	
 	/**
@@ -1648,7 +2050,7 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 		sunflow.parameter("lens.sides", sides);
 		sunflow.parameter("lens.rotation", lensRotation);
 
-		sunflow.camera(name, CAMERA_THINLENS);
+		declareCamera(name, CAMERA_THINLENS);
 	}
 
 	/**
@@ -1665,7 +2067,7 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 				cameraInv.m30, cameraInv.m31, cameraInv.m32, cameraInv.m33};
 		sunflow.parameter("transform", new Matrix4( camMatrix, true));
 
-		sunflow.camera(name, CAMERA_FISHEYE);
+		declareCamera(name, CAMERA_FISHEYE);
 	}
 
 	/**
@@ -1682,7 +2084,14 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 				cameraInv.m30, cameraInv.m31, cameraInv.m32, cameraInv.m33};
 		sunflow.parameter("transform", new Matrix4( camMatrix, true)); 
 
-		sunflow.camera(name, CAMERA_SPHERICAL);
+		declareCamera(name, CAMERA_SPHERICAL);
+	}
+	/**
+	 * declares a camera, replacing an existing one with the same name
+	 */
+	private void declareCamera(String name, String type) {
+		if(sunflow.lookupCamera(name) != null) sunflow.remove(name);
+		sunflow.camera(name, type);
 	}
 	/**
 	 * resends current camera parameters to sunflow
@@ -1819,8 +2228,10 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	 */
 	public void setBackground(float red, float green, float blue){
 		if(sunflow != null) {
+			if(isRetained && retained("internal_background", hash.reset().add("background").add(red).add(green).add(blue).get())) return;
 			sunflow.parameter("color", null, red, green, blue);
 			removeBackground();
+			removeShader("background.shader");
 			sunflow.shader("background.shader", "constant"); 
 			sunflow.geometry("internal_background", "background"); 
 			sunflow.parameter("shaders", "background.shader"); 
@@ -1832,6 +2243,11 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 	}
 	
 	public void render(){
+		// send captured geometry, draw geometry collected per shader and remove what was not drawn again
+		replayCaptured();
+		flushCoalesced();
+		removeStaleObjects();
+		removeUnusedShaders();
 		System.out.println("after scene.set : " + sunflow.getBounds().toString());
 		System.out.println("after camera.set : " + sunflow.getBounds().toString());
 //		rendering options
@@ -1847,6 +2263,11 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 		sunflow.render(SunflowAPI.DEFAULT_OPTIONS, display);
 	}
 	public void render(boolean isPreview) {
+		// send captured geometry, draw geometry collected per shader and remove what was not drawn again
+		replayCaptured();
+		flushCoalesced();
+		removeStaleObjects();
+		removeUnusedShaders();
 		System.out.println("after scene.set : " + sunflow.getBounds().toString());
 		System.out.println("after camera.set : " + sunflow.getBounds().toString());
 		if (isPreview) {
@@ -1864,6 +2285,11 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 		}
 	}
 	public void render(String fileName) {
+		// send captured geometry, draw geometry collected per shader and remove what was not drawn again
+		replayCaptured();
+		flushCoalesced();
+		removeStaleObjects();
+		removeUnusedShaders();
 		System.out.println("after scene.set : " + sunflow.getBounds().toString());
 		System.out.println("after camera.set : " + sunflow.getBounds().toString());
 //		rendering options
@@ -1875,10 +2301,15 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 		sunflow.parameter("bucket.order", currBucketOrder);
 		sunflow.parameter("filter", currFilter);
 		sunflow.options(SunflowAPI.DEFAULT_OPTIONS);
-		fileDisplay = new FileDisplay(fileName);
+		fileDisplay = createFileDisplay(fileName);
 		sunflow.render(SunflowAPI.DEFAULT_OPTIONS, fileDisplay);
 	}
 	public void render(boolean isPreview, String fileName) {
+		// send captured geometry, draw geometry collected per shader and remove what was not drawn again
+		replayCaptured();
+		flushCoalesced();
+		removeStaleObjects();
+		removeUnusedShaders();
 		System.out.println("after scene.set : " + sunflow.getBounds().toString());
 		System.out.println("after camera.set : " + sunflow.getBounds().toString());
 		if (isPreview) {
@@ -1889,18 +2320,30 @@ public class P5SunflowAPIAPI extends PGraphics3D {
 			sunflow.parameter("aa.max", previewAaMax);
 			sunflow.parameter("bucket.order", this.BUCKET_ORDER_SPIRAL);
 			sunflow.options(SunflowAPI.DEFAULT_OPTIONS);
-			fileDisplay = new FileDisplay(fileName);
+			fileDisplay = createFileDisplay(fileName);
 			sunflow.render(SunflowAPI.DEFAULT_OPTIONS, fileDisplay);
 		} else {
 			render(fileName);
 		}
 	}
 	
+	/**
+	 * display for a file name. tiff files are written tile by tile while rendering,
+	 * so even very large images never have to fit into memory
+	 * @param fileName image file
+	 */
+	private Display createFileDisplay(String fileName) {
+		String lowerCase = fileName.toLowerCase();
+		if(lowerCase.endsWith(".tif") || lowerCase.endsWith(".tiff")) return new TiledTiffDisplay(fileName);
+		return new FileDisplay(fileName);
+	}
 	/**
 	 * remove sunflow object. function checks if object is existing first
 	 * @param name
 	 */
 	public void removeObject(String name) {
+		retainedObjects.remove(name);
+		retainedShaders.remove(name);
 		if(sunflow.lookupGeometry(name) != null) sunflow.remove(name);
 	}
 	/*
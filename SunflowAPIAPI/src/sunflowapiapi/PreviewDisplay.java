@@ -3,22 +3,51 @@ package sunflowapiapi;
 import java.applet.Applet;
 import java.awt.Color;
 import java.awt.Graphics;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
 
 public class PreviewDisplay extends Applet {
 	private static final long serialVersionUID = 1217073147340426413L;
 	private int width, height;
 	
+	// one image for the whole render, buckets are copied straight into its pixels
+	private BufferedImage image;
+	private int[] raster;
+	
 	public void setup(int width, int height) {
 		this.width = width;
 		this.height = height;
+		if(image == null || image.getWidth() != width || image.getHeight() != height) {
+			image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+			raster = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+		}
+	}
+	
+	/**
+	 * copies a rectangle of pixels into the preview, repaint() shows it
+	 * @param pixels pixels of the whole image, row by row
+	 * @param x left side of the rectangle
+	 * @param y top side of the rectangle
+	 * @param w rectangle width
+	 * @param h rectangle height
+	 */
+	public void copy(int[] pixels, int x, int y, int w, int h) {
+		if(raster == null) return;
+		for(int row=y;row<y+h;row++) {
+			System.arraycopy(pixels, row * width + x, raster, row * width + x, w);
+		}
+	}
+	
+	public void update(Graphics g) {
+		// no clearing, the image covers everything
+		paint(g);
 	}
 	
 	public void paint(Graphics g) {
-		// System.out.println("Tick!");
+		if(image != null) g.drawImage(image, 0, 0, null);
 	}
 	
 	public void init() {
 		this.setBackground(Color.GRAY);
 	}
 }
-
@@ -4,10 +4,17 @@ import java.awt.BorderLayout;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
 import java.awt.Image;
+import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
 import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
 
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
 import javax.swing.JFrame;
 
 
@@ -17,6 +24,8 @@ import org.sunflow.image.Color;
 import processing.core.PApplet;
 import processing.core.PGraphics;
 
+import com.briansteen.BucketConverter;
+
 
 public class ProcessingDisplay implements Display {
 	protected PApplet applet;
@@ -27,8 +36,17 @@ public class ProcessingDisplay implements Display {
 	private JFrame previewFrame;
 	private PreviewDisplay preview;
 	
+	// render threads only add finished rectangles, one refresh thread copies and repaints them
+	private ConcurrentLinkedQueue<Rectangle> dirtyRectangles = new ConcurrentLinkedQueue<Rectangle>();
+	// only set while a render shows the preview, showPreview() may change in between
+	private volatile ScheduledExecutorService previewRefresh;
+	private int previewRate = 30;
+	
 	protected int width, height;
 	
+	// shared by all render threads, turns bucket colors into pixels
+	protected BucketConverter converter = new BucketConverter();
+	
 	public ProcessingDisplay(PApplet applet, P5SunflowAPIAPI renderer) {
 		this.applet = applet;
 		
@@ -55,14 +73,27 @@ public class ProcessingDisplay implements Display {
 	public void imageEnd() {
 		renderer.updatePixels();
 		
-		if(showPreview) {
+		if(previewRefresh != null) {
 			teardownPreview();
 		}
 	}
+	
+	/**
+	 * how often the preview window is refreshed while rendering
+	 * @param rate refreshes per second, default is 30
+	 */
+	public void setPreviewRate(int rate) {
+		this.previewRate = rate;
+	}
 
 	public void imageFill(int x, int y, int w, int h, Color c, float alpha) {
-		int color = p5Color(c, alpha);
+		int color = converter.convert(c, alpha);
 		for(int i=0; i<renderer.pixelCount; i++) { renderer.pixels[i] = color; }
+		
+		if(previewRefresh != null) {
+			// the whole image was filled
+			dirtyRectangles.add(new Rectangle(0, 0, width, height));
+		}
 	}
 
 	public void imagePrepare(int x, int y, int w, int h, int id) {
@@ -71,44 +102,27 @@ public class ProcessingDisplay implements Display {
 	public void imageUpdate(int x, int y, int w, int h, Color[] data, float[] alpha) {
 		
 		int[] pixels = renderer.pixels;
-		int loopCount = 0;
-		for(int yPos=y; yPos < (y+h); yPos++) {
-			int thisY = (height-1) - yPos;
-			for(int xPos=x; xPos < (x+w); xPos++) {
-				int index = (thisY * width) + xPos;
-				setPixel(pixels, index, data[loopCount], alpha[loopCount]);
-				loopCount++;
-			}
-		}
+		// row by row, processing rows start at the bottom
+		converter.convertBucket(data, alpha, x, y, w, h, pixels, width, height, true);
 		
-		if(showPreview) {
-			updatePreview(pixels);
-		}
-	}
-	
-	private void setPixel(int[] pixels, int i, Color c, float alpha) {
-		if(alpha == 1)
-			pixels[i] = p5Color(c, alpha);
-		else {
-			pixels[i] = p5Color(c, alpha);
+		if(previewRefresh != null) {
+			// the bucket rows are upside down in pixels
+			dirtyRectangles.add(new Rectangle(x, (height - 1) - (y + h - 1), w, h));
 		}
 	}
-
-	private int p5Color(Color c, float alpha) {
-		float[] colors = c.getRGB();
-
-		int a = (int)Math.min((alpha * 255), 255);
-		int r =	(int)Math.min((colors[0] * 255), 255);
-		int g =	(int)Math.min((colors[1] * 255), 255);
-		int b = (int)Math.min((colors[2] * 255), 255);
-		
-		return (a << 24) | (r << 16) | (g << 8) | b;
-	}
 	
 	public void showPreview(boolean showPreview) {
 		this.showPreview = showPreview;
 	}
 	
+	/**
+	 * gamma curve applied to the rendered colors, default is 1 (unchanged)
+	 * @param gamma gamma
+	 */
+	public void setGamma(float gamma) {
+		converter.setGamma(gamma);
+	}
+	
 	
 	//////////////////////////////////////////////////////////////////
 	// Preview Window Methods
@@ -126,33 +140,48 @@ public class ProcessingDisplay implements Display {
 			preview.setup(width, height);
 			preview.init();
 		}
+		dirtyRectangles.clear();
+		previewRefresh = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "P5Sunflow Preview");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		long period = 1000000000L / Math.max(1, previewRate);
+		previewRefresh.scheduleAtFixedRate(new Runnable() {
+			public void run() {
+				updatePreview();
+			}
+		}, period, period, TimeUnit.NANOSECONDS);
 	}
 	
 	private void teardownPreview() {
+		ScheduledExecutorService refresh = previewRefresh;
+		previewRefresh = null;
+		refresh.shutdown();
+		try {
+			refresh.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		// show the last buckets
+		updatePreview();
 		// previewFrame.setVisible(false);
 	}
 	
-	private void updatePreview(int[] pixels) {
-		Graphics pg = preview.getGraphics();
-		// Create buffered image
-		BufferedImage img = new BufferedImage(width, height,
-				BufferedImage.TYPE_3BYTE_BGR);
-		int id = 0;// pixels.length-1;	
-//		for (int y = height-1; y >= 0; y--) {
-//			for (int x = 0; x < width; x++) {
-//				// draw pixels array
-//				img.setRGB(x, y, pixels[id++]);
-//			}
-//		}
-
-		for (int y = 0; y < height; y++) {
-			for (int x = 0; x < width; x++) {
-				// draw pixels array
-				img.setRGB(x, y, pixels[id++]);
-			}
+	/**
+	 * copies all finished rectangles into the preview and repaints their bounds once
+	 */
+	private void updatePreview() {
+		int[] pixels = renderer.pixels;
+		Rectangle bounds = null;
+		Rectangle rectangle;
+		while((rectangle = dirtyRectangles.poll()) != null) {
+			preview.copy(pixels, rectangle.x, rectangle.y, rectangle.width, rectangle.height);
+			if(bounds == null) bounds = rectangle;
+			else bounds.add(rectangle);
 		}
-		
-		pg.drawImage(img, 0, 0, null);
-		preview.repaint();
+		if(bounds != null) preview.repaint(bounds.x, bounds.y, bounds.width, bounds.height);
 	}
 }
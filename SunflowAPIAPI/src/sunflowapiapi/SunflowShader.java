@@ -1,6 +1,11 @@
 package sunflowapiapi;
 
 import java.awt.Color;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
 
 import org.sunflow.SunflowAPI;
 
@@ -40,6 +45,12 @@ public class SunflowShader {
 	private int nameID = 0;
 	public String currentName = "default_shader_";
 	
+	/* shader names by type and parameters, so identical shaders are only declared once */
+	private HashMap<String, String> registry = new HashMap<String, String>();
+	/* registry names set since the last removeUnusedShaders() */
+	private HashSet<String> usedNames = new HashSet<String>();
+	private StringBuilder key = new StringBuilder();
+	
 	/* sunflow values */
 	private Color bright = new Color(1.0f, 1.0f, 1.0f);
 	private Color dark = new Color(0.0f, 0.0f, 0.0f);
@@ -75,6 +86,106 @@ public class SunflowShader {
 		sunflow = sunflow_;
 	}
 	
+	/**
+	 * copies type and values of another shader, nothing is sent to sunflow
+	 * @param state shader to copy
+	 */
+	public SunflowShader(SunflowShader state) {
+		sunflow = state.sunflow;
+		setState(state);
+	}
+	
+	/**
+	 * takes over type and values of another shader, the names of already declared shaders are kept
+	 * @param state shader to copy
+	 */
+	public void setState(SunflowShader state) {
+		type = state.type;
+		colorSpace = state.colorSpace;
+		currentName = state.currentName;
+		bright = state.bright;
+		dark = state.dark;
+		color = state.color;
+		samples = state.samples;
+		maxDist = state.maxDist;
+		texture = state.texture;
+		eta = state.eta;
+		absorptionDistance = state.absorptionDistance;
+		absorptionColor = state.absorptionColor;
+		diffuse = state.diffuse;
+		specular = state.specular;
+		power = state.power;
+		shiny = state.shiny;
+		diffuseTexture = state.diffuseTexture;
+		specularTexture = state.specularTexture;
+		diffuseBlend = state.diffuseBlend;
+		specularBlend = state.specularBlend;
+		glossyness = state.glossyness;
+		roughnessX = state.roughnessX;
+		roughnessY = state.roughnessY;
+		lineColor = state.lineColor;
+		fillColor = state.fillColor;
+		width = state.width;
+	}
+	
+	/**
+	 * looks for an already declared shader with the same type and parameters.
+	 * if there is one currentName is set to it, otherwise currentName gets a new
+	 * name which is remembered for these parameters
+	 * @param type shader type
+	 * @param parameters all values sent to sunflow for this shader
+	 * @return true if the shader exists and nothing has to be sent to sunflow
+	 */
+	private boolean lookupShader(String type, Object... parameters) {
+		key.setLength(0);
+		key.append(type).append('|').append(colorSpace);
+		for(int i=0;i<parameters.length;i++) {
+			key.append('|');
+			if(parameters[i] instanceof Color) key.append(((Color)parameters[i]).getRGB());
+			else key.append(parameters[i]);
+		}
+		String shaderKey = key.toString();
+		String name = registry.get(shaderKey);
+		if(name != null) {
+			currentName = name;
+			usedNames.add(name);
+			return true;
+		}
+		currentName = defaultName + nameID++;
+		registry.put(shaderKey, currentName);
+		usedNames.add(currentName);
+		return false;
+	}
+	
+	/**
+	 * removes the shaders from sunflow and the registry which were not set since the last call
+	 * and are not kept, so changing values do not leave a shader behind every frame
+	 * @param keep names of shaders still used by objects in sunflow
+	 * @return number of shaders removed
+	 */
+	public int removeUnusedShaders(Collection<String> keep) {
+		int removed = 0;
+		Iterator<Map.Entry<String, String>> shaders = registry.entrySet().iterator();
+		while(shaders.hasNext()) {
+			String name = shaders.next().getValue();
+			if(!usedNames.contains(name) && !keep.contains(name)) {
+				sunflow.remove(name);
+				shaders.remove();
+				removed++;
+			}
+		}
+		usedNames.clear();
+		return removed;
+	}
+	
+	/**
+	 * number of shaders declared in sunflow so far
+	 * @return int
+	 */
+	public int getShaderCount() {
+		return registry.size();
+	}
+	
 	/**
 	 * sets the current shader
 	 */
@@ -113,8 +224,8 @@ public class SunflowShader {
 		this.maxDist = maxDist;
 		
 		type = SHADER_AMBIENT_OCCLUSION;
-		//		save name for use with primitives
-		currentName = defaultName + nameID++;
+		//		reuse an identical shader or save a new name for use with primitives
+		if(lookupShader(type, bright, dark, samples, maxDist)) return;
 
 //		set parameter
 		sunflow.parameter("bright", colorSpace, bright.getRed()/(float)255, bright.getGreen()/(float)255, bright.getBlue()/(float)255);
@@ -143,8 +254,8 @@ public class SunflowShader {
 		this.texture = texture;
 		
 		type = SHADER_TEXTURED_AMBIENT_OCCLUSION;
-//		save name for use with primitives
-		currentName = defaultName + nameID++;
+//		reuse an identical shader or save a new name for use with primitives
+		if(lookupShader(type, bright, dark, samples, maxDist, texture)) return;
 
 //		set parameter
 		sunflow.parameter("bright", colorSpace, bright.getRed()/(float)255, bright.getGreen()/(float)255, bright.getBlue()/(float)255);
@@ -166,8 +277,8 @@ public class SunflowShader {
 		this.color = color;
 		
 		type = SHADER_CONSTANT;
-//		save name for use with primitives
-		currentName = defaultName + nameID++;
+//		reuse an identical shader or save a new name for use with primitives
+		if(lookupShader(type, color)) return;
 
 //		set parameter
 		sunflow.parameter("color", colorSpace, color.getRed()/(float)255, color.getGreen()/(float)255, color.getBlue()/(float)255);
@@ -185,8 +296,8 @@ public class SunflowShader {
 		this.color = color;
 		
 		type = SHADER_DIFFUSE;
-//		save name for use with primitives
-		currentName = defaultName + nameID++;
+//		reuse an identical shader or save a new name for use with primitives
+		if(lookupShader(type, color)) return;
 
 //		set parameter
 		sunflow.parameter("diffuse", colorSpace, color.getRed()/(float)255, color.getGreen()/(float)255, color.getBlue()/(float)255);
@@ -206,8 +317,8 @@ public class SunflowShader {
 		this.texture = texture;
 		
 		type = SHADER_TEXTURED_DIFFUSE;
-//		save name for use with primitives
-		currentName = defaultName + nameID++;
+//		reuse an identical shader or save a new name for use with primitives
+		if(lookupShader(type, color, texture)) return;
 
 //		set parameter
 		sunflow.parameter("diffuse", colorSpace, color.getRed()/(float)255, color.getGreen()/(float)255, color.getBlue()/(float)255);
@@ -232,8 +343,8 @@ public class SunflowShader {
 		this.absorptionColor = absorptionColor;
 		
 		type = SHADER_GLASS;
-//		save name for use with primitives
-		currentName = defaultName + nameID++;
+//		reuse an identical shader or save a new name for use with primitives
+		if(lookupShader(type, color, eta, absorptionDistance, absorptionColor)) return;
 
 //		set parameter
 		sunflow.parameter("color", colorSpace, color.getRed()/(float)255, color.getGreen()/(float)255, color.getBlue()/(float)255);
@@ -253,8 +364,8 @@ public class SunflowShader {
 		// save internal status
 		this.color = color;
 		type = SHADER_MIRROR;
-//		save name for use with primitives
-		currentName = defaultName + nameID++;
+//		reuse an identical shader or save a new name for use with primitives
+		if(lookupShader(type, color)) return;
 
 //		set parameter
 		sunflow.parameter("color", colorSpace, color.getRed()/(float)255, color.getGreen()/(float)255, color.getBlue()/(float)255);
@@ -277,8 +388,8 @@ public class SunflowShader {
 		this.power = power;
 		this.samples = samples;
 		type = SHADER_PHONG;
-//		save name for use with primitives
-		currentName = defaultName + nameID++;
+//		reuse an identical shader or save a new name for use with primitives
+		if(lookupShader(type, diffuse, specular, power, samples)) return;
 
 //		set parameter
 		sunflow.parameter("diffuse", colorSpace, diffuse.getRed()/(float)255, diffuse.getGreen()/(float)255, diffuse.getBlue()/(float)255);
@@ -305,8 +416,8 @@ public class SunflowShader {
 		this.power = power;
 		this.samples = samples;
 		type = SHADER_TEXTURED_PHONG;
-//		save name for use with primitives
-		currentName = defaultName + nameID++;
+//		reuse an identical shader or save a new name for use with primitives
+		if(lookupShader(type, diffuse, specular, power, samples, texture)) return;
 
 //		set parameter
 		sunflow.parameter("diffuse", colorSpace, diffuse.getRed()/(float)255, diffuse.getGreen()/(float)255, diffuse.getBlue()/(float)255);
@@ -329,8 +440,8 @@ public class SunflowShader {
 		this.color = color;
 		this.shiny = shiny;
 		type = SHADER_SHINY_DIFFUSE;
-//		save name for use with primitives
-		currentName = defaultName + nameID++;
+//		reuse an identical shader or save a new name for use with primitives
+		if(lookupShader(type, color, shiny)) return;
 
 //		set parameter
 		sunflow.parameter("diffuse", colorSpace, color.getRed()/(float)255, color.getGreen()/(float)255, color.getBlue()/(float)255);
@@ -353,8 +464,8 @@ public class SunflowShader {
 		this.texture = texture;
 		
 		type = SHADER_TEXTURED_SHINY_DIFFUSE;
-//		save name for use with primitives
-		currentName = defaultName + nameID++;
+//		reuse an identical shader or save a new name for use with primitives
+		if(lookupShader(type, color, shiny, texture)) return;
 
 //		set parameter
 		sunflow.parameter("diffuse", colorSpace, color.getRed()/(float)255, color.getGreen()/(float)255, color.getBlue()/(float)255);
@@ -388,8 +499,8 @@ public class SunflowShader {
 		this.samples = samples;
 		
 		type = SHADER_UBER;
-//		save name for use with primitives
-		currentName = defaultName + nameID++;
+//		reuse an identical shader or save a new name for use with primitives
+		if(lookupShader(type, diffuse, specular, diffuseTexture, specularTexture, diffuseBlend, specularBlend, glossyness, samples)) return;
 
 //		set parameter
 		sunflow.parameter("diffuse", colorSpace, diffuse.getRed()/(float)255, diffuse.getGreen()/(float)255, diffuse.getBlue()/(float)255);
@@ -422,8 +533,8 @@ public class SunflowShader {
 		this.samples = samples;
 		
 		type = SHADER_WARD;
-//		save name for use with primitives
-		currentName = defaultName + nameID++;
+//		reuse an identical shader or save a new name for use with primitives
+		if(lookupShader(type, diffuse, specular, roughnessX, roughnessY, samples)) return;
 
 //		set parameter
 		sunflow.parameter("diffuse", colorSpace, diffuse.getRed()/(float)255, diffuse.getGreen()/(float)255, diffuse.getBlue()/(float)255);
@@ -455,8 +566,8 @@ public class SunflowShader {
 		this.texture = texture;
 		
 		type = SHADER_TEXTURED_WARD;
-//		save name for use with primitives
-		currentName = defaultName + nameID++;
+//		reuse an identical shader or save a new name for use with primitives
+		if(lookupShader(type, diffuse, specular, roughnessX, roughnessY, samples, texture)) return;
 
 //		set parameter
 		sunflow.parameter("diffuse", colorSpace, diffuse.getRed()/(float)255, diffuse.getGreen()/(float)255, diffuse.getBlue()/(float)255);
@@ -483,8 +594,8 @@ public class SunflowShader {
 		this.width = width;
 		
 		type = SHADER_WIREFRAME;
-//		save name for use with primitives
-		currentName = defaultName + nameID++;
+//		reuse an identical shader or save a new name for use with primitives
+		if(lookupShader(type, lineColor, fillColor, width)) return;
 
 //		set parameter
 		sunflow.parameter("line", colorSpace, lineColor.getRed()/(float)255, lineColor.getGreen()/(float)255, lineColor.getBlue()/(float)255);
@@ -13,6 +13,7 @@ public class BasicBoxes extends PApplet{
 		size(sceneWidth, sceneHeight, "sunflowapiapi.P5SunflowAPIAPI");
 
 		sunflow = (P5SunflowAPIAPI) g;
+		sunflow.setCapturing(true);	// geometry is only sent to sunflow on frames that render
 		fill(255);
 	}
 